@@ -0,0 +1,26 @@
+package test.transportation;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its
+ * allocation rate (gc.alloc.rate.norm is bytes per operation). Accepts the
+ * usual JMH command line, e.g. a regular expression selecting benchmarks.
+ * 
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
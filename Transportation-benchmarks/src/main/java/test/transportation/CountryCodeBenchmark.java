@@ -0,0 +1,52 @@
+package test.transportation;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building the mapping of 3-letter to 2-letter country codes, which
+ * OrderParser does once, and the lookup done for every address of the feed.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountryCodeBenchmark {
+
+	private static final String[] CODES = { "DEU", "POL", "FRA", "NLD", "CZE",
+			"AUT", "XXX", "BEL" };
+
+	private Map<String, String> countryCodes;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		countryCodes = OrderParser.createCountryCodeMapping();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Map<String, String> createMapping() {
+		return OrderParser.createCountryCodeMapping();
+	}
+
+	@Benchmark
+	public String lookup() {
+		next = (next + 1) & (CODES.length - 1);
+		return countryCodes.get(CODES[next]);
+	}
+}
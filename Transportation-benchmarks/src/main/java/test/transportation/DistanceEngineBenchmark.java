@@ -0,0 +1,82 @@
+package test.transportation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the batch computations of DistanceEngine with the scalar haversine
+ * of OrderSpatialIndex: trip lengths of 100k orders, a matrix from 1k depots
+ * to 10k departures and the nearest of 1k depots for 100k departures.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceEngineBenchmark {
+
+	private List<Order> orders;
+	private DistanceEngine engine;
+	private DistanceEngine.Points departures;
+	private DistanceEngine.Points someDepartures;
+	private DistanceEngine.Points depots;
+
+	@Setup
+	public void setUp() {
+		orders = Fixtures.orders(100000, 42);
+		engine = new DistanceEngine();
+		departures = DistanceEngine.Points.of(orders, Order.DEPARTURE_ID);
+		someDepartures = DistanceEngine.Points.of(orders.subList(0, 10000),
+				Order.DEPARTURE_ID);
+		depots = DistanceEngine.Points.of(Fixtures.orders(1000, 43),
+				Order.DESTINATION_ID);
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Benchmark
+	public double[] tripDistancesEngine() {
+		return DistanceEngine.tripDistancesKm(orders);
+	}
+
+	@Benchmark
+	public double[] tripDistancesScalar() {
+		double[] distances = new double[orders.size()];
+		for (int i = 0; i < distances.length; i++) {
+			Order order = orders.get(i);
+			distances[i] = OrderSpatialIndex.distanceKm(
+					order.getDepartureLatitude(),
+					order.getDepartureLongitude(),
+					order.getDestinationLatitude(),
+					order.getDestinationLongitude());
+		}
+		return distances;
+	}
+
+	@Benchmark
+	public float[] matrix() throws InterruptedException {
+		return engine.matrixKm(someDepartures, depots);
+	}
+
+	@Benchmark
+	public int[] nearest() throws InterruptedException {
+		return engine.nearest(departures, depots, null);
+	}
+}
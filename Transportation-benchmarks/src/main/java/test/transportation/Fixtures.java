@@ -0,0 +1,179 @@
+package test.transportation;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic test data for the benchmarks: synthetic orders spread over
+ * Germany and Poland, order feeds in the format of the orders web page, and
+ * recorded geocoding responses from the resources. Nothing is read from the
+ * network.
+ * 
+ */
+final class Fixtures {
+
+	private static final String[][] CITIES = {
+			{ "Germany", "DEU", "Berlin", "10115", "52.52", "13.40" },
+			{ "Germany", "DEU", "Hamburg", "20095", "53.55", "9.99" },
+			{ "Germany", "DEU", "München", "80331", "48.14", "11.58" },
+			{ "Germany", "DEU", "Köln", "50667", "50.94", "6.96" },
+			{ "Germany", "DEU", "Frankfurt am Main", "60311", "50.11", "8.68" },
+			{ "Germany", "DEU", "Leipzig", "04109", "51.34", "12.37" },
+			{ "Poland", "POL", "Warszawa", "00-001", "52.23", "21.01" },
+			{ "Poland", "POL", "Poznań", "61-001", "52.41", "16.93" },
+			{ "Poland", "POL", "Wrocław", "50-001", "51.11", "17.04" } };
+
+	private static final String[] STREETS = { "Hauptstraße", "Bahnhofstraße",
+			"Industriestraße", "Am Hafen", "Gewerbepark", "ul. Marszałkowska",
+			"ul. Długa", "Lindenallee" };
+
+	/**
+	 * Share of addresses taken from a small set of depots, which makes the
+	 * feed repeat addresses like the real one.
+	 */
+	private static final double DEPOT_SHARE = 0.3;
+	private static final int DEPOT_COUNT = 50;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Creates geocoded orders.
+	 * 
+	 * @param count
+	 *            Number of orders.
+	 * @param seed
+	 *            Seed of the random generator; equal seeds give equal orders.
+	 * @return List of orders with coordinates.
+	 */
+	static List<Order> orders(int count, long seed) {
+		Random random = new Random(seed);
+		List<Order> orders = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Address departure = address(random);
+			Address destination = address(random);
+			departure.setCoordinates(47.3 + random.nextDouble() * 7.7,
+					5.9 + random.nextDouble() * 18.1);
+			destination.setCoordinates(47.3 + random.nextDouble() * 7.7,
+					5.9 + random.nextDouble() * 18.1);
+			Order order = new Order(departure, destination);
+			order.setId(Integer.toString(i));
+			orders.add(order);
+		}
+		return orders;
+	}
+
+	private static Address address(Random random) {
+		String[] city = CITIES[random.nextInt(CITIES.length)];
+		return new Address(city[0], city[3], city[2], city[1], null,
+				STREETS[random.nextInt(STREETS.length)],
+				Integer.toString(1 + random.nextInt(200)));
+	}
+
+	/**
+	 * Writes an orders feed in the JSON format of the orders web page.
+	 * 
+	 * @param file
+	 *            Target file, overwritten.
+	 * @param count
+	 *            Number of orders.
+	 * @param seed
+	 *            Seed of the random generator.
+	 */
+	static void writeFeed(File file, int count, long seed) throws IOException {
+		Random random = new Random(seed);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"), 1 << 16);
+		try {
+			writer.write("[");
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					writer.write(",\n");
+				}
+				writeOrder(writer, i, random);
+			}
+			writer.write("]");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes one order object of the feed.
+	 * 
+	 * @param writer
+	 *            Target of the JSON.
+	 * @param id
+	 *            Id of the order.
+	 * @param random
+	 *            Source of the address details.
+	 */
+	static void writeOrder(Writer writer, int id, Random random)
+			throws IOException {
+		writer.write("{\"id\":");
+		writer.write(Integer.toString(id));
+		writer.write(",\"departureAddress\":");
+		writeAddress(writer, random);
+		writer.write(",\"destinationAddress\":");
+		writeAddress(writer, random);
+		writer.write(",\"comment\":\"Pallets: ");
+		writer.write(Integer.toString(1 + random.nextInt(33)));
+		writer.write("\"}");
+	}
+
+	static void writeAddress(Writer writer, Random random)
+			throws IOException {
+		if (random.nextDouble() < DEPOT_SHARE) {
+			random = new Random(random.nextInt(DEPOT_COUNT));
+		}
+		String[] city = CITIES[random.nextInt(CITIES.length)];
+		writer.write("{\"country\":\"");
+		writer.write(city[0]);
+		writer.write("\",\"zipCode\":\"");
+		writer.write(city[3]);
+		writer.write("\",\"city\":\"");
+		writer.write(city[2]);
+		writer.write("\",\"countryCode\":\"");
+		writer.write(city[1]);
+		writer.write("\",\"street\":\"");
+		writer.write(STREETS[random.nextInt(STREETS.length)]);
+		writer.write("\",\"houseNumber\":\"");
+		writer.write(Integer.toString(1 + random.nextInt(200)));
+		writer.write("\"}");
+	}
+
+	/**
+	 * Reads a fixture file from the resources.
+	 * 
+	 * @param name
+	 *            Name of the file in the fixtures directory.
+	 * @return Content of the file.
+	 */
+	static String resource(String name) throws IOException {
+		InputStream in = Fixtures.class.getResourceAsStream("/fixtures/"
+				+ name);
+		if (in == null) {
+			throw new IOException("Missing fixture: " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}
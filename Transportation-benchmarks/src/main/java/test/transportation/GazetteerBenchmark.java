@@ -0,0 +1,110 @@
+package test.transportation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups in the local gazetteer and loading its file. The gazetteer
+ * holds one place per postcode, about as many as the postal code dump of
+ * GeoNames has for Germany and Poland together. Queries are a mix of exact
+ * hits, zip codes with an unknown city, cities without a zip code and unknown
+ * addresses.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GazetteerBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int placeCount;
+
+	private File file;
+	private GazetteerGeocoder gazetteer;
+	private Address[] queries;
+	private int query;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		GazetteerGeocoder.Builder builder = new GazetteerGeocoder.Builder();
+		for (int i = 0; i < placeCount; i++) {
+			builder.add((i % 2 == 0) ? "DE" : "PL", zipCode(i), city(i),
+					47.3 + random.nextDouble() * 7.7,
+					5.9 + random.nextDouble() * 18.1);
+		}
+		file = File.createTempFile("gazetteer-", ".bin");
+		builder.write(file);
+		gazetteer = GazetteerGeocoder.read(file);
+
+		queries = new Address[1024];
+		for (int i = 0; i < queries.length; i++) {
+			int place = random.nextInt(placeCount);
+			String countryCode = (place % 2 == 0) ? "DE" : "PL";
+			switch (i % 4) {
+			case 0:
+				queries[i] = address(countryCode, zipCode(place), city(place));
+				break;
+			case 1:
+				queries[i] = address(countryCode, zipCode(place), "Unbekannt");
+				break;
+			case 2:
+				queries[i] = address(countryCode, null, city(place));
+				break;
+			default:
+				queries[i] = address("FR", zipCode(place), city(place));
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static String zipCode(int place) {
+		return String.format(Locale.ROOT, "%06d", place);
+	}
+
+	private static String city(int place) {
+		return "Ort " + (place / 10);
+	}
+
+	private static Address address(String countryCode, String zipCode,
+			String city) {
+		return new Address(null, zipCode, city, null, countryCode,
+				"Hauptstraße", "1");
+	}
+
+	@Benchmark
+	public Geocoder.Result lookup() {
+		query = (query + 1) & (queries.length - 1);
+		return gazetteer.geocode(queries[query], "");
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public GazetteerGeocoder read() throws IOException {
+		return GazetteerGeocoder.read(file);
+	}
+}
@@ -0,0 +1,81 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the request side and the response side of a geocoding call
+ * without the network: building the normalized address key and the request
+ * URL of an address, and parsing recorded responses of the geocoding service.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeocodeResponseBenchmark {
+
+	/**
+	 * Recorded response of the geocoding service.
+	 */
+	@State(Scope.Benchmark)
+	public static class Response {
+
+		@Param({ "geocode-ok.json", "geocode-zero-results.json",
+				"geocode-over-query-limit.json" })
+		public String response;
+
+		String text;
+
+		@Setup
+		public void setUp() throws IOException {
+			text = Fixtures.resource(response);
+		}
+	}
+
+	private AddressGeocoder geocoder;
+	private List<Order> orders;
+	private String addressKey;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		geocoder = new AddressGeocoder();
+		orders = Fixtures.orders(1024, 42);
+		addressKey = geocoder.formAddressKey(orders.get(0)
+				.getDepartureAddress());
+	}
+
+	@Benchmark
+	public AddressGeocoder.GeocodeResponse parseResponse(Response response)
+			throws IOException {
+		return AddressGeocoder.parseResponse(new StringReader(response.text));
+	}
+
+	@Benchmark
+	public String formAddressKey() {
+		next = (next + 1) & (orders.size() - 1);
+		return geocoder.formAddressKey(orders.get(next).getDepartureAddress());
+	}
+
+	@Benchmark
+	public String formAddressRequest() {
+		return geocoder.formAddressRequest(addressKey);
+	}
+}
@@ -0,0 +1,298 @@
+package test.transportation;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test of the order pipeline without the network: starts a
+ * stand-in for the orders web page and one for the geocoding service on
+ * local ports, runs OrderParser.parse and AddressGeocoder.getAllCoordinates
+ * against them and reports the throughput, the latency percentiles of the
+ * geocoder and the peak heap. The feed, the latency distribution of the
+ * service and the faults it injects are set with the options.
+ * 
+ * Usage: java -cp target/benchmarks.jar test.transportation.LoadTest
+ * [options]
+ * 
+ */
+public class LoadTest {
+
+	private static final String USAGE = "Usage: java -cp benchmarks.jar test.transportation.LoadTest [options]\n"
+			+ "  -n, --orders N           records in the feed (default: 10000)\n"
+			+ "      --page-size N        records per feed page (default: 1000)\n"
+			+ "  -d, --duplicates R       share of records repeating an earlier order (default: 0.3)\n"
+			+ "      --malformed R        share of malformed records (default: 0.01)\n"
+			+ "  -l, --latency SPEC       latency of the geocoding service (default: lognormal:30:0.5):\n"
+			+ "                           fixed:MS, uniform:MIN:MAX, lognormal:MEDIAN:SIGMA\n"
+			+ "                           or tail:MS:SHARE:SLOW\n"
+			+ "  -q, --over-query-limit R share of OVER_QUERY_LIMIT responses (default: 0.01)\n"
+			+ "  -e, --errors R           share of HTTP 500 responses (default: 0.005)\n"
+			+ "  -t, --threads N          number of geocoding threads (default: 8)\n"
+			+ "  -r, --rate N             geocoding requests per second (default: 500)\n"
+			+ "      --seed N             seed of the feed (default: 42)\n"
+			+ "  -m, --metrics FILE       write the metrics of the run to FILE as JSON";
+
+	/**
+	 * Interval of the heap samples in milliseconds.
+	 */
+	private static final long HEAP_SAMPLE_MILLIS = 10;
+
+	private int orderCount = 10000;
+	private int pageSize = 1000;
+	private double duplicateRatio = 0.3;
+	private double malformedRatio = 0.01;
+	private StubGeocodeServer.Latency latency = StubGeocodeServer.Latency
+			.parse("lognormal:30:0.5");
+	private double overQueryLimitRatio = 0.01;
+	private double errorRatio = 0.005;
+	private int threads = 8;
+	private double requestsPerSecond = 500;
+	private long seed = 42;
+	private File metricsFile;
+
+	public static void main(String[] args) throws IOException {
+		// Without it the stub servers wait for delayed ACKs, which adds
+		// 40 ms to every response
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		LoadTest loadTest = new LoadTest();
+		try {
+			loadTest.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		loadTest.run();
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "-n":
+			case "--orders":
+				orderCount = parseInt(value(args, ++i, arg), arg);
+				break;
+			case "--page-size":
+				pageSize = parseInt(value(args, ++i, arg), arg);
+				break;
+			case "-d":
+			case "--duplicates":
+				duplicateRatio = parseDouble(value(args, ++i, arg), arg);
+				break;
+			case "--malformed":
+				malformedRatio = parseDouble(value(args, ++i, arg), arg);
+				break;
+			case "-l":
+			case "--latency":
+				latency = StubGeocodeServer.Latency.parse(value(args, ++i,
+						arg));
+				break;
+			case "-q":
+			case "--over-query-limit":
+				overQueryLimitRatio = parseDouble(value(args, ++i, arg), arg);
+				break;
+			case "-e":
+			case "--errors":
+				errorRatio = parseDouble(value(args, ++i, arg), arg);
+				break;
+			case "-t":
+			case "--threads":
+				threads = parseInt(value(args, ++i, arg), arg);
+				break;
+			case "-r":
+			case "--rate":
+				requestsPerSecond = parseDouble(value(args, ++i, arg), arg);
+				break;
+			case "--seed":
+				seed = parseInt(value(args, ++i, arg), arg);
+				break;
+			case "-m":
+			case "--metrics":
+				metricsFile = new File(value(args, ++i, arg));
+				break;
+			case "-h":
+			case "--help":
+				System.out.println(USAGE);
+				System.exit(0);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+	}
+
+	private static String value(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[index];
+	}
+
+	private static int parseInt(String value, String option) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + option
+					+ ": " + value);
+		}
+	}
+
+	private static double parseDouble(String value, String option) {
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + option
+					+ ": " + value);
+		}
+	}
+
+	private void run() throws IOException {
+		StubFeedServer feedServer = new StubFeedServer(orderCount, pageSize,
+				seed, duplicateRatio, malformedRatio);
+		StubGeocodeServer geocodeServer = null;
+		AddressGeocoder geocoder = null;
+		List<Order> orderList;
+		HeapSampler heap;
+		long start, parsed, finished;
+		try {
+			geocodeServer = new StubGeocodeServer(latency,
+					overQueryLimitRatio, errorRatio,
+					StubGeocodeServer.DEFAULT_THREADS);
+			// Histograms are only recorded while an exporter is set
+			Metrics.getDefault().setExporter(
+					(metricsFile != null) ? new JsonMetricsExporter(
+							metricsFile) : new MetricsExporter() {
+						@Override
+						public void export(Metrics metrics) {
+						}
+					});
+
+			HttpTransport transport = new HttpTransport(
+					HttpTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+					HttpTransport.DEFAULT_READ_TIMEOUT_MILLIS, threads + 1);
+			OrderParser orderParser = new OrderParser(transport,
+					feedServer.getUrl());
+			geocoder = new AddressGeocoder(threads, requestsPerSecond,
+					AddressGeocoder.DEFAULT_MAX_RETRIES);
+			geocoder.setTransport(transport);
+			geocoder.setGeocodeUrl(geocodeServer.getUrl());
+
+			heap = new HeapSampler();
+			start = System.nanoTime();
+			orderList = orderParser.parse();
+			parsed = System.nanoTime();
+			geocoder.getAllCoordinates(orderList);
+			finished = System.nanoTime();
+			heap.stop();
+		} finally {
+			feedServer.stop();
+			if (geocodeServer != null) {
+				geocodeServer.stop();
+			}
+			if (geocoder != null) {
+				geocoder.getHedgedCaller().shutdown();
+			}
+		}
+
+		int geocoded = 0;
+		for (Order order : orderList) {
+			if (order.hasCoordinates()) {
+				geocoded++;
+			}
+		}
+		Metrics metrics = Metrics.getDefault();
+		long totalMillis = TimeUnit.NANOSECONDS.toMillis(finished - start);
+		System.out.println(String.format(Locale.US,
+				"Feed: %d records in %d pages, %d orders parsed "
+						+ "(%d dropped) in %d ms", orderCount,
+				feedServer.getPageCount(), orderList.size(),
+				metrics.counter("feed.dropped_orders").get(),
+				TimeUnit.NANOSECONDS.toMillis(parsed - start)));
+		System.out.println("Geocoding: " + geocoder.getStatistics());
+		System.out.println(String.format(Locale.US,
+				"Geocoding service: %d requests, %d over query limit, "
+						+ "%d errors, breaker %s",
+				geocodeServer.getRequestCount(),
+				geocodeServer.getOverQueryLimitCount(),
+				geocodeServer.getErrorCount(), geocoder.getCircuitBreaker()));
+		System.out.println(String.format(Locale.US,
+				"Pipeline: %d orders in %d ms, %.1f orders/s, "
+						+ "%d with coordinates", orderList.size(),
+				totalMillis, (totalMillis == 0) ? 0 : orderList.size()
+						* 1000.0 / totalMillis, geocoded));
+		System.out.println("Address latency: "
+				+ percentiles(metrics.histogram("geocode.address")));
+		System.out.println("Request latency: "
+				+ percentiles(metrics.histogram("geocode.request")));
+		System.out.println(String.format(Locale.US,
+				"Peak heap: %.1f MB used, %.1f MB before the run",
+				heap.getPeakBytes() / 1048576.0,
+				heap.getBaselineBytes() / 1048576.0));
+		metrics.export();
+	}
+
+	private static String percentiles(Metrics.Histogram histogram) {
+		return String.format(Locale.US,
+				"p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms "
+						+ "(%d samples)",
+				histogram.getPercentileMicros(50) / 1000.0,
+				histogram.getPercentileMicros(90) / 1000.0,
+				histogram.getPercentileMicros(99) / 1000.0,
+				histogram.getPercentileMicros(99.9) / 1000.0,
+				histogram.getCount());
+	}
+
+	/**
+	 * Samples the used heap while the pipeline runs. The heap is collected
+	 * before the first sample, so the baseline holds only live objects.
+	 */
+	private static class HeapSampler implements Runnable {
+
+		private final MemoryMXBean memory = ManagementFactory
+				.getMemoryMXBean();
+		private final ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor(new StubFeedServer.StubThreadFactory(
+						"heap-sampler-"));
+		private final long baselineBytes;
+		private final AtomicLong peakBytes = new AtomicLong();
+
+		HeapSampler() {
+			memory.gc();
+			baselineBytes = memory.getHeapMemoryUsage().getUsed();
+			peakBytes.set(baselineBytes);
+			executor.scheduleAtFixedRate(this, 0, HEAP_SAMPLE_MILLIS,
+					TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run() {
+			long used = memory.getHeapMemoryUsage().getUsed();
+			long highest;
+			while (used > (highest = peakBytes.get())
+					&& !peakBytes.compareAndSet(highest, used)) {
+			}
+		}
+
+		void stop() {
+			executor.shutdownNow();
+			run();
+		}
+
+		long getBaselineBytes() {
+			return baselineBytes;
+		}
+
+		long getPeakBytes() {
+			return peakBytes.get();
+		}
+	}
+}
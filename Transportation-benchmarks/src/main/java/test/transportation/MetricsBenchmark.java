@@ -0,0 +1,75 @@
+package test.transportation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of one update of each kind of instrument, with metrics
+ * off and on, from four threads like the geocoder uses.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean enabled;
+
+	private Metrics metrics;
+	private Metrics.Counter counter;
+	private Metrics.Gauge gauge;
+	private Metrics.Histogram histogram;
+
+	@Setup
+	public void setUp() {
+		metrics = new Metrics();
+		metrics.setExporter(enabled ? new MetricsExporter() {
+			@Override
+			public void export(Metrics metrics) {
+			}
+		} : null);
+		counter = metrics.counter("counter");
+		gauge = metrics.gauge("gauge");
+		histogram = metrics.histogram("histogram");
+	}
+
+	@TearDown
+	public void tearDown() {
+		metrics.setExporter(null);
+	}
+
+	@Benchmark
+	public void counter() {
+		counter.increment();
+	}
+
+	@Benchmark
+	public void gauge() {
+		if (gauge.increment()) {
+			gauge.decrement();
+		}
+	}
+
+	@Benchmark
+	public void timer() {
+		histogram.recordSince(metrics.startTimer());
+	}
+}
@@ -0,0 +1,80 @@
+package test.transportation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the accessors of Order which run for every order when it is drawn:
+ * the GeoPoint getters, the primitive coordinate getters and addressToString.
+ * Each operation visits all orders of the list once.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderAccessorBenchmark {
+
+	private List<Order> orders;
+
+	@Setup
+	public void setUp() {
+		orders = Fixtures.orders(10000, 42);
+	}
+
+	@Benchmark
+	public double latLngGetters() {
+		double sum = 0;
+		for (Order order : orders) {
+			GeoPoint departure = order.getDepartureCoordinates();
+			GeoPoint destination = order.getDestinationCoordinates();
+			sum += departure.latitude + departure.longitude
+					+ destination.latitude + destination.longitude;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double primitiveGetters() {
+		double sum = 0;
+		for (Order order : orders) {
+			sum += order.getDepartureLatitude() + order.getDepartureLongitude()
+					+ order.getDestinationLatitude()
+					+ order.getDestinationLongitude();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int hasCoordinates() {
+		int count = 0;
+		for (Order order : orders) {
+			if (order.hasCoordinates()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public void addressToString(Blackhole blackhole) {
+		for (Order order : orders) {
+			blackhole.consume(order.addressToString(Order.DEPARTURE_ID));
+			blackhole.consume(order.addressToString(Order.DESTINATION_ID));
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package test.transportation;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses synthetic order feeds with OrderStreamReader, the parser behind
+ * OrderParser, including the address details and the country code lookup of
+ * every record. The feed is written to a temporary file once per trial and
+ * read from there, so the figures contain decoding and parsing but no
+ * network. Each size runs with metrics off and on, which shows the overhead
+ * of the instrumentation, and in every format of the feed: the JSON array,
+ * newline-delimited JSON, the gzip-compressed JSON array and the binary
+ * format. The size of each feed file is printed during the setup, and
+ * pages without records, which end an emptied newline-delimited feed, are
+ * checked to be read as complete.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OrderFeedBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int orderCount;
+
+	@Param({ "false", "true" })
+	public boolean metrics;
+
+	@Param({ "json", "ndjson", "json.gz", "binary" })
+	public String format;
+
+	private File feed;
+	private OrderFeedDecoder decoder;
+	private Map<String, String> countryCodes;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		countryCodes = OrderParser.createCountryCodeMapping();
+		File json = File.createTempFile("orders-" + orderCount + "-", ".json");
+		Fixtures.writeFeed(json, orderCount, 42);
+		feed = File.createTempFile("orders-" + orderCount + "-", "."
+				+ format);
+		switch (format) {
+		case "json":
+			decoder = new JsonOrderDecoder(false);
+			feed.delete();
+			feed = json;
+			break;
+		case "ndjson":
+			decoder = new JsonOrderDecoder(true);
+			checkEmptyPages();
+			Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(feed), "UTF-8"));
+			try {
+				OrderJsonWriter.writeDelimited(readFeed(json), writer);
+			} finally {
+				writer.close();
+			}
+			break;
+		case "json.gz":
+			decoder = new GzipOrderDecoder(new JsonOrderDecoder(false));
+			compress(json, feed);
+			break;
+		default:
+			decoder = new BinaryOrderDecoder();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					feed));
+			try {
+				OrderBinaryWriter.write(readFeed(json), out);
+			} finally {
+				out.close();
+			}
+		}
+		if (feed != json) {
+			json.delete();
+		}
+		System.out.println("Feed of " + orderCount + " orders as " + format
+				+ ": " + feed.length() + " bytes");
+		Metrics.getDefault().setExporter(metrics ? new MetricsExporter() {
+			@Override
+			public void export(Metrics metrics) {
+			}
+		} : null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Metrics.getDefault().setExporter(null);
+		feed.delete();
+	}
+
+	/**
+	 * An empty page and a page of whitespace are a valid newline-delimited
+	 * feed without orders, which has to be complete, so the synchronizer
+	 * removes the orders which are gone.
+	 */
+	private void checkEmptyPages() throws IOException {
+		for (String page : new String[] { "", "\n", " \r\n\n" }) {
+			OrderStreamReader reader = new OrderStreamReader(decoder.open(
+					new ByteArrayInputStream(page.getBytes("UTF-8")), "UTF-8",
+					countryCodes));
+			try {
+				if (reader.hasNext() || !reader.isComplete()) {
+					throw new IllegalStateException(
+							"Empty newline-delimited page not read as complete: \""
+									+ page.replace("\r", "\\r").replace("\n",
+											"\\n") + "\"");
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	private List<Order> readFeed(File json) throws IOException {
+		List<Order> orders = new ArrayList<>(orderCount);
+		OrderStreamReader reader = new OrderStreamReader(new InputStreamReader(
+				new FileInputStream(json), "UTF-8"), countryCodes);
+		try {
+			while (reader.hasNext()) {
+				orders.add(reader.next());
+			}
+		} finally {
+			reader.close();
+		}
+		return orders;
+	}
+
+	private static void compress(File source, File target) throws IOException {
+		InputStream in = new FileInputStream(source);
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(target),
+				1 << 16);
+		try {
+			byte[] buffer = new byte[1 << 16];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	@Benchmark
+	public int parseFeed(Blackhole blackhole) throws IOException {
+		OrderStreamReader orders = new OrderStreamReader(decoder.open(
+				new FileInputStream(feed), "UTF-8", countryCodes));
+		int count = 0;
+		try {
+			while (orders.hasNext()) {
+				blackhole.consume(orders.next());
+				count++;
+			}
+		} finally {
+			orders.close();
+		}
+		return count;
+	}
+}
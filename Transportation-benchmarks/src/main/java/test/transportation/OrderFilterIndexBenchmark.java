@@ -0,0 +1,108 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the filters of OrderFilterIndex with a scan over the order list
+ * which compares the address fields of every order. The filters are the ones
+ * dispatchers use: orders between two countries, and departures in a zip code
+ * area of one city or another.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderFilterIndexBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int orderCount;
+
+	private List<Order> orders;
+	private OrderFilterIndex index;
+	private OrderFilterIndex.Filter countries, zipCodes;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		orders = Fixtures.orders(orderCount, 42);
+		index = OrderFilterIndex.of(orders);
+		countries = OrderFilterIndex.countryCode(Order.DEPARTURE_ID, "DEU")
+				.and(OrderFilterIndex.countryCode(Order.DESTINATION_ID, "POL"));
+		zipCodes = OrderFilterIndex.zipCodePrefix(Order.DEPARTURE_ID, "10").or(
+				OrderFilterIndex.city(Order.DEPARTURE_ID, "Warszawa"));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public OrderFilterIndex bulkLoad() {
+		return OrderFilterIndex.of(orders);
+	}
+
+	@Benchmark
+	public int countriesIndex() {
+		return index.count(countries);
+	}
+
+	@Benchmark
+	public List<Order> countriesIndexList() {
+		return index.find(countries);
+	}
+
+	@Benchmark
+	public List<Order> countriesScan() {
+		List<Order> result = new ArrayList<>();
+		for (Order order : orders) {
+			if ("DEU".equals(order.getDepartureAddress().get(
+					Order.ADDRESS_COUNTRY_CODE))
+					&& "POL".equals(order.getDestinationAddress().get(
+							Order.ADDRESS_COUNTRY_CODE))) {
+				result.add(order);
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	public int zipCodesIndex() {
+		return index.count(zipCodes);
+	}
+
+	@Benchmark
+	public List<Order> zipCodesScan() {
+		List<Order> result = new ArrayList<>();
+		for (Order order : orders) {
+			Address departure = order.getDepartureAddress();
+			if (departure.get(Order.ADDRESS_ZIPCODE).startsWith("10")
+					|| "Warszawa".equals(departure.get(Order.ADDRESS_CITY))) {
+				result.add(order);
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	public Order removeAndAdd() {
+		next = (next + 1) % orderCount;
+		Order order = orders.get(next);
+		index.remove(order);
+		index.add(order);
+		return order;
+	}
+}
@@ -0,0 +1,66 @@
+package test.transportation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing the order snapshot after a load and reading it back at
+ * the next start, which is the time until the first orders can be drawn.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSnapshotBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int orderCount;
+
+	private List<Order> orders;
+	private File readFile;
+	private File writeFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		orders = Fixtures.orders(orderCount, 42);
+		readFile = File.createTempFile("orders-", ".snapshot");
+		writeFile = File.createTempFile("orders-", ".snapshot");
+		OrderSnapshot.write(readFile, orders, "\"feed-1\"", null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		readFile.delete();
+		writeFile.delete();
+	}
+
+	@Benchmark
+	public OrderSnapshot read() throws IOException {
+		return OrderSnapshot.read(readFile);
+	}
+
+	@Benchmark
+	public File write() throws IOException {
+		OrderSnapshot.write(writeFile, orders, "\"feed-1\"", null);
+		return writeFile;
+	}
+}
@@ -0,0 +1,158 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the queries of OrderSpatialIndex with a linear scan over the order
+ * list, which is what callers had to do before. Orders are spread over Germany
+ * and Poland like the real feed; query points are departures of random orders.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSpatialIndexBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int orderCount;
+
+	@Param({ "25" })
+	public double radiusKm;
+
+	@Param({ "10" })
+	public int neighbourCount;
+
+	private List<Order> orders;
+	private OrderSpatialIndex index;
+	private double[] queryLatitudes, queryLongitudes;
+	private int query;
+
+	@Setup
+	public void setUp() {
+		orders = Fixtures.orders(orderCount, 42);
+		index = OrderSpatialIndex.of(orders);
+
+		Random random = new Random(43);
+
+		queryLatitudes = new double[1024];
+		queryLongitudes = new double[1024];
+		for (int i = 0; i < queryLatitudes.length; i++) {
+			Order order = orders.get(random.nextInt(orderCount));
+			queryLatitudes[i] = order.getDepartureLatitude();
+			queryLongitudes[i] = order.getDepartureLongitude();
+		}
+	}
+
+	private int nextQuery() {
+		query = (query + 1) & (queryLatitudes.length - 1);
+		return query;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public OrderSpatialIndex bulkLoad() {
+		return OrderSpatialIndex.of(orders);
+	}
+
+	@Benchmark
+	public List<OrderSpatialIndex.Neighbour> radiusIndex() {
+		int q = nextQuery();
+		return index.findWithinRadius(Order.DEPARTURE_ID, queryLatitudes[q],
+				queryLongitudes[q], radiusKm);
+	}
+
+	@Benchmark
+	public List<Order> radiusScan() {
+		int q = nextQuery();
+		List<Order> result = new ArrayList<>();
+		for (Order order : orders) {
+			GeoPoint departure = order.getDepartureCoordinates();
+			if (OrderSpatialIndex.distanceKm(queryLatitudes[q],
+					queryLongitudes[q], departure.latitude, departure.longitude) <= radiusKm) {
+				result.add(order);
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	public List<Order> boxIndex() {
+		int q = nextQuery();
+		return index.findInBox(Order.DEPARTURE_ID, queryLatitudes[q] - 0.2,
+				queryLongitudes[q] - 0.3, queryLatitudes[q] + 0.2,
+				queryLongitudes[q] + 0.3);
+	}
+
+	@Benchmark
+	public List<Order> boxScan() {
+		int q = nextQuery();
+		double south = queryLatitudes[q] - 0.2, north = queryLatitudes[q] + 0.2;
+		double west = queryLongitudes[q] - 0.3, east = queryLongitudes[q] + 0.3;
+		List<Order> result = new ArrayList<>();
+		for (Order order : orders) {
+			GeoPoint departure = order.getDepartureCoordinates();
+			if (departure.latitude >= south && departure.latitude <= north
+					&& departure.longitude >= west
+					&& departure.longitude <= east) {
+				result.add(order);
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	public List<OrderSpatialIndex.Neighbour> nearestIndex() {
+		int q = nextQuery();
+		return index.findNearest(Order.DEPARTURE_ID, queryLatitudes[q],
+				queryLongitudes[q], neighbourCount);
+	}
+
+	@Benchmark
+	public double[] nearestScan() {
+		int q = nextQuery();
+		double[] best = new double[neighbourCount];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+		for (Order order : orders) {
+			GeoPoint departure = order.getDepartureCoordinates();
+			double distance = OrderSpatialIndex.distanceKm(queryLatitudes[q],
+					queryLongitudes[q], departure.latitude, departure.longitude);
+			int position = neighbourCount;
+			while (position > 0 && best[position - 1] > distance) {
+				position--;
+			}
+			if (position < neighbourCount) {
+				System.arraycopy(best, position, best, position + 1,
+						neighbourCount - position - 1);
+				best[position] = distance;
+			}
+		}
+		return best;
+	}
+
+	@Benchmark
+	public Order removeAndAdd() {
+		Order order = orders.get(nextQuery() % orderCount);
+		index.remove(order);
+		index.add(order);
+		return order;
+	}
+}
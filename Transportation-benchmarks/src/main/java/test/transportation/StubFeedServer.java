@@ -0,0 +1,239 @@
+package test.transportation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the orders web page on a local port. The feed is split into
+ * pages linked with Link headers like the real one, and every page is
+ * generated while it is sent, so a feed of millions of orders takes no
+ * memory on the server side. Each record follows from the seed and its index
+ * alone, so a page has the same orders every time it is requested.
+ * 
+ * A share of the records repeats an earlier order, and another share is
+ * malformed in one of the ways the parser has to survive: a missing address,
+ * an address which is no object, members of the wrong type or a record which
+ * is no object at all. The JSON itself always stays valid, since a syntax
+ * error ends the page.
+ * 
+ */
+final class StubFeedServer {
+
+	private static final String PATH = "/tests/orders/";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final int orderCount;
+	private final int pageSize;
+	private final long seed;
+	private final double duplicateRatio;
+	private final double malformedRatio;
+
+	private final AtomicLong pages = new AtomicLong();
+
+	/**
+	 * Constructor for class StubFeedServer. The server is started on a free
+	 * port of the loopback interface.
+	 * 
+	 * @param orderCount
+	 *            Number of records of the feed, malformed ones included.
+	 * @param pageSize
+	 *            Number of records per page.
+	 * @param seed
+	 *            Seed of the records; equal seeds give equal feeds.
+	 * @param duplicateRatio
+	 *            Share of records which repeat an earlier order.
+	 * @param malformedRatio
+	 *            Share of records which the parser has to drop.
+	 * @throws IOException
+	 *             if the server cannot be started.
+	 */
+	StubFeedServer(int orderCount, int pageSize, long seed,
+			double duplicateRatio, double malformedRatio) throws IOException {
+		if (orderCount < 0 || pageSize < 1) {
+			throw new IllegalArgumentException("Invalid feed: " + orderCount
+					+ " orders in pages of " + pageSize);
+		}
+		if (!(duplicateRatio >= 0 && malformedRatio >= 0 && duplicateRatio
+				+ malformedRatio <= 1)) {
+			throw new IllegalArgumentException("Invalid ratios: "
+					+ duplicateRatio + " duplicated, " + malformedRatio
+					+ " malformed");
+		}
+		this.orderCount = orderCount;
+		this.pageSize = pageSize;
+		this.seed = seed;
+		this.duplicateRatio = duplicateRatio;
+		this.malformedRatio = malformedRatio;
+
+		executor = Executors.newCachedThreadPool(new StubThreadFactory(
+				"feed-stub-"));
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					servePage(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return Absolute URL of the first page of the feed.
+	 */
+	String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+	}
+
+	/**
+	 * @return Number of pages served.
+	 */
+	long getPageCount() {
+		return pages.get();
+	}
+
+	/**
+	 * Stops the server. Pages which are being sent are cut off.
+	 */
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void servePage(HttpExchange exchange) throws IOException {
+		int page = 0;
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null && query.startsWith("page=")) {
+			try {
+				page = Integer.parseInt(query.substring(5));
+			} catch (NumberFormatException e) {
+				page = -1;
+			}
+		}
+		int from = page * pageSize;
+		if (page < 0 || (from >= orderCount && page > 0)) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		int to = (int) Math.min(orderCount, (long) from + pageSize);
+		if (to < orderCount) {
+			exchange.getResponseHeaders().set("Link",
+					"<" + PATH + "?page=" + (page + 1) + ">; rel=\"next\"");
+		}
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=UTF-8");
+		// Length 0 sends the page in chunks while it is generated
+		exchange.sendResponseHeaders(200, 0);
+		pages.incrementAndGet();
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				exchange.getResponseBody(), "UTF-8"), 1 << 16);
+		try {
+			writer.write("[");
+			for (int i = from; i < to; i++) {
+				if (i > from) {
+					writer.write(",\n");
+				}
+				writeRecord(writer, i);
+			}
+			writer.write("]");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the record with the given index: a malformed record, a copy of
+	 * an earlier order or an order of its own.
+	 */
+	private void writeRecord(Writer writer, int index) throws IOException {
+		Random random = new Random(mix(seed, index));
+		double kind = random.nextDouble();
+		if (kind < malformedRatio) {
+			writeMalformed(writer, index, random);
+		} else if (index > 0 && kind < malformedRatio + duplicateRatio) {
+			int original = random.nextInt(index);
+			Fixtures.writeOrder(writer, original, orderRandom(original));
+		} else {
+			Fixtures.writeOrder(writer, index, orderRandom(index));
+		}
+	}
+
+	private Random orderRandom(int index) {
+		return new Random(mix(~seed, index));
+	}
+
+	private static void writeMalformed(Writer writer, int index,
+			Random random) throws IOException {
+		switch (random.nextInt(4)) {
+		case 0:
+			writer.write("{\"id\":" + index + ",\"departureAddress\":");
+			Fixtures.writeAddress(writer, random);
+			writer.write("}");
+			break;
+		case 1:
+			writer.write("{\"id\":" + index
+					+ ",\"departureAddress\":\"Berlin\",\"destinationAddress\":");
+			Fixtures.writeAddress(writer, random);
+			writer.write("}");
+			break;
+		case 2:
+			writer.write("{\"id\":{\"value\":" + index
+					+ "},\"departureAddress\":[1,2],\"destinationAddress\":null}");
+			break;
+		default:
+			writer.write("\"order " + index + "\"");
+		}
+	}
+
+	/**
+	 * Derives the seed of one record, so neighbouring records get unrelated
+	 * random sequences.
+	 */
+	private static long mix(long seed, int index) {
+		long z = seed + index * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * Creates the named daemon threads of the stub servers.
+	 */
+	static class StubThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		StubThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the Google Geocoding API on a local port. Every response is
+ * delayed by a latency drawn from a configurable distribution. A share of the
+ * requests gets the status OVER_QUERY_LIMIT and another share an HTTP error;
+ * all others get the status OK with coordinates derived from the address, so
+ * an address always gets the same coordinates.
+ * 
+ */
+final class StubGeocodeServer {
+
+	private static final String PATH = "/maps/api/geocode/";
+
+	/**
+	 * Default number of requests answered at the same time. Waiting for the
+	 * latency blocks a thread, so there are more threads than the geocoder
+	 * ever sends requests in parallel.
+	 */
+	static final int DEFAULT_THREADS = 64;
+
+	/**
+	 * Distribution of the time before a response is sent.
+	 */
+	abstract static class Latency {
+
+		/**
+		 * @return The next latency in milliseconds.
+		 */
+		abstract double nextMillis(Random random);
+
+		/**
+		 * Reads a distribution from its description:
+		 * <ul>
+		 * <li>fixed:MS - always MS milliseconds</li>
+		 * <li>uniform:MIN:MAX - evenly between MIN and MAX milliseconds</li>
+		 * <li>lognormal:MEDIAN:SIGMA - log-normal with the given median and
+		 * the standard deviation of its logarithm, e.g. lognormal:30:0.5</li>
+		 * <li>tail:MS:SHARE:SLOW - MS milliseconds, but SLOW milliseconds for
+		 * the given share of responses, e.g. tail:20:0.02:1000</li>
+		 * </ul>
+		 * 
+		 * @param description
+		 *            Description of the distribution.
+		 * @return The distribution.
+		 * @throws IllegalArgumentException
+		 *             if the description is invalid.
+		 */
+		static Latency parse(String description) {
+			String[] parts = description.split(":");
+			final double[] values = new double[parts.length - 1];
+			try {
+				for (int i = 0; i < values.length; i++) {
+					values[i] = Double.parseDouble(parts[i + 1]);
+					if (!(values[i] >= 0)) {
+						throw new NumberFormatException();
+					}
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid latency: "
+						+ description);
+			}
+
+			switch (parts[0].toLowerCase(Locale.ROOT) + "/" + values.length) {
+			case "fixed/1":
+				return new Latency() {
+					@Override
+					double nextMillis(Random random) {
+						return values[0];
+					}
+				};
+			case "uniform/2":
+				return new Latency() {
+					@Override
+					double nextMillis(Random random) {
+						return values[0] + random.nextDouble()
+								* (values[1] - values[0]);
+					}
+				};
+			case "lognormal/2":
+				return new Latency() {
+					@Override
+					double nextMillis(Random random) {
+						return values[0]
+								* Math.exp(values[1] * random.nextGaussian());
+					}
+				};
+			case "tail/3":
+				return new Latency() {
+					@Override
+					double nextMillis(Random random) {
+						return (random.nextDouble() < values[1]) ? values[2]
+								: values[0];
+					}
+				};
+			default:
+				throw new IllegalArgumentException("Invalid latency: "
+						+ description);
+			}
+		}
+	}
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] OVER_QUERY_LIMIT = ("{\"results\":[],"
+			+ "\"status\":\"OVER_QUERY_LIMIT\"}").getBytes(UTF_8);
+	private static final byte[] ERROR = "Internal error".getBytes(UTF_8);
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final Latency latency;
+	private final double overQueryLimitRatio;
+	private final double errorRatio;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong overQueryLimits = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Constructor for class StubGeocodeServer. The server is started on a
+	 * free port of the loopback interface.
+	 * 
+	 * @param latency
+	 *            Distribution of the response times.
+	 * @param overQueryLimitRatio
+	 *            Share of requests answered with OVER_QUERY_LIMIT.
+	 * @param errorRatio
+	 *            Share of requests answered with HTTP 500.
+	 * @param threads
+	 *            Number of requests answered at the same time.
+	 * @throws IOException
+	 *             if the server cannot be started.
+	 */
+	StubGeocodeServer(Latency latency, double overQueryLimitRatio,
+			double errorRatio, int threads) throws IOException {
+		if (!(overQueryLimitRatio >= 0 && errorRatio >= 0 && overQueryLimitRatio
+				+ errorRatio <= 1)) {
+			throw new IllegalArgumentException("Invalid ratios: "
+					+ overQueryLimitRatio + " over query limit, " + errorRatio
+					+ " errors");
+		}
+		this.latency = latency;
+		this.overQueryLimitRatio = overQueryLimitRatio;
+		this.errorRatio = errorRatio;
+
+		executor = Executors.newFixedThreadPool(threads,
+				new StubFeedServer.StubThreadFactory("geocode-stub-"));
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serveRequest(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return Base URL of the service, for AddressGeocoder.setGeocodeUrl.
+	 */
+	String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+	}
+
+	/**
+	 * @return Number of requests received.
+	 */
+	long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return Number of requests answered with OVER_QUERY_LIMIT.
+	 */
+	long getOverQueryLimitCount() {
+		return overQueryLimits.get();
+	}
+
+	/**
+	 * @return Number of requests answered with an HTTP error.
+	 */
+	long getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * Stops the server. Requests which wait for their latency are dropped.
+	 */
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void serveRequest(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long delay = Math.round(latency.nextMillis(random));
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		double outcome = random.nextDouble();
+		if (outcome < errorRatio) {
+			errors.incrementAndGet();
+			send(exchange, 500, ERROR);
+		} else if (outcome < errorRatio + overQueryLimitRatio) {
+			overQueryLimits.incrementAndGet();
+			send(exchange, 200, OVER_QUERY_LIMIT);
+		} else {
+			send(exchange, 200, locate(getAddress(exchange)));
+		}
+	}
+
+	private static String getAddress(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return "";
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith("address=")) {
+				try {
+					return URLDecoder.decode(parameter.substring(8), "UTF-8");
+				} catch (IOException | IllegalArgumentException e) {
+					return parameter.substring(8);
+				}
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Builds the response for an address, with coordinates in Germany and
+	 * Poland which follow from the address alone.
+	 */
+	private static byte[] locate(String address) {
+		int hash = address.hashCode() * 0x9E3779B9;
+		double latitude = 47.3 + (hash & 0xFFFF) / 65535.0 * 7.7;
+		double longitude = 5.9 + (hash >>> 16) / 65535.0 * 18.1;
+		return String.format(Locale.US,
+				"{\"results\":[{\"geometry\":{\"location\":"
+						+ "{\"lat\":%.7f,\"lng\":%.7f},"
+						+ "\"location_type\":\"ROOFTOP\"}}],\"status\":\"OK\"}",
+				latitude, longitude).getBytes(UTF_8);
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body)
+			throws IOException {
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
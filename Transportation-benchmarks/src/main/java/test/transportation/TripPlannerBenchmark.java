@@ -0,0 +1,56 @@
+package test.transportation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures planning runs for 1k to 50k orders with a budget large enough for
+ * the local search to finish, and with the 2 second budget of the loader.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TripPlannerBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int orderCount;
+
+	@Param({ "2000", "60000" })
+	public long budgetMillis;
+
+	private List<Order> orders;
+	private TripPlanner planner;
+
+	@Setup
+	public void setUp() {
+		orders = Fixtures.orders(orderCount, 42);
+		planner = new TripPlanner();
+	}
+
+	@TearDown
+	public void tearDown() {
+		planner.shutdown();
+	}
+
+	@Benchmark
+	public List<TripPlanner.Run> plan() throws InterruptedException {
+		return planner.plan(orders, budgetMillis);
+	}
+}
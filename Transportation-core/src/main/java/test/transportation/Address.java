@@ -0,0 +1,185 @@
+package test.transportation;
+
+/**
+ * Details of one address of an order together with its coordinates. The
+ * coordinates are kept as primitive values and are NaN as long as the address
+ * has not been geocoded. Country, city and zip code strings repeat across many
+ * orders, so they are interned and all addresses share one instance of each.
+ * 
+ */
+public class Address {
+
+	private final String country;
+	private final String zipCode;
+	private final String city;
+	private final String countryCode;
+	private final String twoLetterCountryCode;
+	private final String street;
+	private final String houseNumber;
+
+	/**
+	 * The coordinates are set by the geocoder threads and read by others, so
+	 * both are volatile. The longitude is written first; a thread which sees
+	 * the latitude of a call of setCoordinates also sees its longitude.
+	 */
+	private volatile double latitude = Double.NaN;
+	private volatile double longitude = Double.NaN;
+
+	/**
+	 * Constructor for class Address. Null values are stored as empty strings,
+	 * except for the two-letter country code which stays null if unknown.
+	 * 
+	 * @param country
+	 *            Full name of the country.
+	 * @param zipCode
+	 *            Zip code.
+	 * @param city
+	 *            City name.
+	 * @param countryCode
+	 *            3-letter ISO country code.
+	 * @param twoLetterCountryCode
+	 *            2-letter ISO country code.
+	 * @param street
+	 *            Street name.
+	 * @param houseNumber
+	 *            House number.
+	 */
+	public Address(String country, String zipCode, String city,
+			String countryCode, String twoLetterCountryCode, String street,
+			String houseNumber) {
+		this.country = intern(country);
+		this.zipCode = intern(zipCode);
+		this.city = intern(city);
+		this.countryCode = intern(countryCode);
+		this.twoLetterCountryCode = (twoLetterCountryCode != null) ? twoLetterCountryCode
+				.intern() : null;
+		this.street = (street != null) ? street : "";
+		this.houseNumber = (houseNumber != null) ? houseNumber : "";
+	}
+
+	private static String intern(String value) {
+		return (value != null) ? value.intern() : "";
+	}
+
+	/**
+	 * Gets the address field named by one of the constants Order.ADDRESS_<X>.
+	 * 
+	 * @param component
+	 *            Name of the field.
+	 * @return Value of the field, or null if there is no field with this name.
+	 */
+	public String get(String component) {
+		switch (component) {
+		case Order.ADDRESS_COUNTRY:
+			return country;
+		case Order.ADDRESS_ZIPCODE:
+			return zipCode;
+		case Order.ADDRESS_CITY:
+			return city;
+		case Order.ADDRESS_COUNTRY_CODE:
+			return countryCode;
+		case Order.ADDRESS_COUNTRY_CODE_ALPHA_2:
+			return twoLetterCountryCode;
+		case Order.ADDRESS_STREET:
+			return street;
+		case Order.ADDRESS_HOUSE:
+			return houseNumber;
+		default:
+			return null;
+		}
+	}
+
+	public String getCountry() {
+		return country;
+	}
+
+	public String getZipCode() {
+		return zipCode;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public String getCountryCode() {
+		return countryCode;
+	}
+
+	public String getTwoLetterCountryCode() {
+		return twoLetterCountryCode;
+	}
+
+	public String getStreet() {
+		return street;
+	}
+
+	public String getHouseNumber() {
+		return houseNumber;
+	}
+
+	/**
+	 * @return Latitude of the address, NaN if it is not geocoded.
+	 */
+	public double getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * @return Longitude of the address, NaN if it is not geocoded.
+	 */
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Setter method for the coordinates of the address.
+	 * 
+	 * @param latitude
+	 *            Latitude in degrees.
+	 * @param longitude
+	 *            Longitude in degrees.
+	 */
+	public void setCoordinates(double latitude, double longitude) {
+		this.longitude = longitude;
+		this.latitude = latitude;
+	}
+
+	/**
+	 * @return true if the address has been geocoded.
+	 */
+	public boolean hasCoordinates() {
+		return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+	}
+
+	/**
+	 * Compares the address details, ignoring the coordinates.
+	 * 
+	 * @param other
+	 *            Another address.
+	 * @return true if all address fields are equal.
+	 */
+	public boolean hasSameDetails(Address other) {
+		return country.equals(other.country) && zipCode.equals(other.zipCode)
+				&& city.equals(other.city)
+				&& countryCode.equals(other.countryCode)
+				&& street.equals(other.street)
+				&& houseNumber.equals(other.houseNumber);
+	}
+
+	/**
+	 * Creates a string representation of the address which can be used when
+	 * displaying it on the map.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(houseNumber.length()
+				+ street.length() + city.length() + zipCode.length()
+				+ countryCode.length() + 4);
+		builder.append(houseNumber).append(' ');
+		builder.append(street).append(' ');
+		builder.append(city).append(' ');
+		builder.append(zipCode).append(' ');
+		builder.append(countryCode);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,867 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.transportation.JsonPullReader.Token;
+
+/**
+ * This class uses Google Geocoding API to get the coordinates for all existing
+ * orders. Requests are executed by a fixed number of threads and pass through
+ * an adaptive rate limiter, so the geocoder stays close to the quota of the
+ * service without flooding it. Responses are parsed straight from the
+ * connection of the shared HTTP transport.
+ * 
+ * The geocoder itself is the remote tier of a Geocoder chain. Sessions ask
+ * the geocoder set with setGeocoder, e.g. a ChainedGeocoder with a local
+ * GazetteerGeocoder in front of this one, so the service is only asked when
+ * the local tier misses or is not precise enough.
+ * 
+ * Requests to the service pass through a circuit breaker and a hedged
+ * caller. While the service keeps failing, the breaker rejects requests at
+ * once, so addresses fail fast and the chain falls back to cached or coarse
+ * coordinates. Every request has a deadline, and a request which takes longer
+ * than most recent ones is sent a second time; the first answer is taken.
+ * 
+ */
+public class AddressGeocoder implements Geocoder {
+
+	/**
+	 * Default base URL for geocoding requests.
+	 */
+	static final String DEFAULT_GEOCODE_URL = "https://maps.googleapis.com/maps/api/geocode/";
+
+	/**
+	 * Default settings: number of geocoding threads, upper limit of requests
+	 * per second and number of retries for one address.
+	 */
+	static final int DEFAULT_PARALLELISM = 4;
+	static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 10;
+	static final int DEFAULT_MAX_RETRIES = 5;
+
+	/**
+	 * Upper limit for the unique addresses of a session which wait for
+	 * geocoding at the same time.
+	 */
+	static final int MAX_PENDING_ADDRESSES = 256;
+
+	/**
+	 * Base and upper limit of the delay before a retry, in milliseconds.
+	 */
+	private final long BACKOFF_BASE_MILLIS = 200;
+	private final long BACKOFF_MAX_MILLIS = 5000;
+
+	private static final Metrics.Counter REQUESTS = Metrics.getDefault()
+			.counter("geocode.requests");
+	private static final Metrics.Counter RETRIES = Metrics.getDefault()
+			.counter("geocode.retries");
+	private static final Metrics.Counter QUOTA_HITS = Metrics.getDefault()
+			.counter("geocode.quota_hits");
+	private static final Metrics.Counter ERRORS = Metrics.getDefault()
+			.counter("geocode.errors");
+	private static final Metrics.Counter NULL_COORDINATES = Metrics
+			.getDefault().counter("geocode.null_coordinates");
+	private static final Metrics.Gauge IN_FLIGHT = Metrics.getDefault()
+			.gauge("geocode.in_flight");
+	private static final Metrics.Histogram REQUEST_TIME = Metrics
+			.getDefault().histogram("geocode.request");
+	private static final Metrics.Histogram ADDRESS_TIME = Metrics
+			.getDefault().histogram("geocode.address");
+	private static final Metrics.Histogram SESSION_TIME = Metrics
+			.getDefault().histogram("geocode.session");
+
+	/**
+	 * Receives the figures of requests made outside of a session.
+	 */
+	private static final GeocodingStatistics NO_SESSION = new GeocodingStatistics(
+			0);
+
+	private final int parallelism;
+	private final int maxRetries;
+	private final RateLimiter rateLimiter;
+	private final Random random = new Random();
+
+	private volatile GeocodeCache cache;
+	private volatile Geocoder geocoder;
+	private volatile HttpTransport transport = HttpTransport.getDefault();
+	private volatile String geocodeUrl = DEFAULT_GEOCODE_URL;
+	private volatile CircuitBreaker breaker = new CircuitBreaker("geocode");
+	private volatile HedgedCaller hedgedCaller = new HedgedCaller("geocode");
+
+	/**
+	 * Statistics of the session started last, for getStatistics. The
+	 * requests count into the statistics of their own session, which the
+	 * worker thread holds in callStatistics while it geocodes an address;
+	 * requests outside of a session go to NO_SESSION.
+	 */
+	private volatile GeocodingStatistics statistics = new GeocodingStatistics(
+			0);
+	private final ThreadLocal<GeocodingStatistics> callStatistics = new ThreadLocal<>();
+
+	/**
+	 * Constructor for class AddressGeocoder with the default settings.
+	 */
+	public AddressGeocoder() {
+		this(DEFAULT_PARALLELISM, DEFAULT_MAX_REQUESTS_PER_SECOND,
+				DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 * Constructor for class AddressGeocoder.
+	 * 
+	 * @param parallelism
+	 *            Number of threads executing geocoding requests.
+	 * @param maxRequestsPerSecond
+	 *            Upper limit for the total throughput of all threads. The
+	 *            actual rate is lowered when the service reports the exceeded
+	 *            quota.
+	 * @param maxRetries
+	 *            How often a failed request for one address is repeated.
+	 */
+	public AddressGeocoder(int parallelism, double maxRequestsPerSecond,
+			int maxRetries) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: "
+					+ parallelism);
+		}
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException(
+					"Number of retries must not be negative: " + maxRetries);
+		}
+		this.parallelism = parallelism;
+		this.maxRetries = maxRetries;
+		this.rateLimiter = new RateLimiter(maxRequestsPerSecond);
+	}
+
+	/**
+	 * Main method of the class AddressGeocoder. Takes a list with the address
+	 * details, requests the coordinates for each address and modifies the given
+	 * list. The unique addresses of all orders are collected first, so an
+	 * address shared by many orders is geocoded only once. Addresses are
+	 * geocoded in parallel; the method returns when all of them are done.
+	 * 
+	 * @param orderList
+	 *            List of Order objects with the filled address fields.
+	 */
+	public void getAllCoordinates(List<Order> orderList) {
+		getAllCoordinates(orderList, null);
+	}
+
+	/**
+	 * Requests the coordinates for each address like getAllCoordinates(List)
+	 * and publishes the orders while they are finished. An order is finished
+	 * when both of its addresses have been geocoded or have failed.
+	 * 
+	 * @param orderList
+	 *            List of Order objects with the filled address fields.
+	 * @param batcher
+	 *            Receives the finished orders, or null. It is flushed before
+	 *            the method returns.
+	 */
+	public void getAllCoordinates(List<Order> orderList, OrderBatcher batcher) {
+		Session session = startSession(batcher);
+		try {
+			session.submit(orderList);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			session.finish();
+		}
+	}
+
+	/**
+	 * Starts a geocoding run to which orders can be added while earlier ones
+	 * are still being geocoded, e.g. while the feed is still loading.
+	 * Addresses are shared across all orders of the run, like in
+	 * getAllCoordinates.
+	 * 
+	 * @param batcher
+	 *            Receives the finished orders, or null. It is flushed when
+	 *            the session is finished.
+	 * @return The new session, which has to be finished by the caller.
+	 */
+	public Session startSession(OrderBatcher batcher) {
+		return new Session(batcher);
+	}
+
+	/**
+	 * A running geocoding run. Orders are added with submit and the run is
+	 * ended with finish, which waits for all addresses.
+	 */
+	public class Session {
+
+		private final GeocodingPlan plan = new GeocodingPlan();
+		private final OrderBatcher batcher;
+		private final GeocodingStatistics runStatistics;
+		private final ExecutorService executor;
+		private final long startTime = Metrics.getDefault().startTimer();
+
+		/**
+		 * Permits for unique addresses which wait for or are in geocoding.
+		 * submit blocks while all are taken, which slows down the producer
+		 * of the orders to the pace of the geocoder.
+		 */
+		private final Semaphore pendingAddresses = new Semaphore(
+				MAX_PENDING_ADDRESSES);
+
+		Session(OrderBatcher batcher) {
+			this.batcher = batcher;
+			runStatistics = new GeocodingStatistics(parallelism);
+			statistics = runStatistics;
+			executor = Executors.newFixedThreadPool(parallelism,
+					new GeocoderThreadFactory());
+		}
+
+		/**
+		 * Adds orders to the run. Orders whose addresses are known from
+		 * earlier orders of the run are finished right away; the others are
+		 * finished when their addresses have been geocoded.
+		 * 
+		 * @param orderList
+		 *            List of Order objects with the filled address fields.
+		 * @throws InterruptedException
+		 *             if the thread is interrupted while waiting for the
+		 *             geocoder.
+		 */
+		public void submit(List<Order> orderList) throws InterruptedException {
+			List<Order> finished = new ArrayList<>();
+			for (Order order : orderList) {
+				finished.addAll(plan.add(order,
+						formAddressKey(order.getDepartureAddress()),
+						formAddressKey(order.getDestinationAddress())));
+			}
+			runStatistics.planned(plan.getAddressCount(),
+					plan.getUniqueAddressCount());
+			if (batcher != null && !finished.isEmpty()) {
+				batcher.addAll(finished);
+			}
+
+			for (final String addressKey : plan.takeNewKeys()) {
+				pendingAddresses.acquire();
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								geocode(addressKey);
+							} finally {
+								pendingAddresses.release();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					pendingAddresses.release();
+					throw e;
+				}
+			}
+		}
+
+		private void geocode(String addressKey) {
+			try {
+				List<Order> finished = plan.apply(addressKey,
+						getCoordinates(plan.getAddress(addressKey), addressKey,
+								runStatistics));
+				if (batcher != null && !finished.isEmpty()) {
+					batcher.addAll(finished);
+				}
+			} catch (RuntimeException e) {
+				ERRORS.increment();
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Waits until all submitted addresses are geocoded and ends the run.
+		 * If the thread is interrupted, the remaining addresses are dropped.
+		 */
+		public void finish() {
+			try {
+				pendingAddresses.acquire(MAX_PENDING_ADDRESSES);
+				pendingAddresses.release(MAX_PENDING_ADDRESSES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				executor.shutdownNow();
+				runStatistics.finish(rateLimiter.getRate());
+				SESSION_TIME.recordSince(startTime);
+				if (batcher != null) {
+					batcher.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Setter method for the geocode cache.
+	 * 
+	 * @param cache
+	 *            Cache consulted before each request, or null to request
+	 *            every address from the service.
+	 */
+	public void setCache(GeocodeCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Getter method for the geocode cache.
+	 * 
+	 * @return The cache set for this geocoder, or null.
+	 */
+	public GeocodeCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Setter method for the geocoder asked by the sessions.
+	 * 
+	 * @param geocoder
+	 *            Geocoder which gets the coordinates of each unique address,
+	 *            typically a ChainedGeocoder ending with this geocoder, or
+	 *            null to ask only the geocoding service.
+	 */
+	public void setGeocoder(Geocoder geocoder) {
+		this.geocoder = geocoder;
+	}
+
+	/**
+	 * Getter method for the geocoder asked by the sessions.
+	 * 
+	 * @return The geocoder set for the sessions, or null.
+	 */
+	public Geocoder getGeocoder() {
+		return geocoder;
+	}
+
+	/**
+	 * Setter method for the HTTP transport.
+	 * 
+	 * @param transport
+	 *            Transport used for the geocoding requests.
+	 */
+	public void setTransport(HttpTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Getter method for the HTTP transport.
+	 * 
+	 * @return The transport used for the geocoding requests.
+	 */
+	public HttpTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Setter method for the base URL of the geocoding service.
+	 * 
+	 * @param geocodeUrl
+	 *            URL ending with a slash, to which "json?address=..." is
+	 *            appended, e.g. of a stand-in service on a test server.
+	 */
+	public void setGeocodeUrl(String geocodeUrl) {
+		this.geocodeUrl = geocodeUrl;
+	}
+
+	/**
+	 * Getter method for the base URL of the geocoding service.
+	 * 
+	 * @return The base URL of the geocoding requests.
+	 */
+	public String getGeocodeUrl() {
+		return geocodeUrl;
+	}
+
+	/**
+	 * Setter method for the circuit breaker.
+	 * 
+	 * @param breaker
+	 *            Breaker which guards the requests to the service.
+	 */
+	public void setCircuitBreaker(CircuitBreaker breaker) {
+		this.breaker = breaker;
+	}
+
+	/**
+	 * Getter method for the circuit breaker.
+	 * 
+	 * @return The breaker which guards the requests to the service.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * Setter method for the hedged caller.
+	 * 
+	 * @param hedgedCaller
+	 *            Caller which runs the requests with a deadline and hedges
+	 *            slow ones.
+	 */
+	public void setHedgedCaller(HedgedCaller hedgedCaller) {
+		this.hedgedCaller = hedgedCaller;
+	}
+
+	/**
+	 * Getter method for the hedged caller.
+	 * 
+	 * @return The caller which runs the requests to the service.
+	 */
+	public HedgedCaller getHedgedCaller() {
+		return hedgedCaller;
+	}
+
+	/**
+	 * Getter method for the figures of the last geocoding run.
+	 * 
+	 * @return Statistics of the session started last, which may still be
+	 *         running.
+	 */
+	public GeocodingStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets coordinates for given address from the geocoder set with
+	 * setGeocoder, or from the geocoding service if none is set.
+	 * 
+	 * @param address
+	 *            Address object filled with address details.
+	 * @param addressKey
+	 *            Normalized address string built by formAddressKey.
+	 * @param runStatistics
+	 *            Statistics of the session the address belongs to.
+	 * @return GeoPoint object with coordinates of the given address.
+	 */
+	private GeoPoint getCoordinates(Address address, String addressKey,
+			GeocodingStatistics runStatistics) {
+		runStatistics.addressRequested();
+		long start = Metrics.getDefault().startTimer();
+		GeoPoint coordinates = null;
+		if (addressKey.length() > 0) {
+			// The Geocoder interface has no room for the statistics, so the
+			// requests further down find them through the thread
+			callStatistics.set(runStatistics);
+			try {
+				Geocoder currentGeocoder = geocoder;
+				Result result = (currentGeocoder != null) ? currentGeocoder
+						.geocode(address, addressKey) : geocode(address,
+						addressKey);
+				if (result != null) {
+					coordinates = result.coordinates;
+				}
+			} finally {
+				callStatistics.remove();
+			}
+		}
+		if (coordinates == null) {
+			runStatistics.addressFailed();
+			NULL_COORDINATES.increment();
+		}
+		ADDRESS_TIME.recordSince(start);
+		return coordinates;
+	}
+
+	/**
+	 * Gets coordinates for given address from the geocoding service. If a
+	 * cache is set, the service is only asked for addresses missing in the
+	 * cache. Results are taken at address precision.
+	 * 
+	 * @param address
+	 *            Address object filled with address details.
+	 * @param addressKey
+	 *            Normalized address string built by formAddressKey.
+	 * @return The coordinates of the given address, or null if the service
+	 *         did not find it.
+	 */
+	@Override
+	public Result geocode(Address address, final String addressKey) {
+		GeoPoint coordinates;
+		GeocodeCache currentCache = cache;
+		if (currentCache != null) {
+			coordinates = currentCache.get(addressKey, new Callable<GeoPoint>() {
+				@Override
+				public GeoPoint call() {
+					return requestCoordinates(addressKey);
+				}
+			});
+		} else {
+			coordinates = requestCoordinates(addressKey);
+		}
+		return (coordinates != null) ? new Result(coordinates,
+				Precision.ADDRESS) : null;
+	}
+
+	/**
+	 * Requests the coordinates for the given address from the geocoding
+	 * service.
+	 * 
+	 * @param addressKey
+	 *            Normalized address string built by formAddressKey.
+	 * @return GeoPoint object with coordinates of the address, or null if the
+	 *         service did not find it.
+	 */
+	private GeoPoint requestCoordinates(String addressKey) {
+		String request = formAddressRequest(addressKey);
+		GeocodeResponse response = getGeocodeResponse(request);
+		if (response == null) {
+			return null;
+		}
+		return response.coordinates;
+	}
+
+	/**
+	 * Builds the normalized address string, which identifies the address in
+	 * the requests and in the cache. Non-empty components are joined with
+	 * commas, surrounding and repeated whitespace is removed and all letters
+	 * are lower-cased, so spelling variants of one address share one key.
+	 * 
+	 * @param address
+	 *            Address object filled with address details.
+	 * @return The normalized address string, empty if the address has no
+	 *         usable components.
+	 */
+	String formAddressKey(Address address) {
+		String[] address_components = { Order.ADDRESS_HOUSE,
+				Order.ADDRESS_STREET, Order.ADDRESS_CITY,
+				Order.ADDRESS_ZIPCODE, Order.ADDRESS_COUNTRY_CODE_ALPHA_2 };
+
+		StringBuilder builder = new StringBuilder();
+
+		for (String component : address_components) {
+			String componentValue = address.get(component);
+			if (componentValue == null) {
+				continue;
+			}
+			componentValue = componentValue.trim().replaceAll("\\s+", " ");
+			if (!componentValue.equals("")) {
+				if (builder.length() > 0) {
+					builder.append(',');
+				}
+				builder.append(componentValue);
+			}
+		}
+		return builder.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * This method forms a request to geocoding service using the given address.
+	 * Encoding is used for address part of the request to avoid problems with
+	 * the special symbols.
+	 * 
+	 * @param addressKey
+	 *            Normalized address string built by formAddressKey.
+	 * @return String object with request ready to use for geocoding service.
+	 */
+	String formAddressRequest(String addressKey) {
+		String addressString = "";
+		try {
+
+			addressString = URLEncoder.encode(addressKey, "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			ex.printStackTrace();
+		}
+		return geocodeUrl + "json?address=" + addressString;
+	}
+
+	/**
+	 * Connects the google geocoding api with the given request to get the
+	 * coordinates of the current address.
+	 * 
+	 * @param request
+	 *            String object with the prepared request for geocoding.
+	 * @return The parsed response of the executed request, or null if no
+	 *         valid response came within the allowed number of retries or the
+	 *         circuit breaker is open. Sometimes Google returns status message
+	 *         "OVER_QUERY_LIMIT"; then the rate limiter is slowed down and the
+	 *         request is repeated after a randomized delay.
+	 */
+	private GeocodeResponse getGeocodeResponse(String request) {
+		GeocodingStatistics runStatistics = callStatistics.get();
+		if (runStatistics == null) {
+			runStatistics = NO_SESSION;
+		}
+		CircuitBreaker currentBreaker = breaker;
+		for (int attempt = 0; attempt <= maxRetries; attempt++) {
+			try {
+				if (attempt > 0) {
+					runStatistics.requestRetried();
+					RETRIES.increment();
+					Thread.sleep(getBackoffDelay(attempt));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			if (!currentBreaker.allowRequest()) {
+				return null;
+			}
+			try {
+				rateLimiter.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				currentBreaker.recordIgnored();
+				return null;
+			}
+
+			runStatistics.requestSent();
+			REQUESTS.increment();
+			GeocodeResponse response;
+			try {
+				response = requestHedged(request);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				currentBreaker.recordIgnored();
+				return null;
+			}
+			if (response == null) {
+				currentBreaker.recordFailure();
+				continue;
+			}
+			currentBreaker.recordSuccess();
+			if ("OVER_QUERY_LIMIT".equals(response.status)) {
+				runStatistics.quotaExceeded();
+				QUOTA_HITS.increment();
+				rateLimiter.onQuotaExceeded();
+				continue;
+			}
+			rateLimiter.onSuccess();
+			return response;
+		}
+		return null;
+	}
+
+	/**
+	 * Executes a geocoding request through the hedged caller, which gives up
+	 * after its deadline and sends the request a second time if it is slow.
+	 * 
+	 * @param request
+	 *            String object with the prepared request for geocoding.
+	 * @return The parsed response, or null if all requests failed or none
+	 *         answered in time.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting.
+	 */
+	private GeocodeResponse requestHedged(final String request)
+			throws InterruptedException {
+		try {
+			return hedgedCaller.call(new Callable<GeocodeResponse>() {
+				@Override
+				public GeocodeResponse call() throws IOException {
+					GeocodeResponse response = requestGeocodeResponse(request);
+					if (response == null) {
+						throw new IOException("Geocoding request failed");
+					}
+					return response;
+				}
+			});
+		} catch (ExecutionException e) {
+			// The error was reported by requestGeocodeResponse
+			return null;
+		} catch (TimeoutException e) {
+			ERRORS.increment();
+			return null;
+		}
+	}
+
+	/**
+	 * Executes a single geocoding request. The response is parsed while it
+	 * is read from the connection.
+	 * 
+	 * @param request
+	 *            String object with the prepared request for geocoding.
+	 * @return The parsed response, or null if the request failed.
+	 */
+	private GeocodeResponse requestGeocodeResponse(String request) {
+		boolean inFlight = IN_FLIGHT.increment();
+		long start = Metrics.getDefault().startTimer();
+		HttpTransport.Response response = null;
+		try {
+			response = transport.get(request, null);
+			return parseResponse(response.getReader());
+		} catch (IOException ioexception) {
+			ERRORS.increment();
+			ioexception.printStackTrace();
+			return null;
+		} finally {
+			REQUEST_TIME.recordSince(start);
+			if (inFlight) {
+				IN_FLIGHT.decrement();
+			}
+			if (response != null) {
+				try {
+					response.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the delay before the next retry. The upper bound grows
+	 * exponentially with the number of attempts and the actual delay is
+	 * picked randomly below it, so the threads which failed together do not
+	 * retry together.
+	 * 
+	 * @param attempt
+	 *            Number of the upcoming attempt, starting with 1.
+	 * @return Delay in milliseconds.
+	 */
+	private long getBackoffDelay(int attempt) {
+		long limit = BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 16);
+		limit = Math.min(limit, BACKOFF_MAX_MILLIS);
+		double factor;
+		synchronized (random) {
+			factor = random.nextDouble();
+		}
+		return BACKOFF_BASE_MILLIS / 2 + (long) (factor * limit);
+	}
+
+	/**
+	 * Status and coordinates of a geocoding response.
+	 */
+	static class GeocodeResponse {
+
+		/**
+		 * Status reported by the service, e.g. "OK" or "OVER_QUERY_LIMIT".
+		 */
+		final String status;
+
+		/**
+		 * Location of the first result, or null if there is none.
+		 */
+		final GeoPoint coordinates;
+
+		GeocodeResponse(String status, GeoPoint coordinates) {
+			this.status = status;
+			this.coordinates = coordinates;
+		}
+	}
+
+	/**
+	 * Parses a geocoding response and gets the coordinates of the first
+	 * result from it. Only the status and the location of the first result
+	 * are kept; everything else is skipped without building objects for it.
+	 * 
+	 * @param in
+	 *            Source of the response in JSON format.
+	 * @return The status and coordinates of the response.
+	 * @throws IOException
+	 *             if the response cannot be read or is no valid JSON.
+	 */
+	static GeocodeResponse parseResponse(Reader in) throws IOException {
+		JsonPullReader reader = new JsonPullReader(in);
+		String status = null;
+		GeoPoint coordinates = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("status") && reader.peek() == Token.STRING) {
+				status = reader.nextString();
+			} else if (name.equals("results")
+					&& reader.peek() == Token.BEGIN_ARRAY) {
+				reader.beginArray();
+				if (reader.hasNext()) {
+					coordinates = readLocation(reader);
+				}
+				while (reader.hasNext()) {
+					reader.skipValue();
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new GeocodeResponse(status, coordinates);
+	}
+
+	/**
+	 * Reads the member geometry.location of a result object.
+	 * 
+	 * @return GeoPoint object with the location, or null if it is missing.
+	 */
+	private static GeoPoint readLocation(JsonPullReader reader)
+			throws IOException {
+		if (reader.peek() != Token.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+		GeoPoint coordinates = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("geometry") && reader.peek() == Token.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (reader.nextName().equals("location")) {
+						coordinates = readLatLng(reader);
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return coordinates;
+	}
+
+	private static GeoPoint readLatLng(JsonPullReader reader) throws IOException {
+		if (reader.peek() != Token.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+		double latitude = Double.NaN, longitude = Double.NaN;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("lat") && reader.peek() == Token.NUMBER) {
+				latitude = reader.nextDouble();
+			} else if (name.equals("lng") && reader.peek() == Token.NUMBER) {
+				longitude = reader.nextDouble();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+			return null;
+		}
+		return new GeoPoint(latitude, longitude);
+	}
+
+	/**
+	 * Creates the named daemon threads for geocoding.
+	 */
+	private static class GeocoderThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "geocoder-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+package test.transportation;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Decoder of the compact binary format of the orders feed, written by
+ * OrderBinaryWriter. Where the JSON feed repeats the member names and the
+ * full country and city names in every record, the binary feed sends every
+ * distinct string once and refers to it by a number afterwards.
+ * 
+ * A page starts with the magic number MAGIC and the format version as one
+ * byte, followed by entries which each start with a tag byte:
+ * <ul>
+ * <li>TAG_STRING: the next string of the dictionary, as its length in bytes
+ * and the UTF-8 bytes. The strings are numbered from 1 in the order of their
+ * entries; 0 stands for a missing value.</li>
+ * <li>TAG_ORDER: an order, as the numbers of its identifier and of the
+ * country, zip code, city, country code, street and house number of the
+ * departure and then of the destination address.</li>
+ * <li>TAG_END: the end of the page.</li>
+ * </ul>
+ * All numbers are unsigned variable-length integers with seven bits per byte,
+ * low bits first, and the high bit set on all bytes but the last. A string is
+ * always sent before the first order which uses it, so every order can be
+ * decoded as soon as it has arrived. An order which refers to an unknown
+ * string is dropped; a page which ends before TAG_END is not complete.
+ * 
+ */
+public class BinaryOrderDecoder implements OrderFeedDecoder {
+
+	static final String MEDIA_TYPE = "application/x-transportation-orders";
+
+	static final int MAGIC = 0x4F524446;
+	static final int VERSION = 1;
+
+	static final int TAG_END = 0;
+	static final int TAG_STRING = 1;
+	static final int TAG_ORDER = 2;
+
+	/**
+	 * Address fields of a record, in the order of the parameters of the
+	 * Address constructor.
+	 */
+	static final String[] COMPONENTS = { Order.ADDRESS_COUNTRY,
+			Order.ADDRESS_ZIPCODE, Order.ADDRESS_CITY,
+			Order.ADDRESS_COUNTRY_CODE, Order.ADDRESS_STREET,
+			Order.ADDRESS_HOUSE };
+
+	/**
+	 * Longest string accepted, so a damaged length cannot exhaust the memory.
+	 */
+	static final int MAX_STRING_BYTES = 1 << 16;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	@Override
+	public String getMediaType() {
+		return MEDIA_TYPE;
+	}
+
+	@Override
+	public boolean canDecode(String mediaType) {
+		return mediaType.equals(MEDIA_TYPE);
+	}
+
+	@Override
+	public Records open(InputStream in, String charset,
+			Map<String, String> countryCodes) throws IOException {
+		return new BinaryRecords(new BufferedInputStream(in, BUFFER_SIZE),
+				countryCodes);
+	}
+
+	private static class BinaryRecords implements Records {
+
+		private final InputStream in;
+		private final Map<String, String> countryCodes;
+
+		/**
+		 * Strings of the dictionary by their number; element 0 stays null.
+		 */
+		private String[] strings = new String[256];
+		private int stringCount = 1;
+		private byte[] bytes = new byte[256];
+
+		private final int[] codes = new int[1 + 2 * COMPONENTS.length];
+		private boolean started;
+		private boolean ended;
+
+		BinaryRecords(InputStream in, Map<String, String> countryCodes) {
+			this.in = in;
+			this.countryCodes = countryCodes;
+		}
+
+		@Override
+		public boolean hasNext() throws IOException {
+			if (!started) {
+				started = true;
+				int magic = (readByte() << 24) | (readByte() << 16)
+						| (readByte() << 8) | readByte();
+				if (magic != MAGIC) {
+					throw new IOException("Not a binary orders feed");
+				}
+				int version = readByte();
+				if (version != VERSION) {
+					throw new IOException("Unknown format version " + version);
+				}
+			}
+			while (!ended) {
+				int tag = readByte();
+				switch (tag) {
+				case TAG_ORDER:
+					return true;
+				case TAG_STRING:
+					readString();
+					break;
+				case TAG_END:
+					ended = true;
+					break;
+				default:
+					throw new IOException("Unknown entry " + tag);
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Order next() throws IOException {
+			boolean valid = true;
+			for (int i = 0; i < codes.length; i++) {
+				codes[i] = readNumber();
+				valid &= codes[i] < stringCount;
+			}
+			if (!valid) {
+				return null;
+			}
+			Order order = new Order(readAddress(1), readAddress(1
+					+ COMPONENTS.length));
+			order.setId(strings[codes[0]]);
+			return order;
+		}
+
+		@Override
+		public void close() throws IOException {
+			ended = true;
+			in.close();
+		}
+
+		private Address readAddress(int offset) {
+			String countryCode = strings[codes[offset + 3]];
+			return new Address(strings[codes[offset]],
+					strings[codes[offset + 1]], strings[codes[offset + 2]],
+					countryCode, (countryCode != null) ? countryCodes
+							.get(countryCode) : null,
+					strings[codes[offset + 4]], strings[codes[offset + 5]]);
+		}
+
+		private void readString() throws IOException {
+			int length = readNumber();
+			if (length > MAX_STRING_BYTES) {
+				throw new IOException("String of " + length + " bytes");
+			}
+			if (length > bytes.length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			int read = 0;
+			while (read < length) {
+				int count = in.read(bytes, read, length - read);
+				if (count < 0) {
+					throw new EOFException("Page ends within a string");
+				}
+				read += count;
+			}
+			if (stringCount == strings.length) {
+				strings = Arrays.copyOf(strings, stringCount * 2);
+			}
+			strings[stringCount++] = new String(bytes, 0, length, UTF_8);
+		}
+
+		private int readNumber() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if (b < 0x80) {
+					if (value < 0) {
+						break;
+					}
+					return value;
+				}
+			}
+			throw new IOException("Number out of range");
+		}
+
+		private int readByte() throws IOException {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Page ends before its end entry");
+			}
+			return b;
+		}
+	}
+}
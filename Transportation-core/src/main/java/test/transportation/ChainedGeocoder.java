@@ -0,0 +1,59 @@
+package test.transportation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Asks a list of geocoders in turn, typically a local gazetteer first and the
+ * remote service last. The first result which is at least as precise as
+ * required is taken, so the later tiers only run when the earlier ones miss
+ * or are too coarse. If no tier is precise enough, the most precise result
+ * found is used, e.g. the postcode centroid when the service fails.
+ * 
+ */
+public class ChainedGeocoder implements Geocoder {
+
+	private final Precision requiredPrecision;
+	private final List<Geocoder> tiers;
+
+	/**
+	 * Constructor for class ChainedGeocoder.
+	 * 
+	 * @param requiredPrecision
+	 *            Precision at which the chain stops asking further tiers.
+	 * @param tiers
+	 *            Geocoders in the order they are asked.
+	 */
+	public ChainedGeocoder(Precision requiredPrecision, Geocoder... tiers) {
+		if (tiers.length == 0) {
+			throw new IllegalArgumentException("No geocoder in the chain");
+		}
+		this.requiredPrecision = requiredPrecision;
+		this.tiers = Arrays.asList(tiers.clone());
+	}
+
+	@Override
+	public Result geocode(Address address, String addressKey) {
+		Result best = null;
+		for (Geocoder tier : tiers) {
+			Result result = tier.geocode(address, addressKey);
+			if (result == null) {
+				continue;
+			}
+			if (result.precision.compareTo(requiredPrecision) >= 0) {
+				return result;
+			}
+			if (best == null || result.precision.compareTo(best.precision) > 0) {
+				best = result;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return Precision at which the chain stops.
+	 */
+	public Precision getRequiredPrecision() {
+		return requiredPrecision;
+	}
+}
@@ -0,0 +1,216 @@
+package test.transportation;
+
+/**
+ * Stops calls to a backend which keeps failing, so callers fail fast instead
+ * of each waiting for its own timeout. The breaker watches the outcomes of
+ * the last calls. It opens when enough of them have failed and then rejects
+ * all calls for a while. After that, single trial calls are let through; the
+ * first which succeeds closes the breaker again, one which fails keeps it
+ * open for another period.
+ * 
+ */
+public class CircuitBreaker {
+
+	/**
+	 * States of the breaker.
+	 */
+	public enum State {
+		/**
+		 * Calls pass.
+		 */
+		CLOSED,
+		/**
+		 * Calls are rejected.
+		 */
+		OPEN,
+		/**
+		 * A trial call is running or may be started.
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * Default settings: number of calls watched, minimum number of calls
+	 * before the breaker may open, share of failed calls which opens it and
+	 * time it stays open, in milliseconds.
+	 */
+	static final int DEFAULT_WINDOW_SIZE = 20;
+	static final int DEFAULT_MIN_CALLS = 10;
+	static final double DEFAULT_FAILURE_RATIO = 0.5;
+	static final long DEFAULT_OPEN_MILLIS = 30000;
+
+	private final String name;
+	private final int minCalls;
+	private final double failureRatio;
+	private final long openMillis;
+
+	private final Metrics.Counter opened;
+	private final Metrics.Counter rejected;
+
+	/**
+	 * Outcomes of the last calls as a ring, true for failures.
+	 */
+	private final boolean[] outcomes;
+	private int position;
+	private int calls;
+	private int failures;
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private boolean trialRunning;
+
+	/**
+	 * Constructor for class CircuitBreaker with the default settings.
+	 * 
+	 * @param name
+	 *            Name of the backend, used for the metrics, e.g. "geocode".
+	 */
+	public CircuitBreaker(String name) {
+		this(name, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CALLS,
+				DEFAULT_FAILURE_RATIO, DEFAULT_OPEN_MILLIS);
+	}
+
+	/**
+	 * Constructor for class CircuitBreaker.
+	 * 
+	 * @param name
+	 *            Name of the backend, used for the metrics, e.g. "geocode".
+	 * @param windowSize
+	 *            Number of most recent calls whose outcome counts.
+	 * @param minCalls
+	 *            Number of calls in the window before the breaker may open.
+	 * @param failureRatio
+	 *            Share of failed calls in the window which opens the breaker.
+	 * @param openMillis
+	 *            Time the breaker rejects all calls before a trial call.
+	 */
+	public CircuitBreaker(String name, int windowSize, int minCalls,
+			double failureRatio, long openMillis) {
+		if (windowSize < 1 || minCalls < 1 || minCalls > windowSize) {
+			throw new IllegalArgumentException("Invalid window: " + minCalls
+					+ " of " + windowSize + " calls");
+		}
+		if (!(failureRatio > 0 && failureRatio <= 1)) {
+			throw new IllegalArgumentException(
+					"Failure ratio must be in (0, 1]: " + failureRatio);
+		}
+		this.name = name;
+		this.outcomes = new boolean[windowSize];
+		this.minCalls = minCalls;
+		this.failureRatio = failureRatio;
+		this.openMillis = openMillis;
+		opened = Metrics.getDefault().counter(name + ".breaker_opened");
+		rejected = Metrics.getDefault().counter(name + ".breaker_rejected");
+	}
+
+	/**
+	 * Asks whether a call may be made now. Every permitted call has to be
+	 * followed by recordSuccess, recordFailure or recordIgnored.
+	 * 
+	 * @return true if the call may be made, false if it has to fail fast.
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.OPEN
+				&& System.currentTimeMillis() - openedAt >= openMillis) {
+			state = State.HALF_OPEN;
+		}
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (state == State.HALF_OPEN && !trialRunning) {
+			trialRunning = true;
+			return true;
+		}
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Records a call which the backend answered. Calls which were started
+	 * before the breaker opened and end while it is open are not counted.
+	 */
+	public synchronized void recordSuccess() {
+		if (state == State.HALF_OPEN) {
+			// The trial call succeeded; start over with an empty window
+			state = State.CLOSED;
+			trialRunning = false;
+			clearWindow();
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	/**
+	 * Records a call which failed or timed out. Calls which were started
+	 * before the breaker opened and end while it is open are not counted.
+	 */
+	public synchronized void recordFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+			return;
+		}
+		if (state == State.OPEN) {
+			return;
+		}
+		record(true);
+		if (calls >= minCalls && failures >= failureRatio * calls) {
+			open();
+		}
+	}
+
+	/**
+	 * Records a permitted call which was not made after all, e.g. because the
+	 * caller was interrupted. A trial call may then be made by someone else.
+	 */
+	public synchronized void recordIgnored() {
+		if (state == State.HALF_OPEN) {
+			trialRunning = false;
+		}
+	}
+
+	/**
+	 * @return The current state.
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN
+				&& System.currentTimeMillis() - openedAt >= openMillis) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	private void record(boolean failure) {
+		if (calls == outcomes.length) {
+			if (outcomes[position]) {
+				failures--;
+			}
+		} else {
+			calls++;
+		}
+		outcomes[position] = failure;
+		if (failure) {
+			failures++;
+		}
+		position = (position + 1) % outcomes.length;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+		trialRunning = false;
+		clearWindow();
+		opened.increment();
+	}
+
+	private void clearWindow() {
+		calls = 0;
+		failures = 0;
+		position = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + " " + getState() + " (" + failures + " of " + calls
+				+ " calls failed)";
+	}
+}
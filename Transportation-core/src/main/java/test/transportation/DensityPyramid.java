@@ -0,0 +1,538 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Counts the departure and destination points of orders in a pyramid of map
+ * tiles, for drawing them as a density map. Every zoom level up to the
+ * deepest one of the pyramid is a grid of bins, BINS_PER_TILE per tile and
+ * axis, in the tile scheme of the map: Web Mercator with x growing eastwards
+ * and y southwards. Only bins with points are stored, so the memory follows
+ * the number of distinct places and not the covered area. Deeper zoom levels
+ * are served from the bins of the deepest one.
+ * 
+ * Orders are added and removed incrementally; an order changes one bin per
+ * level for each of its points. Large updates run on several threads, one
+ * level per task. A tile of any zoom level is read with a fixed number of
+ * lookups, however many orders there are. Tiles may be read on several
+ * threads while another one updates the pyramid.
+ * 
+ */
+public class DensityPyramid {
+
+	/**
+	 * Number of bins of a tile per axis, and its binary logarithm.
+	 */
+	public static final int BIN_BITS = 6;
+	public static final int BINS_PER_TILE = 1 << BIN_BITS;
+
+	/**
+	 * Default deepest zoom level with bins of its own; its bins are about 200
+	 * metres wide in central Europe.
+	 */
+	public static final int DEFAULT_MAX_ZOOM = 11;
+
+	/**
+	 * Number of changed points from which the levels of an update are
+	 * processed in parallel.
+	 */
+	private static final int PARALLEL_POINTS = 4096;
+
+	private static final Metrics.Histogram UPDATE_TIME = Metrics.getDefault()
+			.histogram("heatmap.update");
+
+	/**
+	 * The bins of one zoom level in a hash table with open addressing. Bins
+	 * whose counts drop to zero stay in the table until they make up half of
+	 * it; then it is rebuilt without them.
+	 */
+	private static class Level {
+
+		private static final long EMPTY = -1;
+		private static final int MIN_CAPACITY = 16;
+
+		private long[] keys;
+		private int[] departures;
+		private int[] destinations;
+		private int size;
+		private int emptyBins;
+
+		/**
+		 * Highest count of a bin, and whether a bin with that count has lost
+		 * points since it was computed.
+		 */
+		int maxCount;
+		private boolean maxOutdated;
+
+		Level() {
+			allocate(MIN_CAPACITY);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			departures = new int[capacity];
+			destinations = new int[capacity];
+			size = 0;
+			emptyBins = 0;
+			maxCount = 0;
+			maxOutdated = false;
+		}
+
+		/**
+		 * @return Slot of the bin, or the empty slot where it would go.
+		 */
+		int find(long key) {
+			int mask = keys.length - 1;
+			int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+			while (keys[slot] != key && keys[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		void add(long key, int departure, int destination) {
+			if (2 * (size + 1) > keys.length) {
+				rebuild(keys.length * 2);
+			}
+			int slot = find(key);
+			if (keys[slot] == EMPTY) {
+				keys[slot] = key;
+				size++;
+			} else if (departures[slot] + destinations[slot] == 0) {
+				emptyBins--;
+			}
+			if ((departure < 0 && departures[slot] == maxCount)
+					|| (destination < 0 && destinations[slot] == maxCount)) {
+				maxOutdated = true;
+			}
+			departures[slot] += departure;
+			destinations[slot] += destination;
+			if (departures[slot] + destinations[slot] == 0) {
+				emptyBins++;
+			} else {
+				maxCount = Math.max(maxCount,
+						Math.max(departures[slot], destinations[slot]));
+			}
+		}
+
+		/**
+		 * Ends an update: drops the empty bins if they make up half of the
+		 * table and computes the highest count again if it may have dropped.
+		 */
+		void finishUpdate() {
+			if (emptyBins > MIN_CAPACITY && 2 * emptyBins > size) {
+				int capacity = MIN_CAPACITY;
+				while (capacity < 2 * (size - emptyBins)) {
+					capacity *= 2;
+				}
+				rebuild(capacity);
+			} else if (maxOutdated) {
+				maxCount = 0;
+				for (int slot = 0; slot < keys.length; slot++) {
+					maxCount = Math.max(maxCount,
+							Math.max(departures[slot], destinations[slot]));
+				}
+			}
+			maxOutdated = false;
+		}
+
+		private void rebuild(int capacity) {
+			long[] oldKeys = keys;
+			int[] oldDepartures = departures;
+			int[] oldDestinations = destinations;
+			allocate(capacity);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY
+						&& oldDepartures[i] + oldDestinations[i] != 0) {
+					int slot = find(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					departures[slot] = oldDepartures[i];
+					destinations[slot] = oldDestinations[i];
+					size++;
+					maxCount = Math.max(maxCount,
+							Math.max(departures[slot], destinations[slot]));
+				}
+			}
+		}
+	}
+
+	private final int maxZoom;
+	private final Level[] levels;
+	private final ThreadPoolExecutor executor;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Bins of the deepest level of the orders in the pyramid, departure
+	 * first. Removals use these bins, so they undo exactly what was added.
+	 */
+	private final Map<Order, long[]> orders = new IdentityHashMap<>();
+
+	private volatile long version;
+
+	/**
+	 * Constructor for class DensityPyramid with the default deepest zoom
+	 * level.
+	 */
+	public DensityPyramid() {
+		this(DEFAULT_MAX_ZOOM);
+	}
+
+	/**
+	 * Constructor for class DensityPyramid.
+	 * 
+	 * @param maxZoom
+	 *            Deepest zoom level with bins of its own, from 0 to 24.
+	 */
+	public DensityPyramid(int maxZoom) {
+		if (maxZoom < 0 || maxZoom > 24) {
+			throw new IllegalArgumentException("Invalid zoom level: "
+					+ maxZoom);
+		}
+		this.maxZoom = maxZoom;
+		levels = new Level[maxZoom + 1];
+		for (int zoom = 0; zoom <= maxZoom; zoom++) {
+			levels[zoom] = new Level();
+		}
+		int threads = Math.max(1, Math.min(maxZoom + 1, Runtime.getRuntime()
+				.availableProcessors()));
+		executor = new ThreadPoolExecutor(threads, threads, 1,
+				TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+				new DensityThreadFactory());
+		// The threads end while the pyramid is not updated
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Adds orders to the pyramid. Orders without coordinates and orders which
+	 * are already in it are ignored.
+	 * 
+	 * @param orderList
+	 *            List of orders.
+	 */
+	public void addOrders(List<Order> orderList) {
+		update(orderList, Collections.<Order> emptyList());
+	}
+
+	/**
+	 * Replaces the orders of the pyramid. Only the orders which are new or
+	 * gone are counted, so the cost follows the size of the change.
+	 * 
+	 * @param orderList
+	 *            List of orders; orders without coordinates are ignored.
+	 */
+	public void setOrders(List<Order> orderList) {
+		lock.writeLock().lock();
+		try {
+			Set<Order> kept = Collections
+					.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+			kept.addAll(orderList);
+			List<Order> removed = new ArrayList<>();
+			for (Order order : orders.keySet()) {
+				if (!kept.contains(order)) {
+					removed.add(order);
+				}
+			}
+			update(orderList, removed);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds and removes orders.
+	 * 
+	 * @param added
+	 *            Orders to add; orders without coordinates and orders which
+	 *            are already in the pyramid are ignored.
+	 * @param removed
+	 *            Orders to remove; orders which are not in the pyramid are
+	 *            ignored.
+	 */
+	public void update(List<Order> added, List<Order> removed) {
+		long start = Metrics.getDefault().startTimer();
+		lock.writeLock().lock();
+		try {
+			long[] keys = new long[2 * (added.size() + removed.size())];
+			int[] deltas = new int[keys.length];
+			int count = 0;
+			for (Order order : removed) {
+				long[] bins = orders.remove(order);
+				if (bins != null) {
+					keys[count] = bins[0];
+					deltas[count++] = -1;
+					keys[count] = bins[1];
+					deltas[count++] = -1;
+				}
+			}
+			for (Order order : added) {
+				if (!order.hasCoordinates() || orders.containsKey(order)) {
+					continue;
+				}
+				long[] bins = {
+						binOf(order.getDepartureLatitude(),
+								order.getDepartureLongitude()),
+						binOf(order.getDestinationLatitude(),
+								order.getDestinationLongitude()) };
+				orders.put(order, bins);
+				keys[count] = bins[0];
+				deltas[count++] = 1;
+				keys[count] = bins[1];
+				deltas[count++] = 1;
+			}
+			if (count > 0) {
+				apply(keys, deltas, count);
+				version++;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		UPDATE_TIME.recordSince(start);
+	}
+
+	/**
+	 * Removes all orders.
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			orders.clear();
+			for (int zoom = 0; zoom <= maxZoom; zoom++) {
+				levels[zoom] = new Level();
+			}
+			version++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the bins of a map tile, row by row from the north-west corner.
+	 * Tiles deeper than the deepest level of the pyramid get the bins of the
+	 * deepest level, spread over several bins of the tile.
+	 * 
+	 * @param x
+	 *            Column of the tile, from 0 in the west.
+	 * @param y
+	 *            Row of the tile, from 0 in the north.
+	 * @param zoom
+	 *            Zoom level of the tile, from 0 to 30.
+	 * @param departures
+	 *            Receives the departure counts of the BINS_PER_TILE *
+	 *            BINS_PER_TILE bins.
+	 * @param destinations
+	 *            Receives the destination counts of the bins.
+	 * @return Sum of all counts read, 0 if the tile is empty.
+	 */
+	public long readTile(int x, int y, int zoom, int[] departures,
+			int[] destinations) {
+		if (zoom < 0 || zoom > 30) {
+			throw new IllegalArgumentException("Invalid zoom level: " + zoom);
+		}
+		int binCount = BINS_PER_TILE * BINS_PER_TILE;
+		Arrays.fill(departures, 0, binCount, 0);
+		Arrays.fill(destinations, 0, binCount, 0);
+		int tiles = 1 << zoom;
+		if (x < 0 || y < 0 || x >= tiles || y >= tiles) {
+			return 0;
+		}
+
+		int shift = Math.max(0, zoom - maxZoom);
+		long baseX = (long) x << BIN_BITS;
+		long baseY = (long) y << BIN_BITS;
+		long total = 0;
+		lock.readLock().lock();
+		try {
+			Level level = levels[zoom - shift];
+			long lastKey = Level.EMPTY;
+			int slot = -1;
+			for (int row = 0; row < BINS_PER_TILE; row++) {
+				long binY = (baseY + row) >> shift;
+				for (int column = 0; column < BINS_PER_TILE; column++) {
+					long key = (((baseX + column) >> shift) << 32) | binY;
+					// Deep tiles repeat each bin of the deepest level
+					if (key != lastKey) {
+						lastKey = key;
+						slot = level.find(key);
+					}
+					if (level.keys[slot] != Level.EMPTY) {
+						int bin = row * BINS_PER_TILE + column;
+						departures[bin] = level.departures[slot];
+						destinations[bin] = level.destinations[slot];
+						total += departures[bin] + destinations[bin];
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the highest count of a bin at a zoom level, to scale the colors of
+	 * all tiles of the level alike.
+	 * 
+	 * @param zoom
+	 *            Zoom level; deeper levels than the deepest one of the
+	 *            pyramid share its bins.
+	 * @return The highest departure or destination count of a bin.
+	 */
+	public int getMaxCount(int zoom) {
+		lock.readLock().lock();
+		try {
+			return levels[Math.max(0, Math.min(maxZoom, zoom))].maxCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Number of orders in the pyramid.
+	 */
+	public int getOrderCount() {
+		lock.readLock().lock();
+		try {
+			return orders.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Number which changes with every update that changes a bin, so
+	 *         tiles drawn before can be recognized as outdated.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return The deepest zoom level with bins of its own.
+	 */
+	public int getMaxZoom() {
+		return maxZoom;
+	}
+
+	/**
+	 * Stops the threads of the pyramid. Later updates run on the calling
+	 * thread.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Gets the bin of a point at the deepest level.
+	 * 
+	 * @return Column of the bin in the upper and row in the lower 32 bits.
+	 */
+	private long binOf(double latitude, double longitude) {
+		long binsPerAxis = (long) BINS_PER_TILE << maxZoom;
+		long binX = (long) (OrderClusterer.projectX(longitude) * binsPerAxis);
+		long binY = (long) (OrderClusterer.projectY(latitude) * binsPerAxis);
+		binX = Math.max(0, Math.min(binsPerAxis - 1, binX));
+		binY = Math.max(0, Math.min(binsPerAxis - 1, binY));
+		return (binX << 32) | binY;
+	}
+
+	/**
+	 * Applies changed points to all levels. Called with the write lock.
+	 * 
+	 * @param keys
+	 *            Bins of the points at the deepest level; departures at even
+	 *            and destinations at odd indices.
+	 * @param deltas
+	 *            +1 for added and -1 for removed points.
+	 * @param count
+	 *            Number of points.
+	 */
+	private void apply(final long[] keys, final int[] deltas, final int count) {
+		List<Future<?>> futures = new ArrayList<>();
+		if (count >= PARALLEL_POINTS) {
+			try {
+				// The deepest level is the largest, it runs on this thread
+				for (int zoom = 0; zoom < maxZoom; zoom++) {
+					final int level = zoom;
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							applyLevel(level, keys, deltas, count);
+						}
+					}));
+				}
+			} catch (RejectedExecutionException e) {
+				// Shut down; the levels not submitted run on this thread
+			}
+		}
+		for (int zoom = futures.size(); zoom <= maxZoom; zoom++) {
+			applyLevel(zoom, keys, deltas, count);
+		}
+
+		boolean interrupted = false;
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					// The level has to be finished to keep the pyramid whole
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void applyLevel(int zoom, long[] keys, int[] deltas, int count) {
+		Level level = levels[zoom];
+		int shift = maxZoom - zoom;
+		for (int i = 0; i < count; i++) {
+			long key = keys[i];
+			long bin = (((key >>> 32) >> shift) << 32)
+					| ((key & 0xFFFFFFFFL) >> shift);
+			if ((i & 1) == 0) {
+				level.add(bin, deltas[i], 0);
+			} else {
+				level.add(bin, 0, deltas[i]);
+			}
+		}
+		level.finishUpdate();
+	}
+
+	/**
+	 * Creates the named daemon threads of the pyramid.
+	 */
+	private static class DensityThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "density-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
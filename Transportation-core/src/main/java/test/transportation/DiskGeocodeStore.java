@@ -0,0 +1,237 @@
+package test.transportation;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk tier of the geocode cache. Every address is kept in its own small file
+ * named by the hash of the address key, so the entries survive restarts of the
+ * application. Entries expire after a fixed time to live, and the oldest
+ * entries are deleted when the directory grows over its size limit.
+ * 
+ */
+public class DiskGeocodeStore {
+
+	private final String ENCODING = "UTF-8";
+	private final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Share of the size limit the directory is trimmed to, so that trimming
+	 * does not start again with the next entry.
+	 */
+	private final double TRIM_TARGET = 0.9;
+
+	private final File directory;
+	private final long timeToLiveMillis;
+	private final long maxBytes;
+
+	/**
+	 * Total size of the entry files, -1 until the directory was scanned.
+	 */
+	private long currentBytes = -1;
+
+	/**
+	 * Constructor for class DiskGeocodeStore.
+	 * 
+	 * @param directory
+	 *            Directory for the entry files, created if missing.
+	 * @param timeToLiveMillis
+	 *            How long an entry stays valid after it was written.
+	 * @param maxBytes
+	 *            Upper limit for the total size of the entry files.
+	 */
+	public DiskGeocodeStore(File directory, long timeToLiveMillis,
+			long maxBytes) {
+		this.directory = directory;
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Reads the coordinates stored for the given key.
+	 * 
+	 * @param key
+	 *            Normalized address string.
+	 * @return GeoPoint object with the stored coordinates, or null if there is
+	 *         no valid entry for the key. Expired entries are left for the
+	 *         next trim.
+	 */
+	public GeoPoint get(String key) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		if (System.currentTimeMillis() - file.lastModified() > timeToLiveMillis) {
+			return null;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), ENCODING));
+			String storedKey = reader.readLine();
+			String latitude = reader.readLine();
+			String longitude = reader.readLine();
+			if (key.equals(storedKey) && latitude != null && longitude != null) {
+				return new GeoPoint(Double.parseDouble(latitude),
+						Double.parseDouble(longitude));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
+		} finally {
+			closeQuietly(reader);
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the coordinates for the given key. The entry is written to a
+	 * temporary file first and then renamed, so readers never see a partly
+	 * written entry.
+	 * 
+	 * @param key
+	 *            Normalized address string.
+	 * @param coordinates
+	 *            GeoPoint object with the coordinates of the address.
+	 */
+	public synchronized void put(String key, GeoPoint coordinates) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			return;
+		}
+		if (currentBytes < 0) {
+			currentBytes = 0;
+			for (File file : listEntries()) {
+				currentBytes += file.length();
+			}
+		}
+
+		File file = getFile(key);
+		File tempFile = new File(directory, file.getName() + TEMP_SUFFIX);
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(tempFile),
+					ENCODING);
+			writer.write(key + "\n" + coordinates.latitude + "\n"
+					+ coordinates.longitude + "\n");
+			writer.close();
+			writer = null;
+
+			long replacedBytes = file.length();
+			if (tempFile.renameTo(file)) {
+				currentBytes += file.length() - replacedBytes;
+			} else {
+				delete(tempFile);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			delete(tempFile);
+		} finally {
+			closeQuietly(writer);
+		}
+
+		if (currentBytes > maxBytes) {
+			trim();
+		}
+	}
+
+	/**
+	 * Deletes expired entries and then the oldest ones until the directory
+	 * fits into its size limit again.
+	 */
+	private void trim() {
+		File[] files = listEntries();
+		final long[] modified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			modified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer left, Integer right) {
+				return (modified[left] < modified[right]) ? -1
+						: ((modified[left] == modified[right]) ? 0 : 1);
+			}
+		});
+
+		long now = System.currentTimeMillis();
+		long targetBytes = (long) (maxBytes * TRIM_TARGET);
+		for (Integer index : order) {
+			File file = files[index];
+			boolean expired = now - modified[index] > timeToLiveMillis;
+			if (!expired && currentBytes <= targetBytes) {
+				break;
+			}
+			long length = file.length();
+			if (delete(file)) {
+				currentBytes -= length;
+			}
+		}
+	}
+
+	private File[] listEntries() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File file : files) {
+			if (file.isFile() && !file.getName().endsWith(TEMP_SUFFIX)) {
+				files[count++] = file;
+			}
+		}
+		return Arrays.copyOf(files, count);
+	}
+
+	/**
+	 * Maps an address key to the file of its entry.
+	 * 
+	 * @param key
+	 *            Normalized address string.
+	 * @return File named by the hexadecimal SHA-1 hash of the key.
+	 */
+	private File getFile(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+					key.getBytes(ENCODING));
+			StringBuilder name = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16));
+				name.append(Character.forDigit(b & 0xF, 16));
+			}
+			return new File(directory, name.toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private boolean delete(File file) {
+		return file.delete() || !file.exists();
+	}
+
+	private void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
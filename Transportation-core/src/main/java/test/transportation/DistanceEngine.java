@@ -0,0 +1,430 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes great-circle distances between many points at once, e.g. the trip
+ * length of every order or the distances from all depots to all departures.
+ * Points are converted once to unit vectors in primitive arrays. The distance
+ * of two points then follows from the straight-line distance of their
+ * vectors, which is the haversine formula without any trigonometry in the
+ * inner loop: the loops over the arrays only subtract, multiply and add, so
+ * the JIT can unroll and vectorize them, and they allocate nothing. Large
+ * matrices are split into blocks of rows which are computed on all cores.
+ * 
+ */
+public class DistanceEngine {
+
+	/**
+	 * Number of rows of a matrix computed by one task.
+	 */
+	private static final int ROWS_PER_TASK = 64;
+
+	private static final double DIAMETER_KM = 2 * OrderSpatialIndex.EARTH_RADIUS_KM;
+
+	private final int parallelism;
+	private ExecutorService executor;
+
+	/**
+	 * Points on the sphere as unit vectors. Points without coordinates have
+	 * NaN components, and all distances to them are NaN.
+	 */
+	public static class Points {
+
+		final double[] x, y, z;
+
+		private Points(int size) {
+			x = new double[size];
+			y = new double[size];
+			z = new double[size];
+		}
+
+		/**
+		 * Creates points from coordinates in degrees.
+		 * 
+		 * @param latitudes
+		 *            Latitudes of the points.
+		 * @param longitudes
+		 *            Longitudes of the points, same length as latitudes.
+		 * @return The points in the order of the arrays.
+		 */
+		public static Points of(double[] latitudes, double[] longitudes) {
+			if (latitudes.length != longitudes.length) {
+				throw new IllegalArgumentException(
+						"Different numbers of latitudes and longitudes: "
+								+ latitudes.length + ", " + longitudes.length);
+			}
+			Points points = new Points(latitudes.length);
+			for (int i = 0; i < latitudes.length; i++) {
+				points.set(i, latitudes[i], longitudes[i]);
+			}
+			return points;
+		}
+
+		/**
+		 * Creates points from one address of each order.
+		 * 
+		 * @param orderList
+		 *            List of orders, geocoded or not.
+		 * @param placeType
+		 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+		 * @return The points in the order of the list.
+		 */
+		public static Points of(List<Order> orderList, int placeType) {
+			Points points = new Points(orderList.size());
+			boolean departure = placeType == Order.DEPARTURE_ID;
+			for (int i = 0; i < orderList.size(); i++) {
+				Order order = orderList.get(i);
+				if (departure) {
+					points.set(i, order.getDepartureLatitude(),
+							order.getDepartureLongitude());
+				} else {
+					points.set(i, order.getDestinationLatitude(),
+							order.getDestinationLongitude());
+				}
+			}
+			return points;
+		}
+
+		private void set(int index, double latitude, double longitude) {
+			double phi = Math.toRadians(latitude);
+			double lambda = Math.toRadians(longitude);
+			double cosPhi = Math.cos(phi);
+			x[index] = cosPhi * Math.cos(lambda);
+			y[index] = cosPhi * Math.sin(lambda);
+			z[index] = Math.sin(phi);
+		}
+
+		/**
+		 * @return Number of points.
+		 */
+		public int size() {
+			return x.length;
+		}
+	}
+
+	/**
+	 * Constructor for class DistanceEngine using all cores.
+	 */
+	public DistanceEngine() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor for class DistanceEngine.
+	 * 
+	 * @param parallelism
+	 *            Number of threads computing a matrix.
+	 */
+	public DistanceEngine(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: "
+					+ parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Computes the distance from the departure to the destination of each
+	 * order.
+	 * 
+	 * @param orderList
+	 *            List of orders.
+	 * @return Distances in kilometres in the order of the list, NaN for
+	 *         orders without coordinates.
+	 */
+	public static double[] tripDistancesKm(List<Order> orderList) {
+		// Every point is used once, so the haversine formula is cheaper than
+		// converting the points to vectors first
+		double[] distances = new double[orderList.size()];
+		for (int i = 0; i < distances.length; i++) {
+			Order order = orderList.get(i);
+			double latitude1 = Math.toRadians(order.getDepartureLatitude());
+			double latitude2 = Math.toRadians(order.getDestinationLatitude());
+			double sinLatitude = Math.sin((latitude2 - latitude1) / 2);
+			double sinLongitude = Math.sin(Math.toRadians(order
+					.getDestinationLongitude() - order.getDepartureLongitude()) / 2);
+			double a = sinLatitude * sinLatitude + Math.cos(latitude1)
+					* Math.cos(latitude2) * sinLongitude * sinLongitude;
+			distances[i] = DIAMETER_KM * asin(Math.min(1, Math.sqrt(a)));
+		}
+		return distances;
+	}
+
+	/**
+	 * Computes the distances between pairs of points.
+	 * 
+	 * @param from
+	 *            First points of the pairs.
+	 * @param to
+	 *            Second points of the pairs, as many as first points.
+	 * @return Distance of the i-th pair in kilometres at index i.
+	 */
+	public static double[] distancesKm(Points from, Points to) {
+		int size = from.size();
+		if (to.size() != size) {
+			throw new IllegalArgumentException("Different numbers of points: "
+					+ size + ", " + to.size());
+		}
+		double[] distances = new double[size];
+		double[] fx = from.x, fy = from.y, fz = from.z;
+		double[] tx = to.x, ty = to.y, tz = to.z;
+		for (int i = 0; i < size; i++) {
+			double dx = fx[i] - tx[i];
+			double dy = fy[i] - ty[i];
+			double dz = fz[i] - tz[i];
+			distances[i] = dx * dx + dy * dy + dz * dz;
+		}
+		for (int i = 0; i < size; i++) {
+			distances[i] = chordToKm(distances[i]);
+		}
+		return distances;
+	}
+
+	/**
+	 * Sums up distances, skipping the NaN values of points without
+	 * coordinates.
+	 * 
+	 * @param distances
+	 *            Distances in kilometres.
+	 * @return The total in kilometres.
+	 */
+	public static double totalKm(double[] distances) {
+		double total = 0;
+		for (double distance : distances) {
+			if (!Double.isNaN(distance)) {
+				total += distance;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Computes the distances from every point of one set to every point of
+	 * another, e.g. from all depots to all departures. The result takes
+	 * 4 bytes per pair, so 100k by 1k points need 400 MB; for the nearest
+	 * point alone use nearest, which needs no matrix.
+	 * 
+	 * @param from
+	 *            Points of the rows.
+	 * @param to
+	 *            Points of the columns.
+	 * @return Row-major matrix: the distance in kilometres from point i to
+	 *         point j is at index i * to.size() + j.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the result.
+	 */
+	public float[] matrixKm(final Points from, final Points to)
+			throws InterruptedException {
+		final int columns = to.size();
+		if ((long) from.size() * columns > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Matrix too large: "
+					+ from.size() + " x " + columns);
+		}
+		final float[] matrix = new float[from.size() * columns];
+		run(from.size(), new RowTask() {
+			@Override
+			public void computeRows(int start, int end) {
+				double[] row = new double[columns];
+				for (int i = start; i < end; i++) {
+					squaredChords(from, i, to, row);
+					int offset = i * columns;
+					for (int j = 0; j < columns; j++) {
+						matrix[offset + j] = (float) chordToKm(row[j]);
+					}
+				}
+			}
+		});
+		return matrix;
+	}
+
+	/**
+	 * Finds for every point of one set the nearest point of another, e.g. the
+	 * nearest depot of every departure, without building the matrix.
+	 * 
+	 * @param from
+	 *            Points to find a neighbour for.
+	 * @param to
+	 *            Candidate points.
+	 * @param distancesKm
+	 *            Receives the distance to the nearest point at the index of
+	 *            each point of from, or null.
+	 * @return Index of the nearest point of to for each point of from, -1 for
+	 *         points without coordinates or if to is empty.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the result.
+	 */
+	public int[] nearest(final Points from, final Points to,
+			final double[] distancesKm) throws InterruptedException {
+		final int[] nearest = new int[from.size()];
+		run(from.size(), new RowTask() {
+			@Override
+			public void computeRows(int start, int end) {
+				double[] row = new double[to.size()];
+				for (int i = start; i < end; i++) {
+					squaredChords(from, i, to, row);
+					int best = -1;
+					double bestChord = Double.POSITIVE_INFINITY;
+					for (int j = 0; j < row.length; j++) {
+						if (row[j] < bestChord) {
+							bestChord = row[j];
+							best = j;
+						}
+					}
+					nearest[i] = best;
+					if (distancesKm != null) {
+						distancesKm[i] = (best < 0) ? Double.NaN
+								: chordToKm(bestChord);
+					}
+				}
+			}
+		});
+		return nearest;
+	}
+
+	/**
+	 * Computes the squared straight-line distances from one point to all
+	 * points of a set. This is the loop the JIT vectorizes.
+	 */
+	private static void squaredChords(Points from, int index, Points to,
+			double[] row) {
+		double x = from.x[index], y = from.y[index], z = from.z[index];
+		double[] tx = to.x, ty = to.y, tz = to.z;
+		for (int j = 0; j < row.length; j++) {
+			double dx = x - tx[j];
+			double dy = y - ty[j];
+			double dz = z - tz[j];
+			row[j] = dx * dx + dy * dy + dz * dz;
+		}
+	}
+
+	/**
+	 * Converts the squared straight-line distance of two unit vectors into
+	 * their great-circle distance. With the haversine a = chord^2 / 4 this is
+	 * the haversine formula.
+	 */
+	private static double chordToKm(double squaredChord) {
+		return DIAMETER_KM * asin(Math.min(1, Math.sqrt(squaredChord) / 2));
+	}
+
+	/**
+	 * Coefficients of the rational approximation of asin of fdlibm.
+	 */
+	private static final double PS0 = 1.66666666666666657415e-01,
+			PS1 = -3.25565818622400915405e-01,
+			PS2 = 2.01212532134862925881e-01,
+			PS3 = -4.00555345006794114027e-02,
+			PS4 = 7.91534994289814532176e-04,
+			PS5 = 3.47933107596021167570e-05,
+			QS1 = -2.40339491173441421878e+00,
+			QS2 = 2.02094576023350569471e+00,
+			QS3 = -6.88283971605453293030e-01,
+			QS4 = 7.70381505559019352791e-02;
+
+	/**
+	 * Computes the arc sine like fdlibm, but inlined: Math.asin is no JIT
+	 * intrinsic and costs a native call, which made it dominate the matrix.
+	 * The result differs from Math.asin by a few ulps at most.
+	 * 
+	 * @param x
+	 *            Value between 0 and 1, or NaN.
+	 * @return The arc sine in radians.
+	 */
+	static double asin(double x) {
+		if (x < 0.5) {
+			double t = x * x;
+			return x + x * rationalApproximation(t);
+		}
+		// asin(x) = pi/2 - 2 asin(sqrt((1 - x) / 2))
+		double t = (1 - x) / 2;
+		double s = Math.sqrt(t);
+		return Math.PI / 2 - 2 * (s + s * rationalApproximation(t));
+	}
+
+	private static double rationalApproximation(double t) {
+		double p = t * (PS0 + t * (PS1 + t * (PS2 + t * (PS3 + t
+				* (PS4 + t * PS5)))));
+		double q = 1 + t * (QS1 + t * (QS2 + t * (QS3 + t * QS4)));
+		return p / q;
+	}
+
+	/**
+	 * Computation of a range of rows of a result.
+	 */
+	private interface RowTask {
+		void computeRows(int start, int end);
+	}
+
+	/**
+	 * Splits the rows into blocks and computes them on the threads of the
+	 * engine, or on the calling thread if there are only a few.
+	 */
+	private void run(int rows, final RowTask task) throws InterruptedException {
+		if (parallelism == 1 || rows <= ROWS_PER_TASK) {
+			task.computeRows(0, rows);
+			return;
+		}
+		List<Callable<Void>> blocks = new ArrayList<>();
+		for (int start = 0; start < rows; start += ROWS_PER_TASK) {
+			final int blockStart = start;
+			final int blockEnd = Math.min(start + ROWS_PER_TASK, rows);
+			blocks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					task.computeRows(blockStart, blockEnd);
+					return null;
+				}
+			});
+		}
+		List<Future<Void>> results = getExecutor().invokeAll(blocks);
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(parallelism,
+					new DistanceThreadFactory());
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the threads of the engine. Later calls start new ones.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Creates the named daemon threads for the matrix computations.
+	 */
+	private static class DistanceThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "distance-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
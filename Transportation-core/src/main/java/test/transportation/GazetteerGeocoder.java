@@ -0,0 +1,457 @@
+package test.transportation;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Local geocoder which finds the centroids of postcodes and cities in an
+ * in-memory index, without any request. The index is keyed by the two-letter
+ * country code, the zip code and the city of an address. An address is
+ * located by its exact key first, then by country and zip code alone, both at
+ * postcode precision, and at last by country and city at city precision.
+ * Lookups take a binary search over the sorted keys, a few microseconds.
+ * 
+ * The index is loaded from a compact file built with the Builder, e.g. from
+ * the postal code dump of GeoNames with the main method. The file starts with
+ * a header of HEADER_SIZE bytes: magic number, format version, CRC32 checksum
+ * of everything after the checksum field, number of entries and length of the
+ * key data. It is followed by the offsets of all keys into the key data, the
+ * latitudes and longitudes of all entries as floats and the UTF-8 key data
+ * itself, sorted bytewise. All numbers are big endian.
+ * 
+ */
+public class GazetteerGeocoder implements Geocoder {
+
+	static final int MAGIC = 0x47415A54;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 20;
+
+	/**
+	 * Offset of the checksum in the header; the checksum covers all bytes
+	 * after it.
+	 */
+	private static final int CHECKSUM_OFFSET = 8;
+
+	private static final String ENCODING = "UTF-8";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final char SEPARATOR = '|';
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	/**
+	 * Columns of country code, postal code, place name, latitude and
+	 * longitude in the postal code files of GeoNames.
+	 */
+	private static final int GEONAMES_COUNTRY = 0;
+	private static final int GEONAMES_POSTAL_CODE = 1;
+	private static final int GEONAMES_PLACE = 2;
+	private static final int GEONAMES_LATITUDE = 9;
+	private static final int GEONAMES_LONGITUDE = 10;
+
+	private static final Metrics.Counter HITS = Metrics.getDefault().counter(
+			"gazetteer.hits");
+	private static final Metrics.Counter MISSES = Metrics.getDefault()
+			.counter("gazetteer.misses");
+
+	private final int[] keyOffsets;
+	private final byte[] keyData;
+	private final float[] latitudes;
+	private final float[] longitudes;
+
+	private GazetteerGeocoder(int[] keyOffsets, byte[] keyData,
+			float[] latitudes, float[] longitudes) {
+		this.keyOffsets = keyOffsets;
+		this.keyData = keyData;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+	}
+
+	/**
+	 * Reads an index file into memory.
+	 * 
+	 * @param file
+	 *            File written by Builder.write.
+	 * @return The geocoder, or null if the file does not exist.
+	 * @throws IOException
+	 *             if the file cannot be read, has an unknown format version
+	 *             or is damaged.
+	 */
+	public static GazetteerGeocoder read(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		byte[] bytes;
+		RandomAccessFile access = new RandomAccessFile(file, "r");
+		try {
+			if (access.length() < HEADER_SIZE
+					|| access.length() > Integer.MAX_VALUE) {
+				throw new IOException("Invalid gazetteer size: " + file);
+			}
+			bytes = new byte[(int) access.length()];
+			access.readFully(bytes);
+		} finally {
+			access.close();
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("No gazetteer: " + file);
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported gazetteer version " + version
+					+ ": " + file);
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes, CHECKSUM_OFFSET + 4, bytes.length
+				- CHECKSUM_OFFSET - 4);
+		if (buffer.getInt(CHECKSUM_OFFSET) != (int) checksum.getValue()) {
+			throw new IOException("Damaged gazetteer: " + file);
+		}
+
+		int count = buffer.getInt(12);
+		int dataLength = buffer.getInt(16);
+		if (count < 0 || dataLength < 0
+				|| (long) HEADER_SIZE + 12L * count + 4 + dataLength != bytes.length) {
+			throw new IOException("Damaged gazetteer: " + file);
+		}
+		buffer.position(HEADER_SIZE);
+		int[] keyOffsets = new int[count + 1];
+		buffer.asIntBuffer().get(keyOffsets);
+		buffer.position(buffer.position() + 4 * (count + 1));
+		float[] latitudes = new float[count];
+		buffer.asFloatBuffer().get(latitudes);
+		buffer.position(buffer.position() + 4 * count);
+		float[] longitudes = new float[count];
+		buffer.asFloatBuffer().get(longitudes);
+		buffer.position(buffer.position() + 4 * count);
+		byte[] keyData = Arrays.copyOfRange(bytes, buffer.position(),
+				bytes.length);
+		if (keyOffsets[0] != 0 || keyOffsets[count] != dataLength) {
+			throw new IOException("Damaged gazetteer: " + file);
+		}
+		return new GazetteerGeocoder(keyOffsets, keyData, latitudes, longitudes);
+	}
+
+	@Override
+	public Result geocode(Address address, String addressKey) {
+		String countryCode = normalize(address.getTwoLetterCountryCode(), false);
+		String zipCode = normalize(address.getZipCode(), true);
+		String city = normalize(address.getCity(), false);
+		Result result = null;
+		if (countryCode.length() > 0) {
+			if (zipCode.length() > 0 && city.length() > 0) {
+				result = find(key(countryCode, zipCode, city),
+						Precision.POSTCODE);
+			}
+			if (result == null && zipCode.length() > 0) {
+				result = find(key(countryCode, zipCode, ""), Precision.POSTCODE);
+			}
+			if (result == null && city.length() > 0) {
+				result = find(key(countryCode, "", city), Precision.CITY);
+			}
+		}
+		if (result != null) {
+			HITS.increment();
+		} else {
+			MISSES.increment();
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up one key with a binary search.
+	 * 
+	 * @return The coordinates of the entry with the given precision, or null
+	 *         if the key is not in the index.
+	 */
+	private Result find(String key, Precision precision) {
+		byte[] wanted = encode(key);
+		int low = 0;
+		int high = latitudes.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(keyData, keyOffsets[middle],
+					keyOffsets[middle + 1], wanted);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return new Result(new GeoPoint(latitudes[middle],
+						longitudes[middle]), precision);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compares a key of the key data with the wanted key, bytewise and
+	 * unsigned like the order of the file.
+	 */
+	private static int compare(byte[] data, int from, int to, byte[] wanted) {
+		int length = Math.min(to - from, wanted.length);
+		for (int i = 0; i < length; i++) {
+			int difference = (data[from + i] & 0xFF) - (wanted[i] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return (to - from) - wanted.length;
+	}
+
+	/**
+	 * @return Number of entries in the index, counting the entries for
+	 *         postcodes and cities alone.
+	 */
+	public int size() {
+		return latitudes.length;
+	}
+
+	@Override
+	public String toString() {
+		return "entries=" + size() + ", hits=" + HITS.get() + ", misses="
+				+ MISSES.get();
+	}
+
+	/**
+	 * Normalizes one address field for the key: surrounding and repeated
+	 * whitespace is removed, all letters are lower-cased and the separator
+	 * is replaced. Zip codes lose all whitespace, so "SW1A 1AA" and
+	 * "SW1A1AA" share one key.
+	 */
+	static String normalize(String value, boolean zipCode) {
+		if (value == null) {
+			return "";
+		}
+		value = WHITESPACE.matcher(value.trim()).replaceAll(zipCode ? "" : " ");
+		return value.replace(SEPARATOR, ' ').toLowerCase(Locale.ROOT);
+	}
+
+	private static String key(String countryCode, String zipCode, String city) {
+		return countryCode + SEPARATOR + zipCode + SEPARATOR + city;
+	}
+
+	private static byte[] encode(String key) {
+		try {
+			return key.getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Collects places and writes them as an index file. Places with the same
+	 * key are merged into their mean position; the entries for the zip code
+	 * alone and for the city alone are the means of all places sharing them.
+	 */
+	public static class Builder {
+
+		/**
+		 * Sums of latitude and longitude and number of places per key.
+		 */
+		private final Map<String, double[]> sums = new HashMap<>();
+
+		/**
+		 * Adds one place.
+		 * 
+		 * @param countryCode
+		 *            Two-letter country code, e.g. "DE".
+		 * @param zipCode
+		 *            Postal code, or null if the place has none.
+		 * @param city
+		 *            Name of the city, or null.
+		 * @param latitude
+		 *            Latitude of the place in degrees.
+		 * @param longitude
+		 *            Longitude of the place in degrees.
+		 * @return This builder.
+		 */
+		public Builder add(String countryCode, String zipCode, String city,
+				double latitude, double longitude) {
+			countryCode = normalize(countryCode, false);
+			zipCode = normalize(zipCode, true);
+			city = normalize(city, false);
+			if (countryCode.length() == 0) {
+				return this;
+			}
+			if (zipCode.length() > 0 && city.length() > 0) {
+				sum(key(countryCode, zipCode, city), latitude, longitude);
+			}
+			if (zipCode.length() > 0) {
+				sum(key(countryCode, zipCode, ""), latitude, longitude);
+			}
+			if (city.length() > 0) {
+				sum(key(countryCode, "", city), latitude, longitude);
+			}
+			return this;
+		}
+
+		private void sum(String key, double latitude, double longitude) {
+			double[] sum = sums.get(key);
+			if (sum == null) {
+				sum = new double[3];
+				sums.put(key, sum);
+			}
+			sum[0] += latitude;
+			sum[1] += longitude;
+			sum[2]++;
+		}
+
+		/**
+		 * @return Number of entries collected so far.
+		 */
+		public int size() {
+			return sums.size();
+		}
+
+		/**
+		 * Writes the index. The file is written under a temporary name first
+		 * and then renamed, so a reader never sees a partly written index.
+		 * 
+		 * @param file
+		 *            Target file, replaced if it exists.
+		 * @throws IOException
+		 *             if the file cannot be written.
+		 */
+		public void write(File file) throws IOException {
+			List<byte[]> keys = new ArrayList<>(sums.size());
+			Map<byte[], double[]> entries = new HashMap<>();
+			int dataLength = 0;
+			for (Map.Entry<String, double[]> entry : sums.entrySet()) {
+				byte[] key = encode(entry.getKey());
+				keys.add(key);
+				entries.put(key, entry.getValue());
+				dataLength += key.length;
+			}
+			Collections.sort(keys, new Comparator<byte[]>() {
+				@Override
+				public int compare(byte[] first, byte[] second) {
+					return GazetteerGeocoder.compare(first, 0, first.length,
+							second);
+				}
+			});
+
+			File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+			FileOutputStream fileStream = new FileOutputStream(tempFile);
+			CRC32 checksum = new CRC32();
+			try {
+				DataOutputStream header = new DataOutputStream(fileStream);
+				header.writeInt(MAGIC);
+				header.writeInt(VERSION);
+				header.writeInt(0);
+				header.flush();
+
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(
+								new CheckedOutputStream(fileStream, checksum)));
+				out.writeInt(keys.size());
+				out.writeInt(dataLength);
+				int offset = 0;
+				out.writeInt(offset);
+				for (byte[] key : keys) {
+					offset += key.length;
+					out.writeInt(offset);
+				}
+				for (byte[] key : keys) {
+					double[] sum = entries.get(key);
+					out.writeFloat((float) (sum[0] / sum[2]));
+				}
+				for (byte[] key : keys) {
+					double[] sum = entries.get(key);
+					out.writeFloat((float) (sum[1] / sum[2]));
+				}
+				for (byte[] key : keys) {
+					out.write(key);
+				}
+				out.flush();
+			} finally {
+				fileStream.close();
+			}
+
+			RandomAccessFile access = new RandomAccessFile(tempFile, "rw");
+			try {
+				access.seek(CHECKSUM_OFFSET);
+				access.writeInt((int) checksum.getValue());
+			} finally {
+				access.close();
+			}
+
+			if (!tempFile.renameTo(file)) {
+				tempFile.delete();
+				throw new IOException("Cannot replace " + file);
+			}
+		}
+	}
+
+	/**
+	 * Builds an index file from a postal code file of GeoNames, e.g.
+	 * allCountries.txt: tab-separated UTF-8 text with the country code,
+	 * postal code and place name in the first columns and the latitude and
+	 * longitude in the tenth and eleventh.
+	 * 
+	 * Usage: GazetteerGeocoder INPUT OUTPUT
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: java -cp transportation-core.jar "
+					+ GazetteerGeocoder.class.getName()
+					+ " GEONAMES_FILE GAZETTEER_FILE");
+			System.exit(2);
+		}
+		Builder builder = new Builder();
+		int places = 0;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(args[0]), ENCODING));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] columns = line.split("\t", -1);
+					if (columns.length <= GEONAMES_LONGITUDE) {
+						continue;
+					}
+					double latitude, longitude;
+					try {
+						latitude = Double.parseDouble(columns[GEONAMES_LATITUDE]);
+						longitude = Double
+								.parseDouble(columns[GEONAMES_LONGITUDE]);
+					} catch (NumberFormatException e) {
+						continue;
+					}
+					builder.add(columns[GEONAMES_COUNTRY],
+							columns[GEONAMES_POSTAL_CODE],
+							columns[GEONAMES_PLACE], latitude, longitude);
+					places++;
+				}
+			} finally {
+				reader.close();
+			}
+			builder.write(new File(args[1]));
+		} catch (IOException ioexception) {
+			ioexception.printStackTrace();
+			System.exit(1);
+		}
+		System.err.println("Places read: " + places + ", entries written: "
+				+ builder.size());
+	}
+}
@@ -0,0 +1,54 @@
+package test.transportation;
+
+/**
+ * A point on the Earth given by latitude and longitude in degrees. Takes the
+ * place of LatLng of Google Play services in the classes which do not depend
+ * on Android, so they also run on a plain JVM; the map converts it where it
+ * draws.
+ * 
+ */
+public final class GeoPoint {
+
+	public final double latitude;
+	public final double longitude;
+
+	/**
+	 * Constructor for class GeoPoint.
+	 * 
+	 * @param latitude
+	 *            Latitude in degrees.
+	 * @param longitude
+	 *            Longitude in degrees.
+	 */
+	public GeoPoint(double latitude, double longitude) {
+		this.latitude = latitude;
+		this.longitude = longitude;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (!(object instanceof GeoPoint)) {
+			return false;
+		}
+		GeoPoint other = (GeoPoint) object;
+		return Double.doubleToLongBits(latitude) == Double
+				.doubleToLongBits(other.latitude)
+				&& Double.doubleToLongBits(longitude) == Double
+						.doubleToLongBits(other.longitude);
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(latitude) * 31
+				+ Double.doubleToLongBits(longitude);
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "(" + latitude + "," + longitude + ")";
+	}
+}
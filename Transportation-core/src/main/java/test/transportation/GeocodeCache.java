@@ -0,0 +1,191 @@
+package test.transportation;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache for geocoding results, keyed by the normalized address
+ * string. The first tier is a small LRU map in memory, the second one is a
+ * DiskGeocodeStore which keeps the results between application starts.
+ * Concurrent lookups of the same missing address are coalesced, so only one
+ * of them calls the geocoding service.
+ * 
+ */
+public class GeocodeCache {
+
+	/**
+	 * Default limits: entries kept in memory, time to live and total size of
+	 * the disk entries.
+	 */
+	static final int DEFAULT_MEMORY_ENTRIES = 10000;
+	static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(30);
+	static final long DEFAULT_DISK_BYTES = 4 * 1024 * 1024;
+
+	private final Map<String, GeoPoint> memory;
+	private final DiskGeocodeStore disk;
+
+	/**
+	 * Lookups which are currently loading, by their keys.
+	 */
+	private final ConcurrentMap<String, FutureTask<GeoPoint>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Constructor for class GeocodeCache with the default limits.
+	 * 
+	 * @param directory
+	 *            Directory for the disk tier.
+	 */
+	public GeocodeCache(File directory) {
+		this(DEFAULT_MEMORY_ENTRIES, new DiskGeocodeStore(directory,
+				DEFAULT_TIME_TO_LIVE_MILLIS, DEFAULT_DISK_BYTES));
+	}
+
+	/**
+	 * Constructor for class GeocodeCache.
+	 * 
+	 * @param memoryEntries
+	 *            Number of entries kept in memory.
+	 * @param disk
+	 *            Disk tier of the cache, or null for a cache in memory only.
+	 */
+	public GeocodeCache(final int memoryEntries, DiskGeocodeStore disk) {
+		this.memory = new LinkedHashMap<String, GeoPoint>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GeoPoint> eldest) {
+				return size() > memoryEntries;
+			}
+		};
+		this.disk = disk;
+	}
+
+	/**
+	 * Gets the coordinates for the given address key. Looks into the memory
+	 * and then into the disk tier; on a miss the loader is called and its
+	 * result is stored in both tiers. A null result is not cached.
+	 * 
+	 * @param key
+	 *            Normalized address string.
+	 * @param loader
+	 *            Requests the coordinates from the geocoding service.
+	 * @return GeoPoint object with the coordinates, or null if they are
+	 *         neither cached nor could be loaded.
+	 */
+	public GeoPoint get(final String key, final Callable<GeoPoint> loader) {
+		GeoPoint coordinates = getFromMemory(key);
+		if (coordinates != null) {
+			memoryHits.incrementAndGet();
+			return coordinates;
+		}
+
+		FutureTask<GeoPoint> task = new FutureTask<>(new Callable<GeoPoint>() {
+			@Override
+			public GeoPoint call() throws Exception {
+				GeoPoint result = (disk != null) ? disk.get(key) : null;
+				if (result != null) {
+					diskHits.incrementAndGet();
+					putToMemory(key, result);
+					return result;
+				}
+
+				misses.incrementAndGet();
+				result = loader.call();
+				if (result != null) {
+					putToMemory(key, result);
+					if (disk != null) {
+						disk.put(key, result);
+					}
+				}
+				return result;
+			}
+		});
+
+		FutureTask<GeoPoint> running = inFlight.putIfAbsent(key, task);
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+		} else {
+			coalesced.incrementAndGet();
+			task = running;
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private GeoPoint getFromMemory(String key) {
+		synchronized (memory) {
+			return memory.get(key);
+		}
+	}
+
+	private void putToMemory(String key, GeoPoint coordinates) {
+		synchronized (memory) {
+			memory.put(key, coordinates);
+		}
+	}
+
+	/**
+	 * @return Number of lookups answered by the memory tier.
+	 */
+	public long getMemoryHitCount() {
+		return memoryHits.get();
+	}
+
+	/**
+	 * @return Number of lookups answered by the disk tier.
+	 */
+	public long getDiskHitCount() {
+		return diskHits.get();
+	}
+
+	/**
+	 * @return Number of lookups which had to call the loader.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Number of lookups which waited for the same key loading in
+	 *         another thread.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	@Override
+	public String toString() {
+		long hits = getMemoryHitCount() + getDiskHitCount();
+		long total = hits + getMissCount();
+		return String.format(Locale.US,
+				"%d memory hits, %d disk hits, %d misses, %d coalesced, "
+						+ "hit rate %.1f%%", getMemoryHitCount(),
+				getDiskHitCount(), getMissCount(), getCoalescedCount(),
+				(total == 0) ? 0.0 : hits * 100.0 / total);
+	}
+}
@@ -0,0 +1,61 @@
+package test.transportation;
+
+/**
+ * Source of coordinates for addresses, e.g. the remote geocoding service of
+ * AddressGeocoder or the local GazetteerGeocoder. Geocoders can be chained
+ * with ChainedGeocoder, so a cheap tier answers first and the next one is only
+ * asked when it misses or is not precise enough. Implementations are called
+ * from several geocoding threads at once.
+ * 
+ */
+public interface Geocoder {
+
+	/**
+	 * How exactly a result locates an address, from coarse to fine.
+	 */
+	enum Precision {
+		/**
+		 * Center of the city.
+		 */
+		CITY,
+		/**
+		 * Center of the postcode area.
+		 */
+		POSTCODE,
+		/**
+		 * Somewhere on the street.
+		 */
+		STREET,
+		/**
+		 * The building itself.
+		 */
+		ADDRESS
+	}
+
+	/**
+	 * Coordinates found for an address together with their precision.
+	 */
+	class Result {
+
+		public final GeoPoint coordinates;
+		public final Precision precision;
+
+		public Result(GeoPoint coordinates, Precision precision) {
+			this.coordinates = coordinates;
+			this.precision = precision;
+		}
+	}
+
+	/**
+	 * Looks up the coordinates of an address.
+	 * 
+	 * @param address
+	 *            Address details as read from the feed.
+	 * @param addressKey
+	 *            Normalized address string built by
+	 *            AddressGeocoder.formAddressKey, never empty.
+	 * @return The coordinates and their precision, or null if the address is
+	 *         unknown to this geocoder.
+	 */
+	Result geocode(Address address, String addressKey);
+}
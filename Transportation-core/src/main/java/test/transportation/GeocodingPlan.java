@@ -0,0 +1,183 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the unique addresses of a list of orders before geocoding. Many
+ * orders share their departure depot or destination, so every normalized
+ * address is geocoded only once and its coordinates are then handed to all
+ * orders which use it. The plan also tracks which orders have both addresses
+ * resolved, so finished orders can be published while others still wait.
+ * Orders can be added while addresses are being geocoded; an address which
+ * was resolved before is applied to them right away. All methods can be called
+ * from different threads.
+ * 
+ */
+class GeocodingPlan {
+
+	/**
+	 * Orders which use one address, as departure or as destination.
+	 */
+	private static class Usage {
+		Address address;
+		List<Order> departures = new ArrayList<>(1);
+		List<Order> destinations = new ArrayList<>(1);
+		boolean resolved;
+		GeoPoint coordinates;
+	}
+
+	private final Map<String, Usage> usages = new HashMap<>();
+	private int addressCount;
+
+	/**
+	 * Unique addresses added since the last call of takeNewKeys.
+	 */
+	private List<String> newKeys = new ArrayList<>();
+
+	/**
+	 * Number of unresolved addresses of each order.
+	 */
+	private final Map<Order, Integer> pending = new IdentityHashMap<>();
+
+	/**
+	 * Adds both addresses of the order to the plan. Addresses which are new
+	 * to the plan are returned by the next call of takeNewKeys.
+	 * 
+	 * @param order
+	 *            Order with the filled address fields.
+	 * @param departureKey
+	 *            Normalized string of the departure address.
+	 * @param destinationKey
+	 *            Normalized string of the destination address.
+	 * @return The order if both of its addresses were resolved before, else
+	 *         an empty list.
+	 */
+	synchronized List<Order> add(Order order, String departureKey,
+			String destinationKey) {
+		addressCount += 2;
+		int count = 2;
+		Usage departure = getUsage(departureKey, order.getDepartureAddress());
+		if (departure.resolved) {
+			order.setDepartureCoordinates(departure.coordinates);
+			count--;
+		} else {
+			departure.departures.add(order);
+		}
+		Usage destination = getUsage(destinationKey,
+				order.getDestinationAddress());
+		if (destination.resolved) {
+			order.setDestinationCoordinates(destination.coordinates);
+			count--;
+		} else {
+			destination.destinations.add(order);
+		}
+
+		if (count == 0) {
+			return Collections.singletonList(order);
+		}
+		Integer pendingCount = pending.get(order);
+		pending.put(order, (pendingCount == null) ? count : pendingCount
+				+ count);
+		return Collections.<Order> emptyList();
+	}
+
+	private Usage getUsage(String key, Address address) {
+		Usage usage = usages.get(key);
+		if (usage == null) {
+			usage = new Usage();
+			usage.address = address;
+			usages.put(key, usage);
+			newKeys.add(key);
+		}
+		return usage;
+	}
+
+	/**
+	 * @return The normalized strings of the unique addresses added since the
+	 *         last call, in the order of their first use.
+	 */
+	synchronized List<String> takeNewKeys() {
+		List<String> keys = newKeys;
+		newKeys = new ArrayList<>();
+		return keys;
+	}
+
+	/**
+	 * Gets the details of a unique address, as given by the first order which
+	 * uses it. All orders with the same normalized address string share them.
+	 * 
+	 * @param key
+	 *            Normalized address string.
+	 * @return Address object with the details, or null if the address is not
+	 *         in the plan.
+	 */
+	synchronized Address getAddress(String key) {
+		Usage usage = usages.get(key);
+		return (usage != null) ? usage.address : null;
+	}
+
+	/**
+	 * Sets the coordinates of one unique address to all orders which use it.
+	 * Orders added later get them from add.
+	 * 
+	 * @param key
+	 *            Normalized address string.
+	 * @param coordinates
+	 *            GeoPoint object with the coordinates of the address, or null
+	 *            if it could not be geocoded.
+	 * @return Orders whose last unresolved address was this one.
+	 */
+	synchronized List<Order> apply(String key, GeoPoint coordinates) {
+		Usage usage = usages.get(key);
+		usage.resolved = true;
+		usage.coordinates = coordinates;
+		for (Order order : usage.departures) {
+			order.setDepartureCoordinates(coordinates);
+		}
+		for (Order order : usage.destinations) {
+			order.setDestinationCoordinates(coordinates);
+		}
+
+		List<Order> finished = null;
+		finished = resolve(usage.departures, finished);
+		finished = resolve(usage.destinations, finished);
+		usage.departures = Collections.emptyList();
+		usage.destinations = Collections.emptyList();
+		return (finished != null) ? finished : Collections.<Order> emptyList();
+	}
+
+	private List<Order> resolve(List<Order> orders, List<Order> finished) {
+		for (Order order : orders) {
+			int count = pending.get(order) - 1;
+			if (count > 0) {
+				pending.put(order, count);
+			} else {
+				pending.remove(order);
+				if (finished == null) {
+					finished = new ArrayList<>();
+				}
+				finished.add(order);
+			}
+		}
+		return finished;
+	}
+
+	/**
+	 * @return Number of addresses in the plan, counting every use.
+	 */
+	synchronized int getAddressCount() {
+		return addressCount;
+	}
+
+	/**
+	 * @return Number of unique addresses in the plan.
+	 */
+	synchronized int getUniqueAddressCount() {
+		return usages.size();
+	}
+}
@@ -0,0 +1,176 @@
+package test.transportation;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the figures of one geocoding run: how many addresses were
+ * requested, how many requests were sent to the service, how often the quota
+ * was exceeded and how long the whole run took. Counters are updated
+ * concurrently by the geocoding threads.
+ * 
+ */
+public class GeocodingStatistics {
+
+	private final AtomicLong addresses = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong quotaHits = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private volatile int plannedAddresses;
+	private volatile int uniqueAddresses;
+
+	private final int parallelism;
+	private final long startNanos;
+	private volatile long finishNanos;
+	private volatile double finalRate;
+
+	/**
+	 * Constructor for class GeocodingStatistics. Starts the time measurement.
+	 * 
+	 * @param parallelism
+	 *            Number of threads used for the run.
+	 */
+	public GeocodingStatistics(int parallelism) {
+		this.parallelism = parallelism;
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Records the result of the planning stage.
+	 * 
+	 * @param addressCount
+	 *            Number of addresses of all orders, counting every use.
+	 * @param uniqueAddressCount
+	 *            Number of unique addresses among them.
+	 */
+	void planned(int addressCount, int uniqueAddressCount) {
+		plannedAddresses = addressCount;
+		uniqueAddresses = uniqueAddressCount;
+	}
+
+	void addressRequested() {
+		addresses.incrementAndGet();
+	}
+
+	void requestSent() {
+		requests.incrementAndGet();
+	}
+
+	void requestRetried() {
+		retries.incrementAndGet();
+	}
+
+	void quotaExceeded() {
+		quotaHits.incrementAndGet();
+	}
+
+	void addressFailed() {
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * Stops the time measurement.
+	 * 
+	 * @param rate
+	 *            The rate of the limiter at the end of the run.
+	 */
+	void finish(double rate) {
+		finalRate = rate;
+		finishNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return Number of unique addresses which were requested so far.
+	 */
+	public long getAddressCount() {
+		return addresses.get();
+	}
+
+	/**
+	 * @return Number of addresses of all orders, counting every use.
+	 */
+	public int getPlannedAddressCount() {
+		return plannedAddresses;
+	}
+
+	/**
+	 * @return Number of unique addresses among all orders.
+	 */
+	public int getUniqueAddressCount() {
+		return uniqueAddresses;
+	}
+
+	/**
+	 * Gets the ratio of all address uses to the unique addresses, that is how
+	 * many geocoding calls the deduplication saved per call made.
+	 * 
+	 * @return The deduplication ratio, 1 if there were no shared addresses.
+	 */
+	public double getDeduplicationRatio() {
+		int unique = uniqueAddresses;
+		return (unique == 0) ? 1 : (double) plannedAddresses / unique;
+	}
+
+	/**
+	 * @return Number of requests sent to the geocoding service.
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return Number of requests which repeated a failed one.
+	 */
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * @return Number of responses with the exceeded quota.
+	 */
+	public long getQuotaHitCount() {
+		return quotaHits.get();
+	}
+
+	/**
+	 * @return Number of addresses left without coordinates.
+	 */
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * Gets the duration of the run, or the time passed so far if the run is
+	 * not finished yet.
+	 * 
+	 * @return Duration in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		long end = (finishNanos != 0) ? finishNanos : System.nanoTime();
+		return (end - startNanos) / 1000000;
+	}
+
+	/**
+	 * Gets the number of geocoded addresses per second.
+	 * 
+	 * @return Throughput of the run.
+	 */
+	public double getThroughput() {
+		long elapsed = getElapsedMillis();
+		return (elapsed == 0) ? 0 : addresses.get() * 1000.0 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US,
+				"%d addresses (%d unique, dedup ratio %.1f) in %d ms (%.1f/s), "
+						+ "%d requests, %d retries, %d quota hits, %d failed, "
+						+ "%d threads, rate %.1f/s", getPlannedAddressCount(),
+				getAddressCount(), getDeduplicationRatio(),
+				getElapsedMillis(), getThroughput(),
+				getRequestCount(), getRetryCount(), getQuotaHitCount(),
+				getFailureCount(), parallelism, finalRate);
+	}
+}
@@ -0,0 +1,51 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decoder of a gzip-compressed feed file, e.g. orders.json.gz served as is
+ * with the content type application/gzip. The decompressed page is read by
+ * another decoder. A page which is only compressed for the transfer, with
+ * Content-Encoding gzip, is already decompressed by HttpTransport and does
+ * not need this decoder.
+ * 
+ */
+public class GzipOrderDecoder implements OrderFeedDecoder {
+
+	static final String MEDIA_TYPE_GZIP = "application/gzip";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final OrderFeedDecoder content;
+
+	/**
+	 * Constructor for class GzipOrderDecoder.
+	 * 
+	 * @param content
+	 *            Decoder of the decompressed page.
+	 */
+	public GzipOrderDecoder(OrderFeedDecoder content) {
+		this.content = content;
+	}
+
+	@Override
+	public String getMediaType() {
+		return MEDIA_TYPE_GZIP;
+	}
+
+	@Override
+	public boolean canDecode(String mediaType) {
+		return mediaType.equals(MEDIA_TYPE_GZIP)
+				|| mediaType.equals("application/x-gzip");
+	}
+
+	@Override
+	public Records open(InputStream in, String charset,
+			Map<String, String> countryCodes) throws IOException {
+		return content.open(new GZIPInputStream(in, BUFFER_SIZE), charset,
+				countryCodes);
+	}
+}
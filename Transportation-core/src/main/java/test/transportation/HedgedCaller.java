@@ -0,0 +1,276 @@
+package test.transportation;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs calls to a backend with a deadline and sends a second, hedged call
+ * when the first one is slower than most recent calls. Whichever call
+ * answers first wins; the other one runs to its end in the background, as do
+ * calls still running at the deadline. They are not interrupted: an
+ * interrupt does not stop a blocking socket read anyway, and a call which
+ * reads its response to the end returns the connection to the pool. This
+ * cuts the tail of the latency, which is made of few slow calls, for a few
+ * percent of extra calls. Hedges are limited to a share of all calls, so a
+ * backend which is slow for everybody does not get twice the load.
+ * 
+ * The hedge delay is a percentile of the latencies of the last successful
+ * calls, which follows the backend when it gets faster or slower. Calls run
+ * on daemon threads of the caller, which are created as needed.
+ * 
+ */
+public class HedgedCaller {
+
+	/**
+	 * Default settings: deadline of a call, percentile of the recent
+	 * latencies after which a hedge is sent, shortest hedge delay and largest
+	 * share of hedged calls.
+	 */
+	static final long DEFAULT_DEADLINE_MILLIS = 5000;
+	static final double DEFAULT_HEDGE_PERCENTILE = 95;
+	static final long DEFAULT_MIN_HEDGE_DELAY_MILLIS = 20;
+	static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+
+	/**
+	 * Number of recent latencies kept, and number needed before the first
+	 * hedge.
+	 */
+	private static final int LATENCY_WINDOW = 256;
+	private static final int MIN_LATENCIES = 20;
+
+	private final long deadlineMillis;
+	private final double hedgePercentile;
+	private final long minHedgeDelayMillis;
+	private final double maxHedgeRatio;
+
+	private final Metrics.Counter hedges;
+	private final Metrics.Counter hedgeWins;
+	private final Metrics.Counter deadlinesExceeded;
+
+	private final ExecutorService executor = Executors
+			.newCachedThreadPool(new HedgeThreadFactory());
+
+	/**
+	 * Latencies of the last successful calls in milliseconds, as a ring.
+	 */
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int latencyCount;
+	private int latencyPosition;
+	private long callCount;
+	private long hedgeCount;
+
+	/**
+	 * Constructor for class HedgedCaller with the default settings.
+	 * 
+	 * @param name
+	 *            Name of the backend, used for the metrics, e.g. "geocode".
+	 */
+	public HedgedCaller(String name) {
+		this(name, DEFAULT_DEADLINE_MILLIS, DEFAULT_HEDGE_PERCENTILE,
+				DEFAULT_MIN_HEDGE_DELAY_MILLIS, DEFAULT_MAX_HEDGE_RATIO);
+	}
+
+	/**
+	 * Constructor for class HedgedCaller.
+	 * 
+	 * @param name
+	 *            Name of the backend, used for the metrics, e.g. "geocode".
+	 * @param deadlineMillis
+	 *            Time after which a call is given up, hedge included.
+	 * @param hedgePercentile
+	 *            Percentile of the recent latencies, between 0 and 100, after
+	 *            which a hedge is sent.
+	 * @param minHedgeDelayMillis
+	 *            Shortest time before a hedge is sent.
+	 * @param maxHedgeRatio
+	 *            Largest share of calls which may be hedged, 0 for none.
+	 */
+	public HedgedCaller(String name, long deadlineMillis,
+			double hedgePercentile, long minHedgeDelayMillis,
+			double maxHedgeRatio) {
+		if (deadlineMillis < 1) {
+			throw new IllegalArgumentException("Deadline must be positive: "
+					+ deadlineMillis);
+		}
+		if (!(hedgePercentile > 0 && hedgePercentile <= 100)) {
+			throw new IllegalArgumentException(
+					"Percentile must be in (0, 100]: " + hedgePercentile);
+		}
+		this.deadlineMillis = deadlineMillis;
+		this.hedgePercentile = hedgePercentile;
+		this.minHedgeDelayMillis = minHedgeDelayMillis;
+		this.maxHedgeRatio = maxHedgeRatio;
+		hedges = Metrics.getDefault().counter(name + ".hedges");
+		hedgeWins = Metrics.getDefault().counter(name + ".hedge_wins");
+		deadlinesExceeded = Metrics.getDefault().counter(
+				name + ".deadline_exceeded");
+	}
+
+	/**
+	 * Runs a call, hedged if it is slow, and waits for the first answer.
+	 * 
+	 * @param call
+	 *            The call; may run twice at the same time. A null result is
+	 *            a valid answer.
+	 * @return The result of the first call which answered.
+	 * @throws ExecutionException
+	 *             if all calls which were sent failed; the cause is the
+	 *             exception of the last one.
+	 * @throws TimeoutException
+	 *             if no call answered within the deadline.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting.
+	 */
+	public <T> T call(Callable<T> call) throws ExecutionException,
+			TimeoutException, InterruptedException {
+		long start = System.currentTimeMillis();
+		long deadline = start + deadlineMillis;
+		long hedgeDelay = getHedgeDelay();
+
+		CompletionService<T> completion = new ExecutorCompletionService<>(
+				executor);
+		Future<T> primary = completion.submit(call);
+		Future<T> hedge = null;
+		int running = 1;
+		ExecutionException failure = null;
+
+		while (running > 0) {
+			long now = System.currentTimeMillis();
+			long wait;
+			if (hedge == null && hedgeDelay > 0) {
+				wait = Math.min(start + hedgeDelay, deadline) - now;
+			} else {
+				wait = deadline - now;
+			}
+			Future<T> done = completion.poll(Math.max(0, wait),
+					TimeUnit.MILLISECONDS);
+			if (done == null) {
+				if (System.currentTimeMillis() >= deadline) {
+					break;
+				}
+				// The hedge delay has passed without an answer
+				hedgeDelay = 0;
+				if (acquireHedge()) {
+					hedges.increment();
+					hedge = completion.submit(call);
+					running++;
+				}
+				continue;
+			}
+			running--;
+			try {
+				T result = done.get();
+				if (done == hedge) {
+					hedgeWins.increment();
+				}
+				recordLatency(System.currentTimeMillis() - start);
+				cancel(primary, hedge);
+				return result;
+			} catch (ExecutionException e) {
+				failure = e;
+				if (hedge == null) {
+					// No hedge for a call which failed fast
+					break;
+				}
+			}
+		}
+		cancel(primary, hedge);
+		if (running == 0 && failure != null) {
+			throw failure;
+		}
+		deadlinesExceeded.increment();
+		throw new TimeoutException("No answer within "
+				+ deadlineMillis + " ms");
+	}
+
+	/**
+	 * Drops the calls which have not started yet. Running calls are left to
+	 * end on their own.
+	 */
+	private static void cancel(Future<?> primary, Future<?> hedge) {
+		primary.cancel(false);
+		if (hedge != null) {
+			hedge.cancel(false);
+		}
+	}
+
+	/**
+	 * Takes the permit for one more hedge, unless the share of hedged calls
+	 * has reached its limit.
+	 */
+	private synchronized boolean acquireHedge() {
+		if (hedgeCount + 1 > maxHedgeRatio * callCount) {
+			return false;
+		}
+		hedgeCount++;
+		return true;
+	}
+
+	/**
+	 * Counts a call and computes its hedge delay.
+	 * 
+	 * @return Delay in milliseconds, or 0 if the call is not hedged because
+	 *         there are too few latencies yet.
+	 */
+	private synchronized long getHedgeDelay() {
+		callCount++;
+		return getCurrentHedgeDelay();
+	}
+
+	private synchronized void recordLatency(long millis) {
+		latencies[latencyPosition] = millis;
+		latencyPosition = (latencyPosition + 1) % LATENCY_WINDOW;
+		if (latencyCount < LATENCY_WINDOW) {
+			latencyCount++;
+		}
+	}
+
+	/**
+	 * @return The delay after which the next call would be hedged, or 0 if
+	 *         it would not be hedged.
+	 */
+	public synchronized long getCurrentHedgeDelay() {
+		if (latencyCount < MIN_LATENCIES || maxHedgeRatio <= 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(latencyCount * hedgePercentile / 100) - 1;
+		long delay = sorted[Math.max(0, Math.min(latencyCount - 1, rank))];
+		return Math.max(minHedgeDelayMillis, delay);
+	}
+
+	/**
+	 * Stops the threads of the caller. Calls which are still running are
+	 * interrupted.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Creates the named daemon threads for the calls.
+	 */
+	private static class HedgeThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "hedge-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
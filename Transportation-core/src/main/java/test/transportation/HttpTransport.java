@@ -0,0 +1,347 @@
+package test.transportation;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client shared by the order parser and the geocoder. Connections are
+ * opened through HttpURLConnection, which keeps idle connections alive and
+ * reuses them for later requests to the same host, as long as every response
+ * body is read to the end and closed. The transport takes care of that, asks
+ * for gzip-compressed responses, applies connect and read timeouts, and limits
+ * the number of connections open at the same time.
+ * 
+ */
+public class HttpTransport {
+
+	/**
+	 * Default settings: timeouts in milliseconds and number of concurrent
+	 * connections.
+	 */
+	static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+	static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+	static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	/**
+	 * Largest unread rest of a body which is skipped to keep the connection
+	 * alive; for larger ones the connection is dropped instead.
+	 */
+	private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+	private static final Metrics.Counter REQUESTS = Metrics.getDefault()
+			.counter("http.requests");
+	private static final Metrics.Counter ERRORS = Metrics.getDefault()
+			.counter("http.errors");
+	private static final Metrics.Counter BYTES = Metrics.getDefault()
+			.counter("http.bytes");
+	private static final Metrics.Gauge IN_FLIGHT = Metrics.getDefault()
+			.gauge("http.in_flight");
+	private static final Metrics.Histogram RESPONSE_TIME = Metrics
+			.getDefault().histogram("http.response");
+
+	private static HttpTransport defaultTransport;
+
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final Semaphore connections;
+
+	/**
+	 * Response of a request. The body has to be consumed through
+	 * getInputStream or getReader and the response closed, which returns the
+	 * connection to the pool.
+	 */
+	public class Response implements Closeable {
+
+		private final HttpURLConnection connection;
+		private final int statusCode;
+		private final boolean inFlight;
+		private InputStream body;
+		private boolean closed;
+
+		Response(HttpURLConnection connection, boolean inFlight)
+				throws IOException {
+			this.connection = connection;
+			this.inFlight = inFlight;
+			this.statusCode = connection.getResponseCode();
+		}
+
+		/**
+		 * @return HTTP status code of the response.
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		/**
+		 * @return true if the status code is 2xx.
+		 */
+		public boolean isSuccessful() {
+			return statusCode >= 200 && statusCode < 300;
+		}
+
+		/**
+		 * Gets a header of the response.
+		 * 
+		 * @param name
+		 *            Name of the header.
+		 * @return The value of the header, or null if it is missing.
+		 */
+		public String getHeader(String name) {
+			return connection.getHeaderField(name);
+		}
+
+		/**
+		 * Gets the body of the response, decompressed if the server sent it
+		 * with gzip.
+		 * 
+		 * @return Stream over the body. It is closed with the response.
+		 * @throws IOException
+		 *             if the status code is not 2xx or the body cannot be
+		 *             read.
+		 */
+		public InputStream getInputStream() throws IOException {
+			if (body == null) {
+				if (!isSuccessful()) {
+					throw new IOException("HTTP " + statusCode + " for "
+							+ connection.getURL());
+				}
+				InputStream in = new CountingInputStream(
+						connection.getInputStream());
+				if ("gzip".equalsIgnoreCase(connection
+						.getContentEncoding())) {
+					in = new GZIPInputStream(in);
+				}
+				body = in;
+			}
+			return body;
+		}
+
+		/**
+		 * @return Charset of the body given by the server, or UTF-8.
+		 */
+		public String getCharset() {
+			return HttpTransport.getCharset(connection.getContentType());
+		}
+
+		/**
+		 * Gets the body of the response as text, in the charset given by the
+		 * server or UTF-8.
+		 * 
+		 * @return Reader over the body, without a buffer of its own. Closing
+		 *         it closes the response.
+		 * @throws IOException
+		 *             if the status code is not 2xx or the body cannot be
+		 *             read.
+		 */
+		public Reader getReader() throws IOException {
+			return new FilterReader(new InputStreamReader(getInputStream(),
+					getCharset())) {
+				@Override
+				public void close() throws IOException {
+					Response.this.close();
+				}
+			};
+		}
+
+		/**
+		 * Reads the rest of the body, so the connection can be reused, and
+		 * releases the connection.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				InputStream in = body;
+				if (in == null) {
+					in = isSuccessful() ? connection.getInputStream()
+							: connection.getErrorStream();
+				}
+				if (in != null) {
+					drain(in);
+				}
+			} catch (IOException e) {
+				connection.disconnect();
+			} finally {
+				if (inFlight) {
+					IN_FLIGHT.decrement();
+				}
+				connections.release();
+			}
+		}
+
+		private void drain(InputStream in) throws IOException {
+			byte[] buffer = new byte[4096];
+			int total = 0;
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				total += count;
+				if (total > MAX_DRAIN_BYTES) {
+					connection.disconnect();
+					break;
+				}
+			}
+			in.close();
+		}
+	}
+
+	/**
+	 * Constructor for class HttpTransport with the default settings.
+	 */
+	public HttpTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+				DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Constructor for class HttpTransport.
+	 * 
+	 * @param connectTimeoutMillis
+	 *            Time allowed to establish a connection.
+	 * @param readTimeoutMillis
+	 *            Time allowed between two reads of the response; a stalled
+	 *            response fails after that time.
+	 * @param maxConnections
+	 *            Number of requests which may be open at the same time.
+	 *            Further requests wait for a free connection.
+	 */
+	public HttpTransport(int connectTimeoutMillis, int readTimeoutMillis,
+			int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException(
+					"Number of connections must be positive: "
+							+ maxConnections);
+		}
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.connections = new Semaphore(maxConnections, true);
+	}
+
+	/**
+	 * Gets the transport shared by all users which do not set one of their
+	 * own, so they share its connections.
+	 * 
+	 * @return The shared transport with the default settings.
+	 */
+	public static synchronized HttpTransport getDefault() {
+		if (defaultTransport == null) {
+			defaultTransport = new HttpTransport();
+		}
+		return defaultTransport;
+	}
+
+	/**
+	 * Sends a GET request. Waits while the maximum number of connections is
+	 * in use.
+	 * 
+	 * @param url
+	 *            Address of the resource.
+	 * @param headers
+	 *            Additional request headers, or null.
+	 * @return The response, which has to be closed by the caller.
+	 * @throws IOException
+	 *             if the request fails or the thread is interrupted while
+	 *             waiting for a connection.
+	 */
+	public Response get(String url, Map<String, String> headers)
+			throws IOException {
+		try {
+			connections.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a connection");
+		}
+
+		REQUESTS.increment();
+		boolean inFlight = IN_FLIGHT.increment();
+		long start = Metrics.getDefault().startTimer();
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout(connectTimeoutMillis);
+			connection.setReadTimeout(readTimeoutMillis);
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			if (headers != null) {
+				for (Map.Entry<String, String> header : headers.entrySet()) {
+					connection.setRequestProperty(header.getKey(),
+							header.getValue());
+				}
+			}
+			Response response = new Response(connection, inFlight);
+			RESPONSE_TIME.recordSince(start);
+			return response;
+		} catch (IOException | RuntimeException e) {
+			ERRORS.increment();
+			if (inFlight) {
+				IN_FLIGHT.decrement();
+			}
+			if (connection != null) {
+				connection.disconnect();
+			}
+			connections.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the connection, before decompression.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				BYTES.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length)
+				throws IOException {
+			int count = super.read(buffer, offset, length);
+			if (count > 0) {
+				BYTES.add(count);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Gets the charset parameter of a Content-Type header.
+	 */
+	private static String getCharset(String contentType) {
+		if (contentType != null) {
+			for (String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+					String charset = parameter.substring(8).replace("\"", "")
+							.trim();
+					if (charset.length() > 0) {
+						return charset;
+					}
+				}
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+}
@@ -0,0 +1,48 @@
+package test.transportation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the metrics as one JSON object to a file, replacing the earlier
+ * dump. The file can be pulled from the device or attached to a bug report.
+ * 
+ */
+public class JsonMetricsExporter implements MetricsExporter {
+
+	private final File file;
+
+	/**
+	 * Constructor for class JsonMetricsExporter.
+	 * 
+	 * @param file
+	 *            Target file of the dump.
+	 */
+	public JsonMetricsExporter(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void export(Metrics metrics) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(
+					tempFile), "UTF-8");
+			try {
+				writer.write(metrics.toJson());
+				writer.write('\n');
+			} finally {
+				writer.close();
+			}
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Cannot replace " + file);
+			}
+		} catch (IOException ioexception) {
+			ioexception.printStackTrace();
+			tempFile.delete();
+		}
+	}
+}
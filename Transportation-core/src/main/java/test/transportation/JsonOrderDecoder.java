@@ -0,0 +1,205 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+
+import test.transportation.JsonPullReader.Token;
+
+/**
+ * Decoder of the JSON formats of the orders feed: the JSON array of order
+ * objects served by the orders web page, or newline-delimited JSON with one
+ * order object per line. Records without both addresses are skipped, as are
+ * unknown members; a syntax error ends the page.
+ * 
+ */
+public class JsonOrderDecoder implements OrderFeedDecoder {
+
+	static final String MEDIA_TYPE_JSON = "application/json";
+	static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
+	private static final String KEY_DEPARTURE_ADDRESS = "departureAddress";
+	private static final String KEY_DESTINATION_ADDRESS = "destinationAddress";
+	private static final String KEY_ID = "id";
+
+	/**
+	 * Address fields taken over from the feed, in the order of the
+	 * parameters of the Address constructor.
+	 */
+	private static final String[] COMPONENTS = { Order.ADDRESS_COUNTRY,
+			Order.ADDRESS_ZIPCODE, Order.ADDRESS_CITY,
+			Order.ADDRESS_COUNTRY_CODE, Order.ADDRESS_STREET,
+			Order.ADDRESS_HOUSE };
+
+	private final boolean newlineDelimited;
+
+	/**
+	 * Constructor for class JsonOrderDecoder.
+	 * 
+	 * @param newlineDelimited
+	 *            false for a JSON array of orders, true for one order object
+	 *            after the other.
+	 */
+	public JsonOrderDecoder(boolean newlineDelimited) {
+		this.newlineDelimited = newlineDelimited;
+	}
+
+	@Override
+	public String getMediaType() {
+		return newlineDelimited ? MEDIA_TYPE_NDJSON : MEDIA_TYPE_JSON;
+	}
+
+	@Override
+	public boolean canDecode(String mediaType) {
+		if (newlineDelimited) {
+			return mediaType.equals(MEDIA_TYPE_NDJSON)
+					|| mediaType.equals("application/ndjson")
+					|| mediaType.equals("application/jsonl")
+					|| mediaType.equals("application/x-jsonlines");
+		}
+		return mediaType.equals(MEDIA_TYPE_JSON)
+				|| mediaType.equals("text/json");
+	}
+
+	@Override
+	public Records open(InputStream in, String charset,
+			Map<String, String> countryCodes) throws IOException {
+		return open(new InputStreamReader(in, charset), countryCodes);
+	}
+
+	/**
+	 * Starts reading a page of the feed which is already decoded to text.
+	 * 
+	 * @param in
+	 *            Text of the page. It is closed when the records are closed.
+	 * @param countryCodes
+	 *            Mapping of 3-letter to 2-letter ISO country codes.
+	 * @return The records of the page.
+	 */
+	public Records open(Reader in, Map<String, String> countryCodes) {
+		return new JsonRecords(new JsonPullReader(in, newlineDelimited),
+				countryCodes);
+	}
+
+	private class JsonRecords implements Records {
+
+		private final JsonPullReader reader;
+		private final Map<String, String> countryCodes;
+		private boolean started;
+
+		JsonRecords(JsonPullReader reader, Map<String, String> countryCodes) {
+			this.reader = reader;
+			this.countryCodes = countryCodes;
+		}
+
+		@Override
+		public boolean hasNext() throws IOException {
+			if (!started) {
+				started = true;
+				if (!newlineDelimited) {
+					reader.beginArray();
+				}
+			}
+			if (reader.hasNext()) {
+				return true;
+			}
+			if (!newlineDelimited) {
+				reader.endArray();
+			}
+			return false;
+		}
+
+		@Override
+		public Order next() throws IOException {
+			return readOrder();
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+
+		/**
+		 * Reads one order object from the feed.
+		 * 
+		 * @return Order object, or null if the record lacks an address.
+		 */
+		private Order readOrder() throws IOException {
+			Address departureAddress = null;
+			Address destinationAddress = null;
+			String id = null;
+
+			if (reader.peek() != Token.BEGIN_OBJECT) {
+				reader.skipValue();
+				return null;
+			}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals(KEY_DEPARTURE_ADDRESS)) {
+					departureAddress = readAddress();
+				} else if (name.equals(KEY_DESTINATION_ADDRESS)) {
+					destinationAddress = readAddress();
+				} else if (name.equals(KEY_ID)
+						&& (reader.peek() == Token.STRING
+						|| reader.peek() == Token.NUMBER)) {
+					id = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			if (departureAddress == null || destinationAddress == null) {
+				return null;
+			}
+			Order order = new Order(departureAddress, destinationAddress);
+			order.setId(id);
+			return order;
+		}
+
+		/**
+		 * Creates an Address object with the address details read from the
+		 * address object of the feed. Unknown members are skipped and missing
+		 * fields are left empty.
+		 * 
+		 * @return Address object with the address details, or null if the
+		 *         member is not an object.
+		 */
+		private Address readAddress() throws IOException {
+			if (reader.peek() != Token.BEGIN_OBJECT) {
+				reader.skipValue();
+				return null;
+			}
+
+			String[] values = new String[COMPONENTS.length];
+			reader.beginObject();
+			while (reader.hasNext()) {
+				int component = indexOfComponent(reader.nextName());
+				Token token = reader.peek();
+				if (component >= 0
+						&& (token == Token.STRING || token == Token.NUMBER)) {
+					values[component] = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			String countryCode = values[3];
+			return new Address(values[0], values[1], values[2], countryCode,
+					countryCodes.get(countryCode), values[4], values[5]);
+		}
+	}
+
+	private static int indexOfComponent(String name) {
+		for (int i = 0; i < COMPONENTS.length; i++) {
+			if (COMPONENTS[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,476 @@
+package test.transportation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Pull parser for JSON text. The caller asks for one token after the other,
+ * and the reader only keeps a small character buffer and the nesting of the
+ * current position, so documents of any size are read in constant memory.
+ * Several values may follow each other at the top level, which allows
+ * reading newline-delimited JSON with the same reader. A sequence of values
+ * may also be empty, while a document needs at least one value.
+ * 
+ */
+public class JsonPullReader implements Closeable {
+
+	/**
+	 * Kinds of tokens returned by peek.
+	 */
+	public enum Token {
+		BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER,
+		BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	/**
+	 * Scopes the reader can be in, kept on the nesting stack.
+	 */
+	private static final int EMPTY_ARRAY = 1, NONEMPTY_ARRAY = 2,
+			EMPTY_OBJECT = 3, DANGLING_NAME = 4, NONEMPTY_OBJECT = 5,
+			EMPTY_DOCUMENT = 6, NONEMPTY_DOCUMENT = 7;
+
+	private final Reader in;
+	private final boolean sequence;
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+	private long consumed;
+
+	private int[] stack = new int[16];
+	private int stackSize;
+
+	private Token peeked;
+	private String peekedValue;
+	private final StringBuilder builder = new StringBuilder();
+
+	/**
+	 * Constructor for class JsonPullReader.
+	 * 
+	 * @param in
+	 *            Source of the JSON text. It is read in chunks, so there is no
+	 *            need to buffer it.
+	 */
+	public JsonPullReader(Reader in) {
+		this(in, false);
+	}
+
+	/**
+	 * Constructor for class JsonPullReader.
+	 * 
+	 * @param in
+	 *            Source of the JSON text. It is read in chunks, so there is no
+	 *            need to buffer it.
+	 * @param sequence
+	 *            true if the text is a sequence of values, e.g.
+	 *            newline-delimited JSON, which may be empty or consist of
+	 *            whitespace only; false if it is a document with at least one
+	 *            value.
+	 */
+	public JsonPullReader(Reader in, boolean sequence) {
+		this.in = in;
+		this.sequence = sequence;
+		stack[stackSize++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Gets the kind of the next token without consuming it.
+	 * 
+	 * @return The kind of the next token.
+	 * @throws IOException
+	 *             if reading fails or the text is not valid JSON.
+	 */
+	public Token peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+
+		int scope = stack[stackSize - 1];
+		int c;
+		switch (scope) {
+		case EMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				stackSize--;
+				return setPeeked(Token.END_ARRAY, null);
+			}
+			position--;
+			stack[stackSize - 1] = NONEMPTY_ARRAY;
+			return readValue();
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				stackSize--;
+				return setPeeked(Token.END_ARRAY, null);
+			}
+			if (c != ',') {
+				throw syntaxError("Expected ',' or ']'");
+			}
+			return readValue();
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			c = nextNonWhitespace();
+			if (c == '}') {
+				stackSize--;
+				return setPeeked(Token.END_OBJECT, null);
+			}
+			if (scope == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+				c = nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw syntaxError("Expected name");
+			}
+			stack[stackSize - 1] = DANGLING_NAME;
+			return setPeeked(Token.NAME, readString());
+		case DANGLING_NAME:
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			stack[stackSize - 1] = NONEMPTY_OBJECT;
+			return readValue();
+		case EMPTY_DOCUMENT:
+			stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+			if (sequence) {
+				if (nextNonWhitespaceOrEnd() == -1) {
+					return setPeeked(Token.END_DOCUMENT, null);
+				}
+				position--;
+			}
+			return readValue();
+		default:
+			if (nextNonWhitespaceOrEnd() == -1) {
+				return setPeeked(Token.END_DOCUMENT, null);
+			}
+			position--;
+			return readValue();
+		}
+	}
+
+	/**
+	 * @return true if the current array or object has another element.
+	 * @throws IOException
+	 *             if reading fails or the text is not valid JSON.
+	 */
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_ARRAY && token != Token.END_OBJECT
+				&& token != Token.END_DOCUMENT;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+	}
+
+	/**
+	 * @return The name of the next object member.
+	 * @throws IOException
+	 *             if the next token is not a name.
+	 */
+	public String nextName() throws IOException {
+		String name = peekedValueOf(Token.NAME);
+		expect(Token.NAME);
+		return name;
+	}
+
+	/**
+	 * Consumes the next value as text. Numbers and booleans are returned as
+	 * they are written in the document.
+	 * 
+	 * @return The text of the next value.
+	 * @throws IOException
+	 *             if the next token is not a string, number or boolean.
+	 */
+	public String nextString() throws IOException {
+		Token token = peek();
+		if (token != Token.STRING && token != Token.NUMBER
+				&& token != Token.BOOLEAN) {
+			throw syntaxError("Expected a string but was " + token);
+		}
+		String value = peekedValue;
+		consume();
+		return value;
+	}
+
+	/**
+	 * @return The next value as a number. Strings containing a number are
+	 *         accepted as well.
+	 * @throws IOException
+	 *             if the next value is not a number.
+	 */
+	public double nextDouble() throws IOException {
+		String value = nextString();
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a number but was " + value);
+		}
+	}
+
+	/**
+	 * @return The next value as a whole number.
+	 * @throws IOException
+	 *             if the next value is not a whole number.
+	 */
+	public long nextLong() throws IOException {
+		String value = nextString();
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a whole number but was " + value);
+		}
+	}
+
+	public boolean nextBoolean() throws IOException {
+		String value = peekedValueOf(Token.BOOLEAN);
+		expect(Token.BOOLEAN);
+		return Boolean.parseBoolean(value);
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+	}
+
+	/**
+	 * Skips the next value together with all values nested in it.
+	 * 
+	 * @throws IOException
+	 *             if reading fails or the text is not valid JSON.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			Token token = peek();
+			if (token == Token.BEGIN_ARRAY || token == Token.BEGIN_OBJECT) {
+				depth++;
+			} else if (token == Token.END_ARRAY || token == Token.END_OBJECT) {
+				depth--;
+			} else if (token == Token.END_DOCUMENT) {
+				throw syntaxError("Unexpected end of document");
+			}
+			consume();
+		} while (depth > 0);
+	}
+
+	/**
+	 * @return Number of characters consumed from the source so far.
+	 */
+	public long getCharacterCount() {
+		return consumed + position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		peeked = null;
+		stack[0] = NONEMPTY_DOCUMENT;
+		stackSize = 1;
+		in.close();
+	}
+
+	private void expect(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		consume();
+	}
+
+	private String peekedValueOf(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		return peekedValue;
+	}
+
+	private void consume() {
+		peeked = null;
+		peekedValue = null;
+	}
+
+	private Token setPeeked(Token token, String value) {
+		peeked = token;
+		peekedValue = value;
+		return token;
+	}
+
+	private Token readValue() throws IOException {
+		int c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			push(EMPTY_OBJECT);
+			return setPeeked(Token.BEGIN_OBJECT, null);
+		case '[':
+			push(EMPTY_ARRAY);
+			return setPeeked(Token.BEGIN_ARRAY, null);
+		case '"':
+			return setPeeked(Token.STRING, readString());
+		default:
+			position--;
+			String literal = readLiteral();
+			if (literal.equals("null")) {
+				return setPeeked(Token.NULL, null);
+			}
+			if (literal.equals("true") || literal.equals("false")) {
+				return setPeeked(Token.BOOLEAN, literal);
+			}
+			if (literal.length() > 0
+					&& (literal.charAt(0) == '-' || Character
+							.isDigit(literal.charAt(0)))) {
+				return setPeeked(Token.NUMBER, literal);
+			}
+			throw syntaxError("Unexpected value '" + literal + "'");
+		}
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			stack = Arrays.copyOf(stack, stackSize * 2);
+		}
+		stack[stackSize++] = scope;
+	}
+
+	/**
+	 * Reads a string up to its closing quote, the opening one is already
+	 * consumed.
+	 */
+	private String readString() throws IOException {
+		builder.setLength(0);
+		while (true) {
+			int start = position;
+			while (position < limit) {
+				char c = buffer[position++];
+				if (c == '"') {
+					builder.append(buffer, start, position - start - 1);
+					return builder.toString();
+				}
+				if (c == '\\') {
+					builder.append(buffer, start, position - start - 1);
+					builder.append(readEscape());
+					start = position;
+				}
+			}
+			builder.append(buffer, start, position - start);
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		if (position == limit && !fill()) {
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = buffer[position++];
+		switch (c) {
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				if (position == limit && !fill()) {
+					throw syntaxError("Unterminated escape sequence");
+				}
+				int digit = Character.digit(buffer[position++], 16);
+				if (digit < 0) {
+					throw syntaxError("Invalid unicode escape");
+				}
+				value = (value << 4) | digit;
+			}
+			return (char) value;
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		default:
+			return c;
+		}
+	}
+
+	/**
+	 * Reads an unquoted value: a number, true, false or null.
+	 */
+	private String readLiteral() throws IOException {
+		builder.setLength(0);
+		while (true) {
+			int start = position;
+			while (position < limit) {
+				char c = buffer[position];
+				if (c == ',' || c == ']' || c == '}' || c == ':' || c == ' '
+						|| c == '\t' || c == '\n' || c == '\r') {
+					builder.append(buffer, start, position - start);
+					return builder.toString();
+				}
+				position++;
+			}
+			builder.append(buffer, start, position - start);
+			if (!fill()) {
+				return builder.toString();
+			}
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c = nextNonWhitespaceOrEnd();
+		if (c == -1) {
+			throw syntaxError("Unexpected end of document");
+		}
+		return c;
+	}
+
+	private int nextNonWhitespaceOrEnd() throws IOException {
+		while (position < limit || fill()) {
+			char c = buffer[position++];
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the next chunk of the source into the buffer. Keeps the last
+	 * character, so the parser can always step back by one.
+	 * 
+	 * @return false if the source is exhausted.
+	 */
+	private boolean fill() throws IOException {
+		int keep = (limit > 0) ? 1 : 0;
+		if (keep > 0) {
+			buffer[0] = buffer[limit - 1];
+		}
+		consumed += limit - keep;
+		position = keep;
+		limit = keep;
+		int count = in.read(buffer, keep, buffer.length - keep);
+		if (count <= 0) {
+			return false;
+		}
+		limit += count;
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at character "
+				+ getCharacterCount());
+	}
+}
@@ -0,0 +1,412 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of the counters, gauges and latency histograms of the loading
+ * pipeline: downloading and parsing the feed, geocoding and drawing. The
+ * instruments are created once, usually in static fields of the measured
+ * class, and updated on the hot path.
+ * 
+ * Metrics are off by default. While no exporter is set, every update is a
+ * single read of a volatile field and timers do not even read the clock.
+ * Setting an exporter switches them on; updates are then lock-free atomic
+ * operations, which is small against the network requests they measure.
+ * 
+ */
+public class Metrics {
+
+	/**
+	 * Layout of the histogram buckets: every range from 2^n to 2^(n+1)
+	 * microseconds is split into SUB_BUCKETS buckets of equal width, up to
+	 * 2^MAX_EXPONENT microseconds (about 12 days). Durations below
+	 * SUB_BUCKETS microseconds have a bucket each.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1)
+			* SUB_BUCKETS;
+
+	private static Metrics defaultMetrics;
+
+	private final Map<String, Object> instruments = new LinkedHashMap<>();
+	private volatile MetricsExporter exporter;
+	private volatile boolean enabled;
+
+	/**
+	 * Gets the registry used by all classes of the application.
+	 * 
+	 * @return The shared registry.
+	 */
+	public static synchronized Metrics getDefault() {
+		if (defaultMetrics == null) {
+			defaultMetrics = new Metrics();
+		}
+		return defaultMetrics;
+	}
+
+	/**
+	 * Setter method for the exporter. Metrics are recorded while an exporter
+	 * is set.
+	 * 
+	 * @param exporter
+	 *            Receiver of the metrics, or null to switch them off.
+	 */
+	public void setExporter(MetricsExporter exporter) {
+		this.exporter = exporter;
+		this.enabled = exporter != null;
+	}
+
+	/**
+	 * @return true if metrics are recorded.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Passes the current values to the exporter, if one is set. The values
+	 * are not reset, so later exports show the totals since the start.
+	 */
+	public void export() {
+		MetricsExporter currentExporter = exporter;
+		if (currentExporter != null) {
+			currentExporter.export(this);
+		}
+	}
+
+	/**
+	 * Gets the counter with the given name, creating it on first use.
+	 * 
+	 * @param name
+	 *            Name of the counter, e.g. "geocode.retries".
+	 * @return The counter.
+	 */
+	public Counter counter(String name) {
+		return get(name, Counter.class);
+	}
+
+	/**
+	 * Gets the gauge with the given name, creating it on first use.
+	 * 
+	 * @param name
+	 *            Name of the gauge, e.g. "http.in_flight".
+	 * @return The gauge.
+	 */
+	public Gauge gauge(String name) {
+		return get(name, Gauge.class);
+	}
+
+	/**
+	 * Gets the latency histogram with the given name, creating it on first
+	 * use.
+	 * 
+	 * @param name
+	 *            Name of the histogram, e.g. "geocode.request".
+	 * @return The histogram.
+	 */
+	public Histogram histogram(String name) {
+		return get(name, Histogram.class);
+	}
+
+	private synchronized <T> T get(String name, Class<T> type) {
+		Object instrument = instruments.get(name);
+		if (instrument == null) {
+			if (type == Counter.class) {
+				instrument = new Counter();
+			} else if (type == Gauge.class) {
+				instrument = new Gauge();
+			} else {
+				instrument = new Histogram();
+			}
+			instruments.put(name, instrument);
+		} else if (!type.isInstance(instrument)) {
+			throw new IllegalArgumentException(name + " is no "
+					+ type.getSimpleName());
+		}
+		return type.cast(instrument);
+	}
+
+	/**
+	 * Starts a time measurement for a histogram.
+	 * 
+	 * @return Start time in nanoseconds, or 0 if metrics are off.
+	 */
+	public long startTimer() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Builds a JSON object with the current values of all instruments, e.g.
+	 * {"http.requests":12,"geocode.request":{"count":10,...}}. Durations are
+	 * given in milliseconds.
+	 * 
+	 * @return The JSON text.
+	 */
+	public String toJson() {
+		StringBuilder builder = new StringBuilder("{");
+		for (Map.Entry<String, Object> entry : snapshot()) {
+			if (builder.length() > 1) {
+				builder.append(',');
+			}
+			builder.append('"').append(entry.getKey()).append("\":");
+			appendJson(builder, entry.getValue());
+		}
+		return builder.append('}').toString();
+	}
+
+	/**
+	 * Builds the JSON value of one instrument, a number for a counter and an
+	 * object for the others.
+	 * 
+	 * @param instrument
+	 *            Counter, gauge or histogram of a registry.
+	 * @return The JSON text.
+	 */
+	static String toJson(Object instrument) {
+		StringBuilder builder = new StringBuilder();
+		appendJson(builder, instrument);
+		return builder.toString();
+	}
+
+	private static void appendJson(StringBuilder builder, Object instrument) {
+		if (instrument instanceof Counter) {
+			builder.append(((Counter) instrument).get());
+		} else if (instrument instanceof Gauge) {
+			Gauge gauge = (Gauge) instrument;
+			builder.append("{\"value\":").append(gauge.get())
+					.append(",\"max\":").append(gauge.getMax()).append('}');
+		} else {
+			((Histogram) instrument).appendJson(builder);
+		}
+	}
+
+	/**
+	 * @return The instruments with their names, in the order of creation.
+	 */
+	synchronized List<Map.Entry<String, Object>> snapshot() {
+		return new ArrayList<>(instruments.entrySet());
+	}
+
+	/**
+	 * Counter which only grows, e.g. for requests or downloaded bytes.
+	 */
+	public class Counter {
+
+		private final AtomicLong value = new AtomicLong();
+
+		Counter() {
+		}
+
+		/**
+		 * Adds one to the counter.
+		 */
+		public void increment() {
+			if (enabled) {
+				value.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Adds a value to the counter.
+		 * 
+		 * @param delta
+		 *            Value to add, e.g. a number of bytes.
+		 */
+		public void add(long delta) {
+			if (enabled) {
+				value.addAndGet(delta);
+			}
+		}
+
+		/**
+		 * @return Current value of the counter.
+		 */
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * Value which goes up and down, e.g. the number of requests in flight.
+	 * The highest value reached is kept as well.
+	 */
+	public class Gauge {
+
+		private final AtomicLong value = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		Gauge() {
+		}
+
+		/**
+		 * Raises the gauge by one.
+		 * 
+		 * @return true if the gauge was raised. Only then decrement must be
+		 *         called, so switching metrics on or off does not unbalance
+		 *         the gauge.
+		 */
+		public boolean increment() {
+			if (!enabled) {
+				return false;
+			}
+			long current = value.incrementAndGet();
+			long highest;
+			while (current > (highest = max.get())
+					&& !max.compareAndSet(highest, current)) {
+			}
+			return true;
+		}
+
+		/**
+		 * Lowers the gauge by one after a successful increment.
+		 */
+		public void decrement() {
+			value.decrementAndGet();
+		}
+
+		/**
+		 * @return Current value of the gauge.
+		 */
+		public long get() {
+			return value.get();
+		}
+
+		/**
+		 * @return Highest value the gauge has reached.
+		 */
+		public long getMax() {
+			return max.get();
+		}
+	}
+
+	/**
+	 * Histogram of durations with logarithmic buckets, so recording costs a
+	 * few atomic additions and no allocation. Percentiles are estimated with
+	 * the upper bound of their bucket and are therefore at most 12.5% above
+	 * the real value.
+	 */
+	public class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(
+				BUCKET_COUNT);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalMicros = new AtomicLong();
+		private final AtomicLong maxMicros = new AtomicLong();
+
+		Histogram() {
+		}
+
+		/**
+		 * Records the time passed since a call of startTimer.
+		 * 
+		 * @param startNanos
+		 *            Value returned by startTimer. 0 is ignored, as are all
+		 *            values while metrics are off.
+		 */
+		public void recordSince(long startNanos) {
+			if (startNanos != 0 && enabled) {
+				record((System.nanoTime() - startNanos) / 1000);
+			}
+		}
+
+		/**
+		 * Records one duration.
+		 * 
+		 * @param micros
+		 *            Duration in microseconds.
+		 */
+		public void record(long micros) {
+			if (!enabled) {
+				return;
+			}
+			if (micros < 0) {
+				micros = 0;
+			}
+			buckets.incrementAndGet(bucketOf(micros));
+			count.incrementAndGet();
+			totalMicros.addAndGet(micros);
+			long highest;
+			while (micros > (highest = maxMicros.get())
+					&& !maxMicros.compareAndSet(highest, micros)) {
+			}
+		}
+
+		/**
+		 * @return Number of recorded durations.
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * Estimates a percentile of the recorded durations.
+		 * 
+		 * @param percentile
+		 *            Percentile between 0 and 100, e.g. 99.
+		 * @return Upper bound of the bucket containing the percentile in
+		 *         microseconds, at most the largest recorded duration.
+		 */
+		public long getPercentileMicros(double percentile) {
+			long total = count.get();
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					return Math.min(upperBound(i), maxMicros.get());
+				}
+			}
+			return maxMicros.get();
+		}
+
+		private int bucketOf(long micros) {
+			if (micros < SUB_BUCKETS) {
+				return (int) micros;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(micros);
+			if (exponent >= MAX_EXPONENT) {
+				return BUCKET_COUNT - 1;
+			}
+			int shift = exponent - SUB_BUCKET_BITS;
+			return (shift + 1) * SUB_BUCKETS
+					+ (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+		}
+
+		/**
+		 * @return The largest duration in microseconds counted by a bucket.
+		 */
+		private long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int shift = bucket / SUB_BUCKETS - 1;
+			long subBucket = bucket % SUB_BUCKETS;
+			return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+		}
+
+		void appendJson(StringBuilder builder) {
+			long total = count.get();
+			builder.append(String.format(Locale.US,
+					"{\"count\":%d,\"mean_ms\":%.3f,\"p50_ms\":%.3f,"
+							+ "\"p90_ms\":%.3f,\"p99_ms\":%.3f,\"p999_ms\":%.3f,"
+							+ "\"max_ms\":%.3f}",
+					total, (total == 0) ? 0 : totalMicros.get() / 1000.0
+							/ total, getPercentileMicros(50) / 1000.0,
+					getPercentileMicros(90) / 1000.0,
+					getPercentileMicros(99) / 1000.0,
+					getPercentileMicros(99.9) / 1000.0,
+					maxMicros.get() / 1000.0));
+		}
+	}
+}
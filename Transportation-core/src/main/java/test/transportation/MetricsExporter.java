@@ -0,0 +1,17 @@
+package test.transportation;
+
+/**
+ * Receiver of the metrics of the application, e.g. a log or a file. Set on
+ * the registry with Metrics.setExporter.
+ * 
+ */
+public interface MetricsExporter {
+
+	/**
+	 * Called with the registry after each load.
+	 * 
+	 * @param metrics
+	 *            The registry with the current values.
+	 */
+	void export(Metrics metrics);
+}
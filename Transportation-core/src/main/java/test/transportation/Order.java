@@ -0,0 +1,213 @@
+package test.transportation;
+
+import java.util.Map;
+
+/**
+ * This class contains all information about transportation order. It has two
+ * Address objects, one for departure address details and the other for
+ * destination address details. Their fields can be read by the names listed
+ * in the constants ADDRESS_<X> below. Each address holds its coordinates as
+ * well, so the coordinate accessors work without allocations.
+ * 
+ */
+public class Order {
+
+	static final String ADDRESS_COUNTRY = "country";
+	static final String ADDRESS_ZIPCODE = "zipCode";
+	static final String ADDRESS_CITY = "city";
+	static final String ADDRESS_COUNTRY_CODE = "countryCode";
+	static final String ADDRESS_COUNTRY_CODE_ALPHA_2 = "twoLetterCountryCode";
+	static final String ADDRESS_STREET = "street";
+	static final String ADDRESS_HOUSE = "houseNumber";
+
+	/**
+	 * Identifiers to distinguish departure and destination addresses.
+	 */
+	static final int DEPARTURE_ID = 0, DESTINATION_ID = 1;
+
+	/**
+	 * Fields for storing departure and destination addresses of the order. Each
+	 * address has all information about the place, which means two-letter and
+	 * three-letter country code, city, zipcode, street name, house number and
+	 * also latitude and longitude of that place. Some of fields could have
+	 * empty values.
+	 */
+	private final Address departureAddress, destinationAddress;
+
+	/**
+	 * Identifier of the order in the feed, null if the feed has none.
+	 */
+	private String id;
+
+	/**
+	 * Constructor for class Order.
+	 * 
+	 * @param departureAddress
+	 *            Address details for departure point of the current order.
+	 * @param destinationAddress
+	 *            Address details for destination point of the current order.
+	 */
+	public Order(Address departureAddress, Address destinationAddress) {
+		this.departureAddress = departureAddress;
+		this.destinationAddress = destinationAddress;
+	}
+
+	/**
+	 * Constructor for class Order.
+	 * 
+	 * @param departureAddress
+	 *            A map with address details for departure point of the current
+	 *            order, keyed by the constants ADDRESS_<X>.
+	 * @param destinationAddress
+	 *            A map with address details for destination point of the
+	 *            current order, keyed by the constants ADDRESS_<X>.
+	 */
+	public Order(Map<String, Object> departureAddress,
+			Map<String, Object> destinationAddress) {
+		this(toAddress(departureAddress), toAddress(destinationAddress));
+	}
+
+	private static Address toAddress(Map<String, Object> address) {
+		return new Address((String) address.get(ADDRESS_COUNTRY),
+				(String) address.get(ADDRESS_ZIPCODE),
+				(String) address.get(ADDRESS_CITY),
+				(String) address.get(ADDRESS_COUNTRY_CODE),
+				(String) address.get(ADDRESS_COUNTRY_CODE_ALPHA_2),
+				(String) address.get(ADDRESS_STREET),
+				(String) address.get(ADDRESS_HOUSE));
+	}
+
+	/**
+	 * Getter method for the identifier of the order.
+	 * 
+	 * @return The identifier given by the feed, or null.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Setter method for the identifier of the order.
+	 * 
+	 * @param id
+	 *            The identifier given by the feed, or null.
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * Getter method for departure address details.
+	 * 
+	 * @return The details of the departure point of the current order.
+	 */
+	public Address getDepartureAddress() {
+		return departureAddress;
+	}
+
+	/**
+	 * Getter method for destination address details.
+	 * 
+	 * @return The details of the destination point of the current order.
+	 */
+	public Address getDestinationAddress() {
+		return destinationAddress;
+	}
+
+	/**
+	 * Setter method for departure coordinates.
+	 * 
+	 * @param coordinates
+	 *            The GeoPoint object with contains two values of the type double
+	 *            with the latitude and longitude coordinates of the departure
+	 *            point. Null is ignored.
+	 */
+	public void setDepartureCoordinates(GeoPoint coordinates) {
+		if (coordinates != null) {
+			departureAddress.setCoordinates(coordinates.latitude,
+					coordinates.longitude);
+		}
+	}
+
+	/**
+	 * Setter method for destination coordinates.
+	 * 
+	 * @param coordinates
+	 *            The GeoPoint object with contains two values of the type double
+	 *            with the latitude and longitude coordinates of the destination
+	 *            point. Null is ignored.
+	 */
+	public void setDestinationCoordinates(GeoPoint coordinates) {
+		if (coordinates != null) {
+			destinationAddress.setCoordinates(coordinates.latitude,
+					coordinates.longitude);
+		}
+	}
+
+	/**
+	 * Getter method for departure coordinates. Creates a new GeoPoint object on
+	 * every call; the primitive accessors below avoid that.
+	 * 
+	 * @return A GeoPoint object with the two double coordinates of the current
+	 *         order's departure place.
+	 */
+	public GeoPoint getDepartureCoordinates() {
+		return new GeoPoint(departureAddress.getLatitude(),
+				departureAddress.getLongitude());
+	}
+
+	/**
+	 * Getter method for destination coordinates. Creates a new GeoPoint object
+	 * on every call; the primitive accessors below avoid that.
+	 * 
+	 * @return A GeoPoint object with the two double coordinates of the current
+	 *         order's destination place.
+	 */
+	public GeoPoint getDestinationCoordinates() {
+		return new GeoPoint(destinationAddress.getLatitude(),
+				destinationAddress.getLongitude());
+	}
+
+	public double getDepartureLatitude() {
+		return departureAddress.getLatitude();
+	}
+
+	public double getDepartureLongitude() {
+		return departureAddress.getLongitude();
+	}
+
+	public double getDestinationLatitude() {
+		return destinationAddress.getLatitude();
+	}
+
+	public double getDestinationLongitude() {
+		return destinationAddress.getLongitude();
+	}
+
+	/**
+	 * Checks if the order has already got the latitude and longitude fields for
+	 * its departure and destination address.
+	 * 
+	 * @return true if coordinates exist, false otherwise.
+	 */
+	public boolean hasCoordinates() {
+		return departureAddress.hasCoordinates()
+				&& destinationAddress.hasCoordinates();
+	}
+
+	/**
+	 * Creates a string representation for current order which can be used when
+	 * displaying address point on the map. The same for departure and
+	 * destination address so has to get a flag to distinguish those.
+	 * 
+	 * @param placeType
+	 *            A flag to distinguish departure and destination addresses, can
+	 *            be DEPARTURE_ID or DESTINATION_ID.
+	 * @return String object with the full address of the required point.
+	 */
+	public String addressToString(int placeType) {
+		Address address = (placeType == DEPARTURE_ID) ? departureAddress
+				: destinationAddress;
+		return address.toString();
+	}
+}
\ No newline at end of file
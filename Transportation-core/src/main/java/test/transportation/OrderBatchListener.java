@@ -0,0 +1,21 @@
+package test.transportation;
+
+import java.util.List;
+
+/**
+ * Receives orders in batches while a long operation on them is still running,
+ * for example the geocoded orders while the others are still being geocoded.
+ * 
+ */
+public interface OrderBatchListener {
+
+	/**
+	 * Called with the next batch of finished orders. May be called from any
+	 * thread, but never concurrently.
+	 * 
+	 * @param batch
+	 *            Orders finished since the previous batch. The list is not
+	 *            changed afterwards.
+	 */
+	void onOrdersBatch(List<Order> batch);
+}
@@ -0,0 +1,143 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups finished orders into batches for an OrderBatchListener. A batch is
+ * handed over when it has reached its size or when the interval since the
+ * previous batch has passed, whichever comes first, so the listener gets
+ * regular updates without being called for every single order. A batch
+ * which is not full is handed over by a timer when its interval has passed,
+ * so the listener may be called on the thread of the timer.
+ * 
+ */
+public class OrderBatcher {
+
+	/**
+	 * Default batch size and interval between batches.
+	 */
+	static final int DEFAULT_BATCH_SIZE = 50;
+	static final long DEFAULT_INTERVAL_MILLIS = 250;
+
+	private final OrderBatchListener listener;
+	private final int batchSize;
+	private final long intervalNanos;
+
+	/**
+	 * Timer shared by all batchers. Its thread ends while no flush is
+	 * pending.
+	 */
+	private static final ScheduledExecutorService TIMER;
+
+	static {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+				1, new BatchThreadFactory());
+		timer.setKeepAliveTime(1, TimeUnit.MINUTES);
+		timer.allowCoreThreadTimeOut(true);
+		TIMER = timer;
+	}
+
+	private List<Order> batch = new ArrayList<>();
+	private long lastFlushNanos = System.nanoTime();
+	private ScheduledFuture<?> pendingFlush;
+
+	/**
+	 * Constructor for class OrderBatcher with the default batch size and
+	 * interval.
+	 * 
+	 * @param listener
+	 *            Receiver of the batches.
+	 */
+	public OrderBatcher(OrderBatchListener listener) {
+		this(listener, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Constructor for class OrderBatcher.
+	 * 
+	 * @param listener
+	 *            Receiver of the batches.
+	 * @param batchSize
+	 *            Number of orders after which a batch is handed over.
+	 * @param intervalMillis
+	 *            Time after which a batch is handed over even if it is not
+	 *            full.
+	 */
+	public OrderBatcher(OrderBatchListener listener, int batchSize,
+			long intervalMillis) {
+		this.listener = listener;
+		this.batchSize = batchSize;
+		this.intervalNanos = intervalMillis * 1000000;
+	}
+
+	/**
+	 * Adds finished orders to the current batch and hands the batch over if
+	 * it is full or due.
+	 * 
+	 * @param orders
+	 *            Finished orders.
+	 */
+	public synchronized void addAll(List<Order> orders) {
+		batch.addAll(orders);
+		long elapsedNanos = System.nanoTime() - lastFlushNanos;
+		if (batch.size() >= batchSize || elapsedNanos >= intervalNanos) {
+			flush();
+		} else if (pendingFlush == null && !batch.isEmpty()) {
+			pendingFlush = TIMER.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flushIfDue();
+				}
+			}, intervalNanos - elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Hands the current batch over, if it has any orders.
+	 */
+	public synchronized void flush() {
+		if (pendingFlush != null) {
+			pendingFlush.cancel(false);
+			pendingFlush = null;
+		}
+		if (!batch.isEmpty()) {
+			List<Order> full = batch;
+			batch = new ArrayList<>();
+			listener.onOrdersBatch(full);
+		}
+		lastFlushNanos = System.nanoTime();
+	}
+
+	/**
+	 * Called by the timer. A flush in between may have started a new
+	 * interval, whose batch is not due yet.
+	 */
+	private synchronized void flushIfDue() {
+		if (System.nanoTime() - lastFlushNanos >= intervalNanos) {
+			flush();
+		}
+	}
+
+	/**
+	 * Creates the named daemon thread of the timer.
+	 */
+	private static class BatchThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "batch-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package test.transportation;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes orders in the compact binary format of the orders feed, which is
+ * described in BinaryOrderDecoder. Orders are written one after the other, so
+ * a page can be sent while it is generated. Coordinates are not part of the
+ * feed and are not written.
+ * 
+ */
+public class OrderBinaryWriter {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final OutputStream out;
+	private final StringDictionary dictionary = new StringDictionary();
+	private final int[] codes = new int[1 + 2 * BinaryOrderDecoder.COMPONENTS
+			.length];
+
+	/**
+	 * Constructor for class OrderBinaryWriter. Writes the start of the page.
+	 * 
+	 * @param out
+	 *            Target of the page.
+	 * @throws IOException
+	 *             if the page cannot be written.
+	 */
+	public OrderBinaryWriter(OutputStream out) throws IOException {
+		this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+		int magic = BinaryOrderDecoder.MAGIC;
+		this.out.write(magic >>> 24);
+		this.out.write(magic >>> 16);
+		this.out.write(magic >>> 8);
+		this.out.write(magic);
+		this.out.write(BinaryOrderDecoder.VERSION);
+	}
+
+	/**
+	 * Writes all orders as one page. The stream is not closed.
+	 * 
+	 * @param orderList
+	 *            Orders to write.
+	 * @param out
+	 *            Target of the page.
+	 * @throws IOException
+	 *             if the page cannot be written.
+	 */
+	public static void write(List<Order> orderList, OutputStream out)
+			throws IOException {
+		OrderBinaryWriter writer = new OrderBinaryWriter(out);
+		for (Order order : orderList) {
+			writer.write(order);
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Writes an order, preceded by the strings it uses for the first time.
+	 * 
+	 * @param order
+	 *            Order to write.
+	 * @throws IOException
+	 *             if the order cannot be written.
+	 */
+	public void write(Order order) throws IOException {
+		int position = 0;
+		codes[position++] = encode(order.getId());
+		for (String component : BinaryOrderDecoder.COMPONENTS) {
+			codes[position++] = encode(order.getDepartureAddress().get(
+					component));
+		}
+		for (String component : BinaryOrderDecoder.COMPONENTS) {
+			codes[position++] = encode(order.getDestinationAddress().get(
+					component));
+		}
+		out.write(BinaryOrderDecoder.TAG_ORDER);
+		for (int code : codes) {
+			writeNumber(code);
+		}
+	}
+
+	/**
+	 * Writes the end of the page and flushes it. The stream is not closed.
+	 * 
+	 * @throws IOException
+	 *             if the page cannot be written.
+	 */
+	public void finish() throws IOException {
+		out.write(BinaryOrderDecoder.TAG_END);
+		out.flush();
+	}
+
+	/**
+	 * Gets the number of a string, writing a dictionary entry for a new one.
+	 * Empty strings are written as missing values, which gives the same
+	 * Address.
+	 */
+	private int encode(String value) throws IOException {
+		if (value == null || value.isEmpty()) {
+			return 0;
+		}
+		int size = dictionary.size();
+		int code = dictionary.encode(value);
+		if (code == size) {
+			byte[] bytes = value.getBytes(UTF_8);
+			if (bytes.length > BinaryOrderDecoder.MAX_STRING_BYTES) {
+				throw new IOException("String of " + bytes.length + " bytes");
+			}
+			out.write(BinaryOrderDecoder.TAG_STRING);
+			writeNumber(bytes.length);
+			out.write(bytes);
+		}
+		return code + 1;
+	}
+
+	private void writeNumber(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -0,0 +1,369 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the departure and destination points of orders into clusters for
+ * drawing them on the map. Points are projected to the Web Mercator plane and
+ * collected in a grid of square cells of a fixed size in screen pixels, so a
+ * zoom level never shows more clusters than fit on the screen. The grid is
+ * anchored to the world, which keeps the clusters of a zoom level stable while
+ * the map is moved; they are computed once per zoom level and then only
+ * filtered by the visible bounds. Orders added later are binned into the
+ * cells of the levels computed so far when a level is used again, so
+ * progressive loading does not cluster the earlier orders once more.
+ * 
+ * The class is not thread-safe; all calls have to come from one thread.
+ * 
+ */
+public class OrderClusterer {
+
+	/**
+	 * A group of departure or destination points close to each other.
+	 */
+	public static class Cluster {
+
+		/**
+		 * Position of the cluster, the centre of its points.
+		 */
+		public final double latitude, longitude;
+
+		/**
+		 * Number of points in the cluster.
+		 */
+		public final int count;
+
+		/**
+		 * Order.DEPARTURE_ID or Order.DESTINATION_ID.
+		 */
+		public final int placeType;
+
+		/**
+		 * The order of the only point, null for clusters of several points.
+		 */
+		public final Order order;
+
+		/**
+		 * Grid cell of the cluster, unique among the clusters of one zoom
+		 * level and the same for every clustering at that level.
+		 */
+		public final long cell;
+
+		/**
+		 * Index of the only point, -1 for clusters of several points.
+		 */
+		final int point;
+
+		Cluster(double latitude, double longitude, int count, int placeType,
+				Order order, long cell, int point) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.count = count;
+			this.placeType = placeType;
+			this.order = order;
+			this.cell = cell;
+			this.point = point;
+		}
+	}
+
+	/**
+	 * Clusters and connecting lines visible in the requested bounds.
+	 */
+	public static class Result {
+
+		/**
+		 * Zoom level whose grid the clusters belong to.
+		 */
+		public final int zoom;
+
+		public final List<Cluster> clusters;
+
+		/**
+		 * Orders whose departure and destination are both single points, so a
+		 * line can be drawn between them.
+		 */
+		public final List<Order> lines;
+
+		Result(int zoom, List<Cluster> clusters, List<Order> lines) {
+			this.zoom = zoom;
+			this.clusters = clusters;
+			this.lines = lines;
+		}
+	}
+
+	/**
+	 * Clusters of all points at one zoom level, together with the sums of
+	 * their cells, so that further points can be added. The cluster of a
+	 * cell has the index of the cell.
+	 */
+	private static class Level {
+		final double cellsPerAxis;
+
+		final List<Cluster> clusters = new ArrayList<>();
+
+		/**
+		 * Points which form a cluster on their own, by point index.
+		 */
+		final BitSet singles = new BitSet();
+
+		final Map<Long, Integer> cells = new HashMap<>();
+		double[] sumX = new double[16];
+		double[] sumY = new double[16];
+		int[] counts = new int[16];
+		int[] firstPoints = new int[16];
+		long[] cellKeys = new long[16];
+		int cellCount;
+
+		/**
+		 * Number of points binned into the cells so far.
+		 */
+		int pointCount;
+
+		Level(double cellsPerAxis) {
+			this.cellsPerAxis = cellsPerAxis;
+		}
+	}
+
+	/**
+	 * Size of a map tile in pixels at zoom level 0.
+	 */
+	private static final int TILE_SIZE = 256;
+
+	private static final int MAX_ZOOM = 21;
+
+	private final int cellSizePixels;
+
+	/**
+	 * Projected points: the departure of order i has index 2 * i, its
+	 * destination 2 * i + 1. Coordinates are in the range [0, 1).
+	 */
+	private double[] xs = new double[64];
+	private double[] ys = new double[64];
+	private Order[] orders = new Order[32];
+	private int orderCount;
+
+	private final Map<Integer, Level> levels = new HashMap<>();
+
+	/**
+	 * Constructor for class OrderClusterer.
+	 * 
+	 * @param cellSizePixels
+	 *            Size of a grid cell on the screen; points closer than that
+	 *            are likely to end up in one cluster.
+	 */
+	public OrderClusterer(int cellSizePixels) {
+		this.cellSizePixels = cellSizePixels;
+	}
+
+	/**
+	 * Adds orders to the clusterer. Orders without coordinates are ignored.
+	 * 
+	 * @param orderList
+	 *            List of geocoded orders.
+	 */
+	public void addOrders(List<Order> orderList) {
+		for (Order order : orderList) {
+			if (!order.hasCoordinates()) {
+				continue;
+			}
+			if (orderCount == orders.length) {
+				orders = Arrays.copyOf(orders, orderCount * 2);
+				xs = Arrays.copyOf(xs, orderCount * 4);
+				ys = Arrays.copyOf(ys, orderCount * 4);
+			}
+			int point = orderCount * 2;
+			xs[point] = projectX(order.getDepartureLongitude());
+			ys[point] = projectY(order.getDepartureLatitude());
+			xs[point + 1] = projectX(order.getDestinationLongitude());
+			ys[point + 1] = projectY(order.getDestinationLatitude());
+			orders[orderCount++] = order;
+		}
+	}
+
+	/**
+	 * Removes all orders.
+	 */
+	public void clear() {
+		Arrays.fill(orders, 0, orderCount, null);
+		orderCount = 0;
+		levels.clear();
+	}
+
+	/**
+	 * @return Number of orders in the clusterer.
+	 */
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * Gets the clusters in the visible part of the map.
+	 * 
+	 * @param zoom
+	 *            Zoom level of the camera.
+	 * @param south
+	 *            Southern border of the visible area.
+	 * @param west
+	 *            Western border of the visible area; greater than the eastern
+	 *            one if the area crosses the 180th meridian.
+	 * @param north
+	 *            Northern border of the visible area.
+	 * @param east
+	 *            Eastern border of the visible area.
+	 * @param maxLines
+	 *            Upper limit for the number of connecting lines.
+	 * @return The visible clusters and lines.
+	 */
+	public Result cluster(float zoom, double south, double west, double north,
+			double east, int maxLines) {
+		int zoomLevel = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+		Level level = getLevel(zoomLevel);
+
+		List<Cluster> visible = new ArrayList<>();
+		List<Order> lines = new ArrayList<>();
+		Set<Order> lineOrders = Collections
+				.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+		for (Cluster cluster : level.clusters) {
+			if (!contains(south, west, north, east, cluster.latitude,
+					cluster.longitude)) {
+				continue;
+			}
+			visible.add(cluster);
+			if (cluster.order != null && lines.size() < maxLines
+					&& level.singles.get(cluster.point ^ 1)
+					&& lineOrders.add(cluster.order)) {
+				lines.add(cluster.order);
+			}
+		}
+		return new Result(zoomLevel, visible, lines);
+	}
+
+	/**
+	 * Gets the clusters of all points at the given zoom level, computing them
+	 * on first use. A level computed before is brought up to date by binning
+	 * only the points added since, and only the clusters of the cells which
+	 * got points are created again.
+	 */
+	private Level getLevel(int zoom) {
+		Level level = levels.get(zoom);
+		if (level == null) {
+			level = new Level(TILE_SIZE * Math.pow(2, zoom) / cellSizePixels);
+			levels.put(zoom, level);
+		}
+		int pointCount = orderCount * 2;
+		if (level.pointCount == pointCount) {
+			return level;
+		}
+
+		BitSet changed = new BitSet();
+		for (int point = level.pointCount; point < pointCount; point++) {
+			long cellX = (long) (xs[point] * level.cellsPerAxis);
+			long cellY = (long) (ys[point] * level.cellsPerAxis);
+			long key = (cellX << 33) | (cellY << 1) | (point & 1);
+			Integer cell = level.cells.get(key);
+			if (cell == null) {
+				cell = level.cellCount++;
+				if (cell == level.counts.length) {
+					int length = cell * 2;
+					level.sumX = Arrays.copyOf(level.sumX, length);
+					level.sumY = Arrays.copyOf(level.sumY, length);
+					level.counts = Arrays.copyOf(level.counts, length);
+					level.firstPoints = Arrays.copyOf(level.firstPoints, length);
+					level.cellKeys = Arrays.copyOf(level.cellKeys, length);
+				}
+				level.cells.put(key, cell);
+				level.firstPoints[cell] = point;
+				level.cellKeys[cell] = key;
+			}
+			level.sumX[cell] += xs[point];
+			level.sumY[cell] += ys[point];
+			level.counts[cell]++;
+			changed.set(cell);
+		}
+		level.pointCount = pointCount;
+
+		// Ascending, so the clusters of new cells are appended in the order
+		// of their indexes
+		for (int cell = changed.nextSetBit(0); cell >= 0; cell = changed
+				.nextSetBit(cell + 1)) {
+			Cluster cluster = createCluster(level, cell);
+			if (cell < level.clusters.size()) {
+				level.clusters.set(cell, cluster);
+			} else {
+				level.clusters.add(cluster);
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * Creates the cluster of a cell from its sums: a single point at its own
+	 * coordinates, or the centre of several points.
+	 */
+	private Cluster createCluster(Level level, int cell) {
+		int point = level.firstPoints[cell];
+		int count = level.counts[cell];
+		int placeType = ((point & 1) == 0) ? Order.DEPARTURE_ID
+				: Order.DESTINATION_ID;
+		if (count == 1) {
+			Order order = orders[point / 2];
+			boolean departure = placeType == Order.DEPARTURE_ID;
+			level.singles.set(point);
+			return new Cluster(departure ? order.getDepartureLatitude()
+					: order.getDestinationLatitude(),
+					departure ? order.getDepartureLongitude() : order
+							.getDestinationLongitude(), 1, placeType, order,
+					level.cellKeys[cell], point);
+		}
+		level.singles.clear(point);
+		return new Cluster(unprojectY(level.sumY[cell] / count),
+				unprojectX(level.sumX[cell] / count), count, placeType, null,
+				level.cellKeys[cell], -1);
+	}
+
+	private static boolean contains(double south, double west, double north,
+			double east, double latitude, double longitude) {
+		if (latitude < south || latitude > north) {
+			return false;
+		}
+		if (west <= east) {
+			return longitude >= west && longitude <= east;
+		}
+		return longitude >= west || longitude <= east;
+	}
+
+	/**
+	 * Projects a longitude to the x coordinate of the Web Mercator plane, in
+	 * the range [0, 1].
+	 */
+	static double projectX(double longitude) {
+		return (longitude + 180) / 360;
+	}
+
+	/**
+	 * Projects a latitude to the y coordinate of the Web Mercator plane,
+	 * growing southwards, in the range (0, 1).
+	 */
+	static double projectY(double latitude) {
+		double sin = Math.sin(Math.toRadians(latitude));
+		sin = Math.max(-0.9999, Math.min(0.9999, sin));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	private static double unprojectX(double x) {
+		return x * 360 - 180;
+	}
+
+	private static double unprojectY(double y) {
+		return 90 - Math.toDegrees(2 * Math.atan(Math.exp((y - 0.5) * 2
+				* Math.PI)));
+	}
+}
@@ -0,0 +1,224 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Difference between two versions of the orders feed. Orders are matched by a
+ * stable identity: the identifier given by the feed or, if there is none, the
+ * text of both addresses. Unchanged orders are taken over from the earlier
+ * version together with their coordinates, so only added and changed orders
+ * need geocoding. A delta can be built order by order while the new version
+ * is still loading.
+ * 
+ */
+public class OrderDelta {
+
+	private final List<Order> added = new ArrayList<>();
+	private final List<Order> removed = new ArrayList<>();
+	private final List<Order> changed = new ArrayList<>();
+	private int unchangedCount;
+
+	/**
+	 * The new version of the orders by their identities, in the order of the
+	 * feed.
+	 */
+	private final Map<String, Order> merged = new LinkedHashMap<>();
+
+	private final Map<String, Order> previous;
+	private final Map<String, Integer> occurrences = new HashMap<>();
+
+	private OrderDelta(Map<String, Order> previous) {
+		this.previous = previous;
+	}
+
+	/**
+	 * Compares the new version of the feed with the earlier one.
+	 * 
+	 * @param previous
+	 *            The earlier version by identities, as returned by
+	 *            getMergedOrders of the earlier delta.
+	 * @param current
+	 *            Orders of the new version, in the order of the feed.
+	 * @return The delta with the merged new version.
+	 */
+	public static OrderDelta compute(Map<String, Order> previous,
+			List<Order> current) {
+		OrderDelta delta = begin(previous);
+		for (Order order : current) {
+			delta.merge(order);
+		}
+		delta.finish(true);
+		return delta;
+	}
+
+	/**
+	 * Starts a delta which is built order by order with merge and ended with
+	 * finish.
+	 * 
+	 * @param previous
+	 *            The earlier version by identities, as returned by
+	 *            getMergedOrders of the earlier delta.
+	 * @return The empty delta.
+	 */
+	public static OrderDelta begin(Map<String, Order> previous) {
+		return new OrderDelta(previous);
+	}
+
+	/**
+	 * Compares the next order of the new version with the earlier version.
+	 * 
+	 * @param order
+	 *            Next order of the new version, in the order of the feed.
+	 * @return The order which represents it in the new version: the earlier
+	 *         instance if it is unchanged, else the given one.
+	 */
+	public Order merge(Order order) {
+		String identity = identityOf(order);
+		Integer count = occurrences.get(identity);
+		occurrences.put(identity, (count == null) ? 1 : count + 1);
+		if (count != null) {
+			identity = identity + "#" + count;
+		}
+
+		Order earlier = previous.get(identity);
+		if (earlier == null) {
+			added.add(order);
+		} else if (sameAddresses(earlier, order)) {
+			unchangedCount++;
+			order = earlier;
+		} else {
+			copyCoordinates(earlier.getDepartureAddress(),
+					order.getDepartureAddress());
+			copyCoordinates(earlier.getDestinationAddress(),
+					order.getDestinationAddress());
+			changed.add(order);
+		}
+		merged.put(identity, order);
+		return order;
+	}
+
+	/**
+	 * Ends the delta.
+	 * 
+	 * @param complete
+	 *            true if the whole new version was merged. Then the earlier
+	 *            orders which were not merged are removed; otherwise they are
+	 *            kept unchanged at the end of the new version.
+	 * @return List of the earlier orders which were kept.
+	 */
+	public List<Order> finish(boolean complete) {
+		List<Order> kept = new ArrayList<>();
+		for (Map.Entry<String, Order> entry : previous.entrySet()) {
+			if (!merged.containsKey(entry.getKey())) {
+				if (complete) {
+					removed.add(entry.getValue());
+				} else {
+					kept.add(entry.getValue());
+					merged.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		unchangedCount += kept.size();
+		return kept;
+	}
+
+	/**
+	 * Creates a delta without changes, for a feed which was not modified.
+	 * 
+	 * @param previous
+	 *            The current version by identities.
+	 * @return The delta with all orders unchanged.
+	 */
+	public static OrderDelta unchanged(Map<String, Order> previous) {
+		OrderDelta delta = new OrderDelta(previous);
+		delta.merged.putAll(previous);
+		delta.unchangedCount = previous.size();
+		return delta;
+	}
+
+	/**
+	 * Gets the stable identity of the order.
+	 * 
+	 * @param order
+	 *            Order object.
+	 * @return The identifier of the feed, or the text of both addresses.
+	 */
+	static String identityOf(Order order) {
+		if (order.getId() != null) {
+			return "id:" + order.getId();
+		}
+		return "addresses:" + order.getDepartureAddress() + "|"
+				+ order.getDestinationAddress();
+	}
+
+	private static boolean sameAddresses(Order earlier, Order order) {
+		return earlier.getDepartureAddress().hasSameDetails(
+				order.getDepartureAddress())
+				&& earlier.getDestinationAddress().hasSameDetails(
+						order.getDestinationAddress());
+	}
+
+	/**
+	 * Keeps the coordinates of an address which did not change within a
+	 * changed order.
+	 */
+	private static void copyCoordinates(Address from, Address to) {
+		if (from.hasCoordinates() && from.hasSameDetails(to)) {
+			to.setCoordinates(from.getLatitude(), from.getLongitude());
+		}
+	}
+
+	/**
+	 * @return Orders which are new in this version.
+	 */
+	public List<Order> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return Orders of the earlier version which are gone.
+	 */
+	public List<Order> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return Orders whose addresses differ from the earlier version.
+	 */
+	public List<Order> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return Number of orders taken over from the earlier version.
+	 */
+	public int getUnchangedCount() {
+		return unchangedCount;
+	}
+
+	/**
+	 * @return true if orders were added, removed or changed.
+	 */
+	public boolean hasChanges() {
+		return !added.isEmpty() || !removed.isEmpty() || !changed.isEmpty();
+	}
+
+	/**
+	 * @return The new version of the orders by their identities.
+	 */
+	public Map<String, Order> getMergedOrders() {
+		return merged;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US,
+				"%d added, %d removed, %d changed, %d unchanged", added.size(),
+				removed.size(), changed.size(), unchangedCount);
+	}
+}
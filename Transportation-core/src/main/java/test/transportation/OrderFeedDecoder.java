@@ -0,0 +1,77 @@
+package test.transportation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Format of the orders feed, e.g. the JSON array of JsonOrderDecoder or the
+ * compact binary format of BinaryOrderDecoder. OrderParser chooses the
+ * decoder by the content type of each page and reads the records through an
+ * OrderStreamReader, so every format yields the same Order objects.
+ * 
+ */
+public interface OrderFeedDecoder {
+
+	/**
+	 * Records of one page of the feed, read one after the other.
+	 */
+	interface Records extends Closeable {
+
+		/**
+		 * Reads ahead to the next record.
+		 * 
+		 * @return true if there is another record, false at the regular end
+		 *         of the page.
+		 * @throws IOException
+		 *             if reading fails or the page is damaged; the records
+		 *             read before stay valid.
+		 */
+		boolean hasNext() throws IOException;
+
+		/**
+		 * Reads the next record. Must only be called after hasNext returned
+		 * true.
+		 * 
+		 * @return Order object, or null if the record lacks an address or is
+		 *         malformed in another way which does not end the page.
+		 * @throws IOException
+		 *             if reading fails or the page is damaged.
+		 */
+		Order next() throws IOException;
+	}
+
+	/**
+	 * @return Media type of the format, sent in the Accept header of the
+	 *         requests.
+	 */
+	String getMediaType();
+
+	/**
+	 * Checks if the decoder reads the given media type. Aliases of the media
+	 * type can be accepted as well.
+	 * 
+	 * @param mediaType
+	 *            Media type of a response, in lower case and without
+	 *            parameters.
+	 * @return true if the decoder can read the response.
+	 */
+	boolean canDecode(String mediaType);
+
+	/**
+	 * Starts reading a page of the feed.
+	 * 
+	 * @param in
+	 *            Body of the page. It is closed when the records are closed.
+	 * @param charset
+	 *            Charset of the response, for text formats.
+	 * @param countryCodes
+	 *            Mapping of 3-letter to 2-letter ISO country codes.
+	 * @return The records of the page.
+	 * @throws IOException
+	 *             if the page cannot be read.
+	 */
+	Records open(InputStream in, String charset,
+			Map<String, String> countryCodes) throws IOException;
+}
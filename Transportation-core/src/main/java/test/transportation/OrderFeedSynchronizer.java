@@ -0,0 +1,359 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Loads the orders feed incrementally. The last known version of the orders is
+ * kept together with the validators of its HTTP response, so an unchanged feed
+ * is answered by the server with "304 Not Modified" and a changed one is
+ * compared with the known version. Only added and changed orders, and orders
+ * which could not be geocoded before, are passed to the geocoder.
+ * 
+ * Downloading and geocoding run as a pipeline: a fetcher thread reads the
+ * pages of the feed and hands the parsed orders over in chunks through a
+ * bounded queue, while the calling thread compares them and feeds them to the
+ * geocoder. The next page is therefore downloaded while the previous one is
+ * geocoded. When the geocoder falls behind, the queue fills up and the fetcher
+ * waits, so memory stays bounded however large the feed is.
+ * 
+ */
+public class OrderFeedSynchronizer {
+
+	/**
+	 * Number of orders handed over at once, and number of chunks the queue
+	 * between fetcher and geocoder can hold.
+	 */
+	static final int CHUNK_SIZE = 200;
+	static final int QUEUE_CAPACITY = 8;
+
+	/**
+	 * Marker put into the queue after the last chunk.
+	 */
+	private static final List<Order> END_OF_FEED = new ArrayList<>(0);
+
+	private static final Metrics.Histogram PAGE_TIME = Metrics.getDefault()
+			.histogram("feed.page");
+	private static final Metrics.Histogram QUEUE_WAIT_TIME = Metrics
+			.getDefault().histogram("feed.queue_wait");
+
+	private final OrderParser parser;
+	private final AddressGeocoder geocoder;
+
+	private Map<String, Order> orders = new LinkedHashMap<>();
+	private String entityTag;
+	private String lastModified;
+	private OrderDelta lastDelta = OrderDelta.unchanged(orders);
+	private int lastGeocodedCount;
+
+	/**
+	 * Constructor for class OrderFeedSynchronizer.
+	 * 
+	 * @param parser
+	 *            Parser used to read the feed.
+	 * @param geocoder
+	 *            Geocoder used for new and changed orders.
+	 */
+	public OrderFeedSynchronizer(OrderParser parser, AddressGeocoder geocoder) {
+		this.parser = parser;
+		this.geocoder = geocoder;
+	}
+
+	/**
+	 * Takes over orders saved by an earlier run of the application as the
+	 * known version, e.g. from an OrderSnapshot. The next synchronization
+	 * then sends their validators and only geocodes what has changed since.
+	 * 
+	 * @param orderList
+	 *            The saved orders in the order of the feed.
+	 * @param entityTag
+	 *            ETag of the feed the orders were read from, or null.
+	 * @param lastModified
+	 *            Last-Modified date of the feed, or null.
+	 */
+	public synchronized void restore(List<Order> orderList, String entityTag,
+			String lastModified) {
+		orders = OrderDelta.compute(new LinkedHashMap<String, Order>(),
+				orderList).getMergedOrders();
+		this.entityTag = entityTag;
+		this.lastModified = lastModified;
+		lastDelta = OrderDelta.unchanged(orders);
+		lastGeocodedCount = 0;
+	}
+
+	/**
+	 * Brings the known orders up to date with the feed.
+	 * 
+	 * @return List with the current orders in the order of the feed. If the
+	 *         feed could not be read completely, the known orders which were
+	 *         not read again are kept.
+	 */
+	public List<Order> synchronize() {
+		return synchronize(null);
+	}
+
+	/**
+	 * Brings the known orders up to date with the feed and publishes the
+	 * orders while they are ready: the already geocoded ones as soon as they
+	 * have been read, the others while they are geocoded.
+	 * 
+	 * @param batcher
+	 *            Receives the ready orders, or null.
+	 * @return List with the current orders in the order of the feed. If the
+	 *         feed could not be read completely, the known orders which were
+	 *         not read again are kept.
+	 */
+	public synchronized List<Order> synchronize(OrderBatcher batcher) {
+		PageFetcher fetcher = new PageFetcher(entityTag, lastModified);
+		Thread fetcherThread = new Thread(fetcher, "order-fetcher");
+		fetcherThread.setDaemon(true);
+		fetcherThread.start();
+
+		OrderDelta delta = OrderDelta.begin(orders);
+		AddressGeocoder.Session session = geocoder.startSession(batcher);
+		List<Order> submitted = new ArrayList<>();
+		try {
+			List<Order> chunk;
+			while ((chunk = fetcher.queue.take()) != END_OF_FEED) {
+				List<Order> mergedChunk = new ArrayList<>(chunk.size());
+				for (Order order : chunk) {
+					mergedChunk.add(delta.merge(order));
+				}
+				geocodeMissing(mergedChunk, session, batcher, submitted);
+			}
+
+			if (fetcher.notModified) {
+				delta = OrderDelta.unchanged(orders);
+				geocodeMissing(new ArrayList<>(orders.values()), session,
+						batcher, submitted);
+			} else {
+				geocodeMissing(delta.finish(fetcher.complete), session,
+						batcher, submitted);
+				orders = delta.getMergedOrders();
+				// An incomplete read keeps the known validators: the orders
+				// it did not reach are kept as well, so they still describe
+				// a version the server can answer with 304. Validators of
+				// the first page only stand for the whole feed if there is
+				// no other page
+				if (fetcher.complete) {
+					boolean singlePage = fetcher.pageCount == 1;
+					entityTag = singlePage ? fetcher.newEntityTag : null;
+					lastModified = singlePage ? fetcher.newLastModified : null;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fetcher.cancel(fetcherThread);
+			if (!fetcher.notModified) {
+				delta.finish(false);
+				orders = delta.getMergedOrders();
+			}
+		} finally {
+			session.finish();
+		}
+
+		// Orders which were known without coordinates are geocoded in
+		// place, so the delta does not see them
+		int geocodedCount = 0;
+		for (Order order : submitted) {
+			if (order.hasCoordinates()) {
+				geocodedCount++;
+			}
+		}
+		lastDelta = delta;
+		lastGeocodedCount = geocodedCount;
+		return new ArrayList<>(orders.values());
+	}
+
+	/**
+	 * Publishes the orders which have coordinates and passes the others to
+	 * the geocoder. Blocks while the geocoder is busy.
+	 * 
+	 * @param orderList
+	 *            List of current orders.
+	 * @param session
+	 *            The geocoding run of this synchronization.
+	 * @param batcher
+	 *            Receives the ready orders, or null.
+	 * @param submitted
+	 *            Receives the orders passed to the geocoder.
+	 */
+	private void geocodeMissing(List<Order> orderList,
+			AddressGeocoder.Session session, OrderBatcher batcher,
+			List<Order> submitted) throws InterruptedException {
+		List<Order> ready = new ArrayList<>();
+		List<Order> missing = new ArrayList<>();
+		for (Order order : orderList) {
+			if (order.hasCoordinates()) {
+				ready.add(order);
+			} else {
+				missing.add(order);
+			}
+		}
+		if (batcher != null && !ready.isEmpty()) {
+			batcher.addAll(ready);
+		}
+		if (!missing.isEmpty()) {
+			submitted.addAll(missing);
+			session.submit(missing);
+		}
+	}
+
+	/**
+	 * @return The difference found by the last call of synchronize.
+	 */
+	public synchronized OrderDelta getLastDelta() {
+		return lastDelta;
+	}
+
+	/**
+	 * @return Number of orders which got their coordinates during the last
+	 *         call of synchronize, including known orders whose geocoding
+	 *         had failed before and which the delta does not count as
+	 *         changed.
+	 */
+	public synchronized int getLastGeocodedCount() {
+		return lastGeocodedCount;
+	}
+
+	/**
+	 * @return ETag of the known version of the feed, or null.
+	 */
+	public synchronized String getEntityTag() {
+		return entityTag;
+	}
+
+	/**
+	 * @return Last-Modified date of the known version of the feed, or null.
+	 */
+	public synchronized String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Reads all pages of the feed on its own thread and puts the orders into
+	 * the queue in chunks. The results are published through the volatile
+	 * fields before END_OF_FEED is put into the queue, which happens even if
+	 * the fetcher fails, unless it has been cancelled.
+	 */
+	private class PageFetcher implements Runnable {
+
+		final BlockingQueue<List<Order>> queue = new ArrayBlockingQueue<>(
+				QUEUE_CAPACITY);
+
+		private final String requestEntityTag;
+		private final String requestLastModified;
+
+		volatile boolean notModified;
+		volatile boolean complete;
+		volatile int pageCount;
+		volatile String newEntityTag;
+		volatile String newLastModified;
+
+		private volatile boolean cancelled;
+
+		PageFetcher(String entityTag, String lastModified) {
+			this.requestEntityTag = entityTag;
+			this.requestLastModified = lastModified;
+		}
+
+		@Override
+		public void run() {
+			try {
+				OrderStreamReader page = parser.openOrderStream(
+						requestEntityTag, requestLastModified);
+				if (page == null) {
+					notModified = true;
+				} else {
+					newEntityTag = page.getEntityTag();
+					newLastModified = page.getLastModified();
+				}
+				while (page != null && !cancelled) {
+					pageCount++;
+					String nextPage = readPage(page);
+					if (nextPage == null) {
+						break;
+					}
+					page = parser.openOrderPage(nextPage, null, null);
+				}
+			} catch (IOException | RuntimeException ioexception) {
+				// E.g. a next link which is no HTTP URL; the read counts as
+				// incomplete, so the known orders are kept
+				complete = false;
+				ioexception.printStackTrace();
+			} catch (InterruptedException e) {
+				// Cancelled
+			} finally {
+				// The consumer waits for the marker whatever went wrong
+				if (!cancelled) {
+					try {
+						queue.put(END_OF_FEED);
+					} catch (InterruptedException e) {
+						// Cancelled while waiting
+					}
+				}
+			}
+		}
+
+		/**
+		 * Puts the orders of the page into the queue and closes the page. The
+		 * time spent waiting for the queue is recorded apart from the time of
+		 * the whole page, which shows whether downloading or geocoding holds
+		 * up the pipeline.
+		 * 
+		 * @return Address of the next page, or null if the page was the last
+		 *         one or could not be read completely.
+		 */
+		private String readPage(OrderStreamReader page)
+				throws InterruptedException {
+			long start = Metrics.getDefault().startTimer();
+			try {
+				List<Order> chunk = new ArrayList<>(CHUNK_SIZE);
+				while (page.hasNext()) {
+					chunk.add(page.next());
+					if (chunk.size() == CHUNK_SIZE) {
+						put(chunk);
+						chunk = new ArrayList<>(CHUNK_SIZE);
+					}
+				}
+				if (!chunk.isEmpty()) {
+					put(chunk);
+				}
+				if (!page.isComplete()) {
+					return null;
+				}
+				if (page.getNextPage() == null) {
+					complete = true;
+				}
+				return page.getNextPage();
+			} finally {
+				PAGE_TIME.recordSince(start);
+				try {
+					page.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private void put(List<Order> chunk) throws InterruptedException {
+			long start = Metrics.getDefault().startTimer();
+			queue.put(chunk);
+			QUEUE_WAIT_TIME.recordSince(start);
+		}
+
+		/**
+		 * Stops the fetcher after the consumer has given up.
+		 */
+		void cancel(Thread thread) {
+			cancelled = true;
+			thread.interrupt();
+			queue.clear();
+		}
+	}
+}
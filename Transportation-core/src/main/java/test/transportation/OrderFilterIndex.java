@@ -0,0 +1,612 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the address fields of orders, for filters like "only
+ * orders from DEU to POL" or "departures in zip code 10". Every order gets a
+ * slot number, and every value of the country codes, the city and the zip
+ * code of both places maps to the slots of the orders which have it. Filters
+ * are answered with bit set intersections and unions instead of a scan of
+ * every order, so they take microseconds even for large loads.
+ * 
+ * The slots of a rare value are kept as a plain array, which takes far less
+ * memory than a bit set over all slots; a value which many orders share gets
+ * a bit set. Values are compared without regard to case and surrounding
+ * spaces; an empty value matches no order. Address fields never change, so
+ * an order stays in the right place until it is removed.
+ * 
+ * The class is not thread-safe.
+ * 
+ */
+public class OrderFilterIndex {
+
+	/**
+	 * Smallest number of slots kept in a bit set. Below that an array is
+	 * always smaller.
+	 */
+	private static final int MIN_DENSE_COUNT = 32;
+
+	/**
+	 * A value gets a bit set once at least one in DENSE_RATIO orders has it,
+	 * and goes back to an array below half of that share.
+	 */
+	private static final int DENSE_RATIO = 32;
+
+	/**
+	 * Condition on the fields of an order. Filters are combined with and, or,
+	 * allOf and anyOf; they do not depend on an index and can be kept across
+	 * loads.
+	 */
+	public abstract static class Filter {
+
+		/**
+		 * @return Slots of the matching orders of the index, in a new set.
+		 */
+		abstract BitSet match(OrderFilterIndex index);
+
+		/**
+		 * Checks a single order without an index.
+		 * 
+		 * @param order
+		 *            Order object.
+		 * @return true if the order matches the filter.
+		 */
+		public abstract boolean matches(Order order);
+
+		/**
+		 * @return A filter matching the orders which match both filters.
+		 */
+		public Filter and(Filter other) {
+			return allOf(this, other);
+		}
+
+		/**
+		 * @return A filter matching the orders which match either filter.
+		 */
+		public Filter or(Filter other) {
+			return anyOf(this, other);
+		}
+	}
+
+	/**
+	 * Filter on the value of one field of one place.
+	 */
+	private static class FieldFilter extends Filter {
+
+		final int placeType;
+		final int field;
+		final String key;
+		final boolean prefix;
+
+		FieldFilter(int placeType, int field, String value, boolean prefix) {
+			checkPlaceType(placeType);
+			this.placeType = placeType;
+			this.field = field;
+			this.key = (value != null) ? key(value) : null;
+			this.prefix = prefix;
+		}
+
+		@Override
+		BitSet match(OrderFilterIndex index) {
+			BitSet result = new BitSet();
+			if (key == null) {
+				return result;
+			}
+			Map<String, Postings> values = index.fields[placeType][field];
+			if (prefix && key.length() <= INDEXED_PREFIX_LENGTH) {
+				values = index.fields[placeType][FIELD_ZIPCODE_PREFIX
+						+ key.length() - 1];
+			}
+			if (!prefix || key.length() <= INDEXED_PREFIX_LENGTH) {
+				Postings postings = values.get(key);
+				if (postings != null) {
+					postings.orInto(result);
+				}
+			} else {
+				// Zip codes are kept sorted, so the codes with the prefix
+				// follow each other
+				String end = key.substring(0, key.length() - 1)
+						+ (char) (key.charAt(key.length() - 1) + 1);
+				for (Postings postings : ((TreeMap<String, Postings>) values)
+						.subMap(key, end).values()) {
+					postings.orInto(result);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public boolean matches(Order order) {
+			String value = keyOf(place(order, placeType), field);
+			if (key == null || value == null) {
+				return false;
+			}
+			return prefix ? value.startsWith(key) : value.equals(key);
+		}
+	}
+
+	/**
+	 * Conjunction or disjunction of filters.
+	 */
+	private static class CombinedFilter extends Filter {
+
+		final Filter[] filters;
+		final boolean all;
+
+		CombinedFilter(Filter[] filters, boolean all) {
+			this.filters = filters.clone();
+			this.all = all;
+			for (Filter filter : this.filters) {
+				if (filter == null) {
+					throw new IllegalArgumentException("Filter is null");
+				}
+			}
+		}
+
+		@Override
+		BitSet match(OrderFilterIndex index) {
+			if (filters.length == 0) {
+				BitSet result = new BitSet();
+				if (all) {
+					result.or(index.live);
+				}
+				return result;
+			}
+			BitSet result = filters[0].match(index);
+			for (int i = 1; i < filters.length; i++) {
+				if (all && result.isEmpty()) {
+					break;
+				}
+				if (all) {
+					result.and(filters[i].match(index));
+				} else {
+					result.or(filters[i].match(index));
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public boolean matches(Order order) {
+			for (Filter filter : filters) {
+				if (filter.matches(order) != all) {
+					return !all;
+				}
+			}
+			return all;
+		}
+	}
+
+	/**
+	 * Slots of the orders with one value of a field.
+	 */
+	private static class Postings {
+
+		/**
+		 * Slots in no particular order while the value is rare, null once
+		 * they are kept in bits.
+		 */
+		int[] slots = new int[4];
+		BitSet bits;
+		int count;
+
+		void add(int slot, int slotCount) {
+			if (bits != null) {
+				bits.set(slot);
+			} else {
+				if (count == slots.length) {
+					slots = Arrays.copyOf(slots, count * 2);
+				}
+				slots[count] = slot;
+				if (count + 1 >= MIN_DENSE_COUNT
+						&& (long) (count + 1) * DENSE_RATIO >= slotCount) {
+					BitSet dense = new BitSet(slotCount);
+					orInto(dense);
+					dense.set(slot);
+					bits = dense;
+					slots = null;
+				}
+			}
+			count++;
+		}
+
+		void remove(int slot, int slotCount) {
+			count--;
+			if (bits != null) {
+				bits.clear(slot);
+				if ((long) count * DENSE_RATIO * 2 < slotCount) {
+					slots = new int[Math.max(4, count)];
+					int i = 0;
+					for (int next = bits.nextSetBit(0); next >= 0; next = bits
+							.nextSetBit(next + 1)) {
+						slots[i++] = next;
+					}
+					bits = null;
+				}
+				return;
+			}
+			for (int i = 0; i <= count; i++) {
+				if (slots[i] == slot) {
+					slots[i] = slots[count];
+					break;
+				}
+			}
+		}
+
+		void orInto(BitSet result) {
+			if (bits != null) {
+				result.or(bits);
+			} else {
+				for (int i = 0; i < count; i++) {
+					result.set(slots[i]);
+				}
+			}
+		}
+	}
+
+	private static final int FIELD_COUNTRY_CODE = 0;
+	private static final int FIELD_COUNTRY_CODE_ALPHA_2 = 1;
+	private static final int FIELD_CITY = 2;
+	private static final int FIELD_ZIPCODE = 3;
+
+	/**
+	 * The first digits of the zip codes get their own fields, since a short
+	 * prefix covers too many zip codes to collect them one by one.
+	 */
+	private static final int FIELD_ZIPCODE_PREFIX = 4;
+	private static final int INDEXED_PREFIX_LENGTH = 2;
+	private static final int FIELD_COUNT = FIELD_ZIPCODE_PREFIX
+			+ INDEXED_PREFIX_LENGTH;
+
+	/**
+	 * Slots of each value, by place type and field.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private final Map<String, Postings>[][] fields = new Map[2][FIELD_COUNT];
+
+	private Order[] orders = new Order[64];
+	private int slotCount;
+	private int[] freeSlots = new int[16];
+	private int freeCount;
+	private final BitSet live = new BitSet();
+	private final Map<Order, Integer> slotOfOrder = new IdentityHashMap<>();
+
+	/**
+	 * Constructor for class OrderFilterIndex.
+	 */
+	public OrderFilterIndex() {
+		for (Map<String, Postings>[] placeFields : fields) {
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				placeFields[field] = (field == FIELD_ZIPCODE) ? new TreeMap<String, Postings>()
+						: new HashMap<String, Postings>();
+			}
+		}
+	}
+
+	/**
+	 * Creates an index holding the given orders.
+	 * 
+	 * @param orderList
+	 *            List of Order objects.
+	 * @return A new index.
+	 */
+	public static OrderFilterIndex of(Collection<Order> orderList) {
+		OrderFilterIndex index = new OrderFilterIndex();
+		index.addAll(orderList);
+		return index;
+	}
+
+	/**
+	 * Filter on the three-letter country code, e.g. "DEU".
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param countryCode
+	 *            Country code.
+	 * @return The filter.
+	 */
+	public static Filter countryCode(int placeType, String countryCode) {
+		return new FieldFilter(placeType, FIELD_COUNTRY_CODE, countryCode,
+				false);
+	}
+
+	/**
+	 * Filter on the two-letter country code, e.g. "DE".
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param countryCode
+	 *            Country code.
+	 * @return The filter.
+	 */
+	public static Filter twoLetterCountryCode(int placeType, String countryCode) {
+		return new FieldFilter(placeType, FIELD_COUNTRY_CODE_ALPHA_2,
+				countryCode, false);
+	}
+
+	/**
+	 * Filter on the city name.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param city
+	 *            City name.
+	 * @return The filter.
+	 */
+	public static Filter city(int placeType, String city) {
+		return new FieldFilter(placeType, FIELD_CITY, city, false);
+	}
+
+	/**
+	 * Filter on the beginning of the zip code, e.g. "10" for the zip codes
+	 * 10xxx. The whole zip code matches itself only.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param prefix
+	 *            Beginning of the zip code.
+	 * @return The filter.
+	 */
+	public static Filter zipCodePrefix(int placeType, String prefix) {
+		return new FieldFilter(placeType, FIELD_ZIPCODE, prefix, true);
+	}
+
+	/**
+	 * @return A filter matching the orders which match all filters, or every
+	 *         order if there are none.
+	 */
+	public static Filter allOf(Filter... filters) {
+		return new CombinedFilter(filters, true);
+	}
+
+	/**
+	 * @return A filter matching the orders which match any of the filters, or
+	 *         no order if there are none.
+	 */
+	public static Filter anyOf(Filter... filters) {
+		return new CombinedFilter(filters, false);
+	}
+
+	/**
+	 * Adds the orders to the index.
+	 * 
+	 * @param orderList
+	 *            List of Order objects.
+	 */
+	public void addAll(Collection<Order> orderList) {
+		for (Order order : orderList) {
+			add(order);
+		}
+	}
+
+	/**
+	 * Adds the order to the index. Orders which are already in the index are
+	 * ignored.
+	 * 
+	 * @param order
+	 *            Order object.
+	 */
+	public void add(Order order) {
+		if (slotOfOrder.containsKey(order)) {
+			return;
+		}
+		int slot;
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		} else {
+			if (slotCount == orders.length) {
+				orders = Arrays.copyOf(orders, slotCount * 2);
+			}
+			slot = slotCount++;
+		}
+		orders[slot] = order;
+		live.set(slot);
+		slotOfOrder.put(order, slot);
+
+		for (int placeType = 0; placeType < 2; placeType++) {
+			Address address = place(order, placeType);
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				String key = keyOf(address, field);
+				if (key == null) {
+					continue;
+				}
+				Map<String, Postings> values = fields[placeType][field];
+				Postings postings = values.get(key);
+				if (postings == null) {
+					postings = new Postings();
+					values.put(key, postings);
+				}
+				postings.add(slot, slotCount);
+			}
+		}
+	}
+
+	/**
+	 * Removes the order from the index.
+	 * 
+	 * @param order
+	 *            Order object.
+	 * @return true if the order was in the index, false otherwise.
+	 */
+	public boolean remove(Order order) {
+		Integer slot = slotOfOrder.remove(order);
+		if (slot == null) {
+			return false;
+		}
+		for (int placeType = 0; placeType < 2; placeType++) {
+			Address address = place(order, placeType);
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				String key = keyOf(address, field);
+				if (key == null) {
+					continue;
+				}
+				Map<String, Postings> values = fields[placeType][field];
+				Postings postings = values.get(key);
+				postings.remove(slot, slotCount);
+				if (postings.count == 0) {
+					values.remove(key);
+				}
+			}
+		}
+		orders[slot] = null;
+		live.clear(slot);
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		}
+		freeSlots[freeCount++] = slot;
+		return true;
+	}
+
+	/**
+	 * Removes all orders from the index.
+	 */
+	public void clear() {
+		for (Map<String, Postings>[] placeFields : fields) {
+			for (Map<String, Postings> values : placeFields) {
+				values.clear();
+			}
+		}
+		Arrays.fill(orders, 0, slotCount, null);
+		slotCount = 0;
+		freeCount = 0;
+		live.clear();
+		slotOfOrder.clear();
+	}
+
+	/**
+	 * @return Number of orders in the index.
+	 */
+	public int size() {
+		return slotOfOrder.size();
+	}
+
+	/**
+	 * @return true if the order is in the index.
+	 */
+	public boolean contains(Order order) {
+		return slotOfOrder.containsKey(order);
+	}
+
+	/**
+	 * Finds the orders which match the filter.
+	 * 
+	 * @param filter
+	 *            The filter.
+	 * @return List of orders in no particular order.
+	 */
+	public List<Order> find(Filter filter) {
+		BitSet matches = filter.match(this);
+		List<Order> result = new ArrayList<>(matches.cardinality());
+		for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches
+				.nextSetBit(slot + 1)) {
+			result.add(orders[slot]);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the orders which match the filter, without listing them.
+	 * 
+	 * @param filter
+	 *            The filter.
+	 * @return Number of matching orders.
+	 */
+	public int count(Filter filter) {
+		return filter.match(this).cardinality();
+	}
+
+	/**
+	 * Gets the distinct values of a field, e.g. to offer them in a filter
+	 * menu. Values are returned as they are compared: trimmed and in upper
+	 * case.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param component
+	 *            Order.ADDRESS_COUNTRY_CODE, ADDRESS_COUNTRY_CODE_ALPHA_2,
+	 *            ADDRESS_CITY or ADDRESS_ZIPCODE.
+	 * @return Map of each value to the number of orders with it.
+	 */
+	public Map<String, Integer> getValueCounts(int placeType, String component) {
+		checkPlaceType(placeType);
+		int field;
+		switch (component) {
+		case Order.ADDRESS_COUNTRY_CODE:
+			field = FIELD_COUNTRY_CODE;
+			break;
+		case Order.ADDRESS_COUNTRY_CODE_ALPHA_2:
+			field = FIELD_COUNTRY_CODE_ALPHA_2;
+			break;
+		case Order.ADDRESS_CITY:
+			field = FIELD_CITY;
+			break;
+		case Order.ADDRESS_ZIPCODE:
+			field = FIELD_ZIPCODE;
+			break;
+		default:
+			throw new IllegalArgumentException("Field is not indexed: "
+					+ component);
+		}
+		Map<String, Integer> result = new TreeMap<>();
+		for (Map.Entry<String, Postings> entry : fields[placeType][field]
+				.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().count);
+		}
+		return result;
+	}
+
+	private static void checkPlaceType(int placeType) {
+		if (placeType != Order.DEPARTURE_ID
+				&& placeType != Order.DESTINATION_ID) {
+			throw new IllegalArgumentException("Invalid place type: "
+					+ placeType);
+		}
+	}
+
+	private static Address place(Order order, int placeType) {
+		return (placeType == Order.DEPARTURE_ID) ? order.getDepartureAddress()
+				: order.getDestinationAddress();
+	}
+
+	/**
+	 * @return The value of the field as it is indexed, or null if it is empty.
+	 */
+	private static String keyOf(Address address, int field) {
+		switch (field) {
+		case FIELD_COUNTRY_CODE:
+			return key(address.getCountryCode());
+		case FIELD_COUNTRY_CODE_ALPHA_2:
+			return key(address.getTwoLetterCountryCode());
+		case FIELD_CITY:
+			return key(address.getCity());
+		case FIELD_ZIPCODE:
+			return key(address.getZipCode());
+		default:
+			String zipCode = key(address.getZipCode());
+			int length = field - FIELD_ZIPCODE_PREFIX + 1;
+			return (zipCode != null && zipCode.length() >= length) ? zipCode
+					.substring(0, length) : null;
+		}
+	}
+
+	/**
+	 * @return The value as it is indexed, or null if it is empty.
+	 */
+	private static String key(String value) {
+		if (value == null) {
+			return null;
+		}
+		value = value.trim();
+		return value.isEmpty() ? null : value.toUpperCase(Locale.ROOT);
+	}
+}
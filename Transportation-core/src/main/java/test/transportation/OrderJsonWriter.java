@@ -0,0 +1,144 @@
+package test.transportation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes orders as a JSON array in the format of the orders feed, one order
+ * per line, or as newline-delimited JSON without the array. Geocoded addresses get their coordinates as two more fields,
+ * "latitude" and "longitude", which OrderStreamReader skips, so the output can
+ * be read again like the feed.
+ * 
+ */
+public class OrderJsonWriter {
+
+	private static final String KEY_DEPARTURE_ADDRESS = "departureAddress";
+	private static final String KEY_DESTINATION_ADDRESS = "destinationAddress";
+	private static final String KEY_ID = "id";
+	private static final String KEY_LATITUDE = "latitude";
+	private static final String KEY_LONGITUDE = "longitude";
+
+	/**
+	 * Address fields of the feed, in the order they are written.
+	 */
+	private static final String[] COMPONENTS = { Order.ADDRESS_COUNTRY,
+			Order.ADDRESS_ZIPCODE, Order.ADDRESS_CITY,
+			Order.ADDRESS_COUNTRY_CODE, Order.ADDRESS_STREET,
+			Order.ADDRESS_HOUSE };
+
+	private OrderJsonWriter() {
+	}
+
+	/**
+	 * Writes the orders. The writer is not closed.
+	 * 
+	 * @param orderList
+	 *            Orders to write, with or without coordinates.
+	 * @param out
+	 *            Target of the JSON text; should be buffered.
+	 * @throws IOException
+	 *             if the text cannot be written.
+	 */
+	public static void write(List<Order> orderList, Writer out)
+			throws IOException {
+		out.write('[');
+		for (int i = 0; i < orderList.size(); i++) {
+			out.write((i == 0) ? "\n" : ",\n");
+			writeOrder(orderList.get(i), out);
+		}
+		out.write("\n]\n");
+		out.flush();
+	}
+
+	/**
+	 * Writes the orders as newline-delimited JSON, one order object per line.
+	 * The writer is not closed.
+	 * 
+	 * @param orderList
+	 *            Orders to write, with or without coordinates.
+	 * @param out
+	 *            Target of the text; should be buffered.
+	 * @throws IOException
+	 *             if the text cannot be written.
+	 */
+	public static void writeDelimited(List<Order> orderList, Writer out)
+			throws IOException {
+		for (Order order : orderList) {
+			writeOrder(order, out);
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	private static void writeOrder(Order order, Writer out) throws IOException {
+		out.write('{');
+		if (order.getId() != null) {
+			writeString(KEY_ID, out);
+			out.write(':');
+			writeString(order.getId(), out);
+			out.write(',');
+		}
+		writeString(KEY_DEPARTURE_ADDRESS, out);
+		out.write(':');
+		writeAddress(order.getDepartureAddress(), out);
+		out.write(',');
+		writeString(KEY_DESTINATION_ADDRESS, out);
+		out.write(':');
+		writeAddress(order.getDestinationAddress(), out);
+		out.write('}');
+	}
+
+	private static void writeAddress(Address address, Writer out)
+			throws IOException {
+		out.write('{');
+		boolean first = true;
+		for (String component : COMPONENTS) {
+			String value = address.get(component);
+			if (value == null) {
+				continue;
+			}
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			writeString(component, out);
+			out.write(':');
+			writeString(value, out);
+		}
+		if (address.hasCoordinates()) {
+			if (!first) {
+				out.write(',');
+			}
+			writeString(KEY_LATITUDE, out);
+			out.write(':');
+			out.write(Double.toString(address.getLatitude()));
+			out.write(',');
+			writeString(KEY_LONGITUDE, out);
+			out.write(':');
+			out.write(Double.toString(address.getLongitude()));
+		}
+		out.write('}');
+	}
+
+	/**
+	 * Writes a JSON string literal, escaping quotes, backslashes and control
+	 * characters.
+	 */
+	private static void writeString(String value, Writer out)
+			throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < 0x20) {
+				out.write(String.format("\\u%04x", (int) c));
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+}
@@ -0,0 +1,350 @@
+package test.transportation;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is used for parsing the web page which contains the information
+ * about existing orders. The orders can be split over several pages; the
+ * address of the following page is given by a Link header with rel="next".
+ * Each page is read by the OrderFeedDecoder for its content type: the JSON
+ * array of the orders web page, newline-delimited JSON, a gzip-compressed
+ * JSON file or the compact binary format. The decoders are listed in the
+ * Accept header in the order of preference, so a server which knows the
+ * binary format can send it instead of the JSON feed.
+ * 
+ */
+public class OrderParser {
+
+	/**
+	 * Default link to the web page with the information about existing
+	 * orders.
+	 */
+	static final String DEFAULT_ORDERS_PATH = "http://mobapply.com/tests/orders/";
+
+	/**
+	 * Patterns for the links of a Link header and their rel parameter.
+	 */
+	private static final Pattern LINK_PATTERN = Pattern
+			.compile("<([^>]*)>([^<]*)");
+	private static final Pattern REL_PATTERN = Pattern
+			.compile("(?i);\\s*rel\\s*=\\s*\"?([^\";,]*)");
+
+	private static final Metrics.Counter PAGES = Metrics.getDefault()
+			.counter("feed.pages");
+	private static final Metrics.Counter NOT_MODIFIED = Metrics.getDefault()
+			.counter("feed.not_modified");
+	private static final Metrics.Counter ERRORS = Metrics.getDefault()
+			.counter("feed.errors");
+
+	private final HttpTransport transport;
+
+	/**
+	 * Decoders of the feed formats, preferred ones first. Pages of an unknown
+	 * content type are read as a JSON array, like the orders web page.
+	 */
+	private final List<OrderFeedDecoder> decoders = new ArrayList<>();
+	private final OrderFeedDecoder jsonDecoder = new JsonOrderDecoder(false);
+	private volatile String acceptHeader;
+
+	/**
+	 * Link to the first page of the orders feed.
+	 */
+	private final String ordersPath;
+
+	/**
+	 * The field used for country codes mapping. It has three-letter ISO country
+	 * code as the key and two-letter code as the value.
+	 */
+	private Map<String, String> localeMap;
+
+	/**
+	 * Constructor for class OrderParser using the shared HTTP transport.
+	 */
+	public OrderParser() {
+		this(HttpTransport.getDefault());
+	}
+
+	/**
+	 * Constructor for class OrderParser.
+	 * 
+	 * @param transport
+	 *            Transport used to download the orders.
+	 */
+	public OrderParser(HttpTransport transport) {
+		this(transport, DEFAULT_ORDERS_PATH);
+	}
+
+	/**
+	 * Constructor for class OrderParser reading another feed, e.g. a copy of
+	 * the orders web page on a test server.
+	 * 
+	 * @param transport
+	 *            Transport used to download the orders.
+	 * @param ordersPath
+	 *            Absolute URL of the first page of the feed.
+	 */
+	public OrderParser(HttpTransport transport, String ordersPath) {
+		this.transport = transport;
+		this.ordersPath = ordersPath;
+		decoders.add(new BinaryOrderDecoder());
+		decoders.add(new GzipOrderDecoder(jsonDecoder));
+		decoders.add(new JsonOrderDecoder(true));
+		decoders.add(jsonDecoder);
+		acceptHeader = createAcceptHeader();
+	}
+
+	/**
+	 * Adds a decoder for another feed format, or replaces the decoder of a
+	 * known one. The decoder is preferred over the existing ones. Must be
+	 * called before the first page is opened.
+	 * 
+	 * @param decoder
+	 *            The decoder.
+	 */
+	public void addDecoder(OrderFeedDecoder decoder) {
+		decoders.add(0, decoder);
+		acceptHeader = createAcceptHeader();
+	}
+
+	/**
+	 * Lists the media types of the decoders with falling quality values,
+	 * e.g. "application/x-transportation-orders, application/gzip;q=0.9".
+	 * Any other type is accepted last, since it is read as JSON.
+	 */
+	private String createAcceptHeader() {
+		StringBuilder header = new StringBuilder();
+		int quality = 10;
+		for (OrderFeedDecoder decoder : decoders) {
+			if (header.length() > 0) {
+				header.append(", ");
+			}
+			header.append(decoder.getMediaType());
+			if (quality < 10) {
+				header.append(";q=0.").append(quality);
+			}
+			quality = Math.max(2, quality - 1);
+		}
+		return header.append(", */*;q=0.1").toString();
+	}
+
+	/**
+	 * Finds the decoder for the Content-Type header of a page.
+	 * 
+	 * @param contentType
+	 *            Value of the header, or null.
+	 * @return The first decoder which reads the media type, or the JSON
+	 *         decoder if none does.
+	 */
+	OrderFeedDecoder getDecoder(String contentType) {
+		if (contentType != null) {
+			int end = contentType.indexOf(';');
+			String mediaType = ((end < 0) ? contentType : contentType
+					.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+			for (OrderFeedDecoder decoder : decoders) {
+				if (decoder.canDecode(mediaType)) {
+					return decoder;
+				}
+			}
+		}
+		return jsonDecoder;
+	}
+
+	/**
+	 * The main parsing method for the class OrderParser. Combines getting data
+	 * from given site and parsing that data to the convenient format. All
+	 * pages of the feed are read.
+	 * 
+	 * @return List of Order objects with the orders information.
+	 */
+	public List<Order> parse() {
+		List<Order> ordersList = new ArrayList<>();
+
+		String pageUrl = ordersPath;
+		while (pageUrl != null) {
+			OrderStreamReader orders = null;
+			try {
+				orders = openOrderPage(pageUrl, null, null);
+				while (orders.hasNext()) {
+					ordersList.add(orders.next());
+				}
+				pageUrl = orders.isComplete() ? orders.getNextPage() : null;
+			} catch (IOException ioexception) {
+				ERRORS.increment();
+				ioexception.printStackTrace();
+				pageUrl = null;
+			} finally {
+				closeQuietly(orders);
+			}
+		}
+		return ordersList;
+	}
+
+	/**
+	 * Opens the first page with the orders and returns them as a stream.
+	 * Orders are parsed while the page is still loading, so the caller can
+	 * process the first orders before the last ones have arrived.
+	 * 
+	 * @return OrderStreamReader over the orders of the web page. It has to be
+	 *         closed by the caller.
+	 * @throws IOException
+	 *             if the web page cannot be opened.
+	 */
+	public OrderStreamReader openOrderStream() throws IOException {
+		return openOrderStream(null, null);
+	}
+
+	/**
+	 * Opens the first page with the orders if it has changed since the given
+	 * response. The validators of the earlier response are sent with the
+	 * request, so an unchanged page is not transferred again.
+	 * 
+	 * @param entityTag
+	 *            ETag of the earlier response, or null.
+	 * @param lastModified
+	 *            Last-Modified date of the earlier response, or null.
+	 * @return OrderStreamReader over the orders of the web page, carrying the
+	 *         validators of the new response, or null if the page has not
+	 *         been modified. The stream has to be closed by the caller.
+	 * @throws IOException
+	 *             if the web page cannot be opened.
+	 */
+	public OrderStreamReader openOrderStream(String entityTag,
+			String lastModified) throws IOException {
+		return openOrderPage(ordersPath, entityTag, lastModified);
+	}
+
+	/**
+	 * Opens a page with the orders, e.g. the next page given by an earlier
+	 * stream, if it has changed since the given response.
+	 * 
+	 * @param pageUrl
+	 *            Absolute URL of the page.
+	 * @param entityTag
+	 *            ETag of the earlier response, or null.
+	 * @param lastModified
+	 *            Last-Modified date of the earlier response, or null.
+	 * @return OrderStreamReader over the orders of the page, carrying the
+	 *         validators of the new response and the address of the next
+	 *         page, or null if the page has not been modified. The stream has
+	 *         to be closed by the caller.
+	 * @throws IOException
+	 *             if the page cannot be opened.
+	 */
+	public OrderStreamReader openOrderPage(String pageUrl, String entityTag,
+			String lastModified) throws IOException {
+		if (localeMap == null) {
+			localeMap = createCountryCodeMapping();
+		}
+
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Accept", acceptHeader);
+		if (entityTag != null) {
+			headers.put("If-None-Match", entityTag);
+		}
+		if (lastModified != null) {
+			headers.put("If-Modified-Since", lastModified);
+		}
+		final HttpTransport.Response response = transport.get(pageUrl,
+				headers);
+		if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			NOT_MODIFIED.increment();
+			response.close();
+			return null;
+		}
+		PAGES.increment();
+
+		OrderStreamReader orders;
+		try {
+			// Closing the records closes the response, which returns the
+			// connection
+			InputStream body = new FilterInputStream(response.getInputStream()) {
+				@Override
+				public void close() throws IOException {
+					response.close();
+				}
+			};
+			orders = new OrderStreamReader(getDecoder(
+					response.getHeader("Content-Type")).open(body,
+					response.getCharset(), localeMap));
+		} catch (IOException e) {
+			response.close();
+			throw e;
+		}
+		orders.setValidators(response.getHeader("ETag"),
+				response.getHeader("Last-Modified"));
+		orders.setNextPage(getNextPage(pageUrl, response.getHeader("Link")));
+		return orders;
+	}
+
+	/**
+	 * Gets the link with rel="next" from a Link header (RFC 5988), e.g.
+	 * {@code <http://example.com/orders?page=2>; rel="next"}.
+	 * 
+	 * @param pageUrl
+	 *            URL of the page, relative links are resolved against it.
+	 * @param linkHeader
+	 *            Value of the Link header, or null.
+	 * @return Absolute URL of the next page, or null if there is none.
+	 */
+	static String getNextPage(String pageUrl, String linkHeader) {
+		if (linkHeader == null) {
+			return null;
+		}
+		Matcher matcher = LINK_PATTERN.matcher(linkHeader);
+		while (matcher.find()) {
+			Matcher rel = REL_PATTERN.matcher(matcher.group(2));
+			if (rel.find()
+					&& (" " + rel.group(1).toLowerCase(Locale.ROOT) + " ")
+							.contains(" next ")) {
+				try {
+					return new URL(new URL(pageUrl), matcher.group(1).trim())
+							.toString();
+				} catch (MalformedURLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return null;
+	}
+
+	private void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates a map with the country code mapping. Map uses ISO 3-letter
+	 * country code as its key and 2-letter ISO country code as its value.
+	 * 
+	 * @return The new map.
+	 */
+	static Map<String, String> createCountryCodeMapping() {
+		String[] twoLetterCountries = Locale.getISOCountries();
+		Map<String, String> mapping = new HashMap<String, String>(
+				twoLetterCountries.length);
+		for (String twoLetterCode : twoLetterCountries) {
+			Locale locale = new Locale("", twoLetterCode);
+			mapping.put(locale.getISO3Country().toUpperCase(locale),
+					locale.getCountry());
+		}
+		return mapping;
+	}
+}
\ No newline at end of file
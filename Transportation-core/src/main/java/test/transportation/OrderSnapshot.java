@@ -0,0 +1,334 @@
+package test.transportation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the geocoded orders, written after each load and read at
+ * the next start of the application, so the orders can be drawn before the
+ * feed has been downloaded again.
+ * 
+ * The file starts with a header of HEADER_SIZE bytes: magic number, format
+ * version, CRC32 checksum of everything after the checksum field, number of
+ * orders, number of strings, length of the string data, string codes of the
+ * HTTP validators and the time of writing. It is followed by one record of
+ * RECORD_SIZE bytes per order with the four coordinates and the string codes
+ * of the identifier and of all address fields, and by the string table: the
+ * offsets of all strings into the string data, then the UTF-8 string data
+ * itself. Every distinct string is stored only once. All numbers are big
+ * endian. The file is read through a memory mapping, without copying the
+ * records.
+ * 
+ */
+public class OrderSnapshot {
+
+	static final int MAGIC = 0x4F524453;
+	static final int VERSION = 1;
+
+	/**
+	 * Address fields stored per address, in this order.
+	 */
+	private static final String[] COMPONENTS = { Order.ADDRESS_COUNTRY,
+			Order.ADDRESS_ZIPCODE, Order.ADDRESS_CITY,
+			Order.ADDRESS_COUNTRY_CODE, Order.ADDRESS_COUNTRY_CODE_ALPHA_2,
+			Order.ADDRESS_STREET, Order.ADDRESS_HOUSE };
+
+	static final int HEADER_SIZE = 40;
+	static final int RECORD_SIZE = 4 * 8 + 4 + 2 * COMPONENTS.length * 4;
+
+	/**
+	 * Offset of the checksum in the header; the checksum covers all bytes
+	 * after it.
+	 */
+	private static final int CHECKSUM_OFFSET = 8;
+
+	private static final String ENCODING = "UTF-8";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private final List<Order> orders;
+	private final String entityTag;
+	private final String lastModified;
+	private final long createdMillis;
+
+	private OrderSnapshot(List<Order> orders, String entityTag,
+			String lastModified, long createdMillis) {
+		this.orders = orders;
+		this.entityTag = entityTag;
+		this.lastModified = lastModified;
+		this.createdMillis = createdMillis;
+	}
+
+	/**
+	 * Writes a snapshot of the orders. The file is written under a temporary
+	 * name first and then renamed, so a reader never sees a partly written
+	 * snapshot.
+	 * 
+	 * @param file
+	 *            Target file, replaced if it exists.
+	 * @param orderList
+	 *            Orders to store, with or without coordinates.
+	 * @param entityTag
+	 *            ETag of the feed the orders were read from, or null.
+	 * @param lastModified
+	 *            Last-Modified date of the feed, or null.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void write(File file, List<Order> orderList,
+			String entityTag, String lastModified) throws IOException {
+		StringDictionary dictionary = new StringDictionary();
+		int[] codes = new int[orderList.size() * (1 + 2 * COMPONENTS.length)];
+		int position = 0;
+		for (Order order : orderList) {
+			codes[position++] = dictionary.encode(order.getId());
+			for (String component : COMPONENTS) {
+				codes[position++] = dictionary.encode(order
+						.getDepartureAddress().get(component));
+			}
+			for (String component : COMPONENTS) {
+				codes[position++] = dictionary.encode(order
+						.getDestinationAddress().get(component));
+			}
+		}
+		int entityTagCode = dictionary.encode(entityTag);
+		int lastModifiedCode = dictionary.encode(lastModified);
+
+		byte[][] strings = new byte[dictionary.size()][];
+		int dataLength = 0;
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = dictionary.decode(i).getBytes(ENCODING);
+			dataLength += strings[i].length;
+		}
+
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		FileOutputStream fileStream = new FileOutputStream(tempFile);
+		CRC32 checksum = new CRC32();
+		try {
+			// Numbers are collected in a buffer and written in blocks
+			ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(0);
+			fileStream.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+
+			OutputStream out = new CheckedOutputStream(fileStream, checksum);
+			buffer.putInt(orderList.size());
+			buffer.putInt(strings.length);
+			buffer.putInt(dataLength);
+			buffer.putInt(entityTagCode);
+			buffer.putInt(lastModifiedCode);
+			buffer.putLong(System.currentTimeMillis());
+
+			position = 0;
+			for (Order order : orderList) {
+				if (buffer.remaining() < RECORD_SIZE) {
+					writeBlock(buffer, out);
+				}
+				buffer.putDouble(order.getDepartureLatitude());
+				buffer.putDouble(order.getDepartureLongitude());
+				buffer.putDouble(order.getDestinationLatitude());
+				buffer.putDouble(order.getDestinationLongitude());
+				for (int i = 0; i < 1 + 2 * COMPONENTS.length; i++) {
+					buffer.putInt(codes[position++]);
+				}
+			}
+
+			int offset = 0;
+			for (int i = 0; i <= strings.length; i++) {
+				if (buffer.remaining() < 4) {
+					writeBlock(buffer, out);
+				}
+				buffer.putInt(offset);
+				if (i < strings.length) {
+					offset += strings[i].length;
+				}
+			}
+			writeBlock(buffer, out);
+			for (byte[] bytes : strings) {
+				out.write(bytes);
+			}
+		} finally {
+			fileStream.close();
+		}
+
+		RandomAccessFile access = new RandomAccessFile(tempFile, "rw");
+		try {
+			access.seek(CHECKSUM_OFFSET);
+			access.writeInt((int) checksum.getValue());
+		} finally {
+			access.close();
+		}
+
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Cannot replace " + file);
+		}
+	}
+
+	private static void writeBlock(ByteBuffer buffer, OutputStream out)
+			throws IOException {
+		out.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+
+	/**
+	 * Reads a snapshot through a memory mapping of the file.
+	 * 
+	 * @param file
+	 *            File written by write.
+	 * @return The snapshot, or null if the file does not exist.
+	 * @throws IOException
+	 *             if the file cannot be read, has an unknown format version
+	 *             or is damaged.
+	 */
+	public static OrderSnapshot read(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		MappedByteBuffer buffer;
+		RandomAccessFile access = new RandomAccessFile(file, "r");
+		try {
+			long length = access.length();
+			if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+				throw new IOException("Bad snapshot size: " + length);
+			}
+			buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					length);
+		} finally {
+			access.close();
+		}
+
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("No order snapshot: " + file);
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported snapshot version: " + version);
+		}
+		int orderCount = buffer.getInt(12);
+		int stringCount = buffer.getInt(16);
+		int dataLength = buffer.getInt(20);
+		long tableOffset = HEADER_SIZE + (long) orderCount * RECORD_SIZE;
+		long fileSize = tableOffset + (stringCount + 1L) * 4 + dataLength;
+		if (orderCount < 0 || stringCount < 0 || dataLength < 0
+				|| fileSize != buffer.capacity()) {
+			throw new IOException("Damaged snapshot: " + file);
+		}
+		int stringsOffset = (int) tableOffset;
+		int dataOffset = stringsOffset + (stringCount + 1) * 4;
+		if (buffer.getInt(CHECKSUM_OFFSET) != (int) checksum(buffer,
+				CHECKSUM_OFFSET + 4)) {
+			throw new IOException("Bad snapshot checksum: " + file);
+		}
+
+		byte[] data = new byte[dataLength];
+		buffer.position(dataOffset);
+		buffer.get(data);
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			int start = buffer.getInt(stringsOffset + i * 4);
+			int end = buffer.getInt(stringsOffset + i * 4 + 4);
+			if (start < 0 || end < start || end > dataLength) {
+				throw new IOException("Damaged snapshot: " + file);
+			}
+			strings[i] = new String(data, start, end - start, ENCODING);
+		}
+
+		List<Order> orders = new ArrayList<>(orderCount);
+		for (int i = 0; i < orderCount; i++) {
+			int record = HEADER_SIZE + i * RECORD_SIZE;
+			int codes = record + 4 * 8;
+			Address departure = readAddress(buffer, codes + 4, strings);
+			departure.setCoordinates(buffer.getDouble(record),
+					buffer.getDouble(record + 8));
+			Address destination = readAddress(buffer, codes + 4
+					+ COMPONENTS.length * 4, strings);
+			destination.setCoordinates(buffer.getDouble(record + 16),
+					buffer.getDouble(record + 24));
+			Order order = new Order(departure, destination);
+			order.setId(decode(buffer.getInt(codes), strings));
+			orders.add(order);
+		}
+
+		return new OrderSnapshot(orders, decode(buffer.getInt(24), strings),
+				decode(buffer.getInt(28), strings), buffer.getLong(32));
+	}
+
+	private static Address readAddress(MappedByteBuffer buffer, int offset,
+			String[] strings) throws IOException {
+		String[] values = new String[COMPONENTS.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = decode(buffer.getInt(offset + i * 4), strings);
+		}
+		return new Address(values[0], values[1], values[2], values[3],
+				values[4], values[5], values[6]);
+	}
+
+	private static String decode(int code, String[] strings)
+			throws IOException {
+		if (code == StringDictionary.NULL_CODE) {
+			return null;
+		}
+		if (code < 0 || code >= strings.length) {
+			throw new IOException("Bad string code in snapshot: " + code);
+		}
+		return strings[code];
+	}
+
+	/**
+	 * Computes the CRC32 checksum of the buffer from the given offset to its
+	 * end.
+	 */
+	private static long checksum(MappedByteBuffer buffer, int offset) {
+		CRC32 checksum = new CRC32();
+		byte[] chunk = new byte[1 << 16];
+		buffer.position(offset);
+		while (buffer.hasRemaining()) {
+			int count = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, count);
+			checksum.update(chunk, 0, count);
+		}
+		return checksum.getValue();
+	}
+
+	/**
+	 * @return The orders of the snapshot, in the order they were written.
+	 */
+	public List<Order> getOrders() {
+		return orders;
+	}
+
+	/**
+	 * @return ETag of the feed the orders were read from, or null.
+	 */
+	public String getEntityTag() {
+		return entityTag;
+	}
+
+	/**
+	 * @return Last-Modified date of the feed the orders were read from, or
+	 *         null.
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return Time the snapshot was written, in milliseconds since the epoch.
+	 */
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+}
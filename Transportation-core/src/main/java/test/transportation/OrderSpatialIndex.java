@@ -0,0 +1,541 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spatial index over the departure and destination points of geocoded orders.
+ * Points are kept in a grid of cells of a fixed size in degrees, each cell
+ * holding the indices of its points, so box, radius and nearest-neighbour
+ * queries only look at the cells around the searched area instead of every
+ * order. Coordinates are copied into primitive arrays on insertion; an order
+ * whose coordinates change has to be removed and added again.
+ * 
+ * The class is not thread-safe.
+ * 
+ */
+public class OrderSpatialIndex {
+
+	/**
+	 * Mean radius of the Earth in kilometres.
+	 */
+	static final double EARTH_RADIUS_KM = 6371.0088;
+
+	/**
+	 * Default size of a grid cell, about 11 km in latitude.
+	 */
+	public static final double DEFAULT_CELL_SIZE_DEGREES = 0.1;
+
+	/**
+	 * An order found by a distance query.
+	 */
+	public static class Neighbour {
+
+		public final Order order;
+
+		/**
+		 * Distance from the query point in kilometres.
+		 */
+		public final double distanceKm;
+
+		Neighbour(Order order, double distanceKm) {
+			this.order = order;
+			this.distanceKm = distanceKm;
+		}
+	}
+
+	/**
+	 * Grid of the points of one place type.
+	 */
+	private static class Grid {
+
+		final double cellSize;
+		final int rows, columns;
+
+		/**
+		 * Point storage. Slots of removed points are reused.
+		 */
+		double[] latitudes = new double[64];
+		double[] longitudes = new double[64];
+		Order[] orders = new Order[64];
+		int[] cellOfSlot = new int[64];
+		int slotCount;
+		int[] freeSlots = new int[16];
+		int freeCount;
+
+		/**
+		 * Slots of the points by cell index; the first element of each array
+		 * is the number of slots in it.
+		 */
+		final Map<Integer, int[]> cells = new HashMap<>();
+		final Map<Order, Integer> slotOfOrder = new IdentityHashMap<>();
+
+		Grid(double cellSize) {
+			this.cellSize = cellSize;
+			rows = (int) Math.ceil(180 / cellSize);
+			columns = (int) Math.ceil(360 / cellSize);
+		}
+
+		int size() {
+			return slotOfOrder.size();
+		}
+
+		int rowOf(double latitude) {
+			return Math.max(0,
+					Math.min(rows - 1, (int) ((latitude + 90) / cellSize)));
+		}
+
+		int columnOf(double longitude) {
+			int column = (int) Math.floor((longitude + 180) / cellSize);
+			column %= columns;
+			return (column < 0) ? column + columns : column;
+		}
+
+		void add(Order order, double latitude, double longitude) {
+			if (Double.isNaN(latitude) || Double.isNaN(longitude)
+					|| slotOfOrder.containsKey(order)) {
+				return;
+			}
+			int slot;
+			if (freeCount > 0) {
+				slot = freeSlots[--freeCount];
+			} else {
+				if (slotCount == orders.length) {
+					int capacity = slotCount * 2;
+					latitudes = Arrays.copyOf(latitudes, capacity);
+					longitudes = Arrays.copyOf(longitudes, capacity);
+					orders = Arrays.copyOf(orders, capacity);
+					cellOfSlot = Arrays.copyOf(cellOfSlot, capacity);
+				}
+				slot = slotCount++;
+			}
+			int cell = rowOf(latitude) * columns + columnOf(longitude);
+			latitudes[slot] = latitude;
+			longitudes[slot] = longitude;
+			orders[slot] = order;
+			cellOfSlot[slot] = cell;
+			slotOfOrder.put(order, slot);
+
+			int[] bucket = cells.get(cell);
+			if (bucket == null) {
+				bucket = new int[4];
+			} else if (bucket[0] + 1 == bucket.length) {
+				bucket = Arrays.copyOf(bucket, bucket.length * 2);
+			}
+			bucket[++bucket[0]] = slot;
+			cells.put(cell, bucket);
+		}
+
+		boolean remove(Order order) {
+			Integer slot = slotOfOrder.remove(order);
+			if (slot == null) {
+				return false;
+			}
+			int cell = cellOfSlot[slot];
+			int[] bucket = cells.get(cell);
+			for (int i = 1; i <= bucket[0]; i++) {
+				if (bucket[i] == slot) {
+					bucket[i] = bucket[bucket[0]--];
+					break;
+				}
+			}
+			if (bucket[0] == 0) {
+				cells.remove(cell);
+			}
+			orders[slot] = null;
+			if (freeCount == freeSlots.length) {
+				freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+			}
+			freeSlots[freeCount++] = slot;
+			return true;
+		}
+
+		/**
+		 * Adds the points of a cell which lie in the box to the result.
+		 */
+		void collectInBox(int cell, double south, double west, double north,
+				double east, List<Order> result) {
+			int[] bucket = cells.get(cell);
+			if (bucket == null) {
+				return;
+			}
+			for (int i = 1; i <= bucket[0]; i++) {
+				int slot = bucket[i];
+				double latitude = latitudes[slot];
+				double longitude = longitudes[slot];
+				if (latitude >= south
+						&& latitude <= north
+						&& ((west <= east) ? longitude >= west
+								&& longitude <= east : longitude >= west
+								|| longitude <= east)) {
+					result.add(orders[slot]);
+				}
+			}
+		}
+	}
+
+	private final Grid departures, destinations;
+
+	/**
+	 * Constructor for class OrderSpatialIndex with the default cell size.
+	 */
+	public OrderSpatialIndex() {
+		this(DEFAULT_CELL_SIZE_DEGREES);
+	}
+
+	/**
+	 * Constructor for class OrderSpatialIndex.
+	 * 
+	 * @param cellSizeDegrees
+	 *            Size of a grid cell. Should be about the radius of typical
+	 *            queries: smaller cells make queries visit more cells, larger
+	 *            ones make them check more points. At least 0.01 degrees.
+	 */
+	public OrderSpatialIndex(double cellSizeDegrees) {
+		if (!(cellSizeDegrees >= 0.01 && cellSizeDegrees <= 90)) {
+			throw new IllegalArgumentException("Invalid cell size: "
+					+ cellSizeDegrees);
+		}
+		departures = new Grid(cellSizeDegrees);
+		destinations = new Grid(cellSizeDegrees);
+	}
+
+	/**
+	 * Creates an index holding the given orders, e.g. the result of
+	 * TransportationLoader.
+	 * 
+	 * @param orderList
+	 *            List of Order objects.
+	 * @return A new index with the default cell size.
+	 */
+	public static OrderSpatialIndex of(List<Order> orderList) {
+		OrderSpatialIndex index = new OrderSpatialIndex();
+		index.addAll(orderList);
+		return index;
+	}
+
+	/**
+	 * Adds the orders to the index.
+	 * 
+	 * @param orderList
+	 *            List of Order objects.
+	 */
+	public void addAll(List<Order> orderList) {
+		for (Order order : orderList) {
+			add(order);
+		}
+	}
+
+	/**
+	 * Adds the geocoded points of the order to the index. Points without
+	 * coordinates and orders which are already in the index are ignored.
+	 * 
+	 * @param order
+	 *            Order object.
+	 */
+	public void add(Order order) {
+		departures.add(order, order.getDepartureLatitude(),
+				order.getDepartureLongitude());
+		destinations.add(order, order.getDestinationLatitude(),
+				order.getDestinationLongitude());
+	}
+
+	/**
+	 * Removes the points of the order from the index.
+	 * 
+	 * @param order
+	 *            Order object.
+	 * @return true if the order was in the index, false otherwise.
+	 */
+	public boolean remove(Order order) {
+		boolean removed = departures.remove(order);
+		return destinations.remove(order) || removed;
+	}
+
+	/**
+	 * Gets the number of indexed points of one place type.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @return Number of orders with coordinates for that place.
+	 */
+	public int size(int placeType) {
+		return grid(placeType).size();
+	}
+
+	/**
+	 * Finds the orders whose departure or destination lies in the box.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param south
+	 *            Southern border of the box.
+	 * @param west
+	 *            Western border of the box; greater than the eastern one if
+	 *            the box crosses the 180th meridian.
+	 * @param north
+	 *            Northern border of the box.
+	 * @param east
+	 *            Eastern border of the box.
+	 * @return List of orders in no particular order.
+	 */
+	public List<Order> findInBox(int placeType, double south, double west,
+			double north, double east) {
+		Grid grid = grid(placeType);
+		List<Order> result = new ArrayList<>();
+		if (south > north) {
+			return result;
+		}
+		int firstRow = grid.rowOf(south);
+		int lastRow = grid.rowOf(north);
+		int firstColumn = grid.columnOf(west);
+		double width = (west <= east) ? east - west : east - west + 360;
+		int columnCount = (int) Math.floor((west + 180 + width) / grid.cellSize)
+				- (int) Math.floor((west + 180) / grid.cellSize) + 1;
+		columnCount = Math.min(columnCount, grid.columns);
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int i = 0; i < columnCount; i++) {
+				int column = (firstColumn + i) % grid.columns;
+				grid.collectInBox(row * grid.columns + column, south, west,
+						north, east, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the orders whose departure or destination lies within the given
+	 * great-circle distance from a point.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param latitude
+	 *            Latitude of the point.
+	 * @param longitude
+	 *            Longitude of the point.
+	 * @param radiusKm
+	 *            Distance in kilometres.
+	 * @return List of the orders, nearest first.
+	 */
+	public List<Neighbour> findWithinRadius(int placeType, double latitude,
+			double longitude, double radiusKm) {
+		Grid grid = grid(placeType);
+		double angle = radiusKm / EARTH_RADIUS_KM;
+		double south = latitude - Math.toDegrees(angle);
+		double north = latitude + Math.toDegrees(angle);
+		double west = -180, east = 180;
+		if (south > -90 && north < 90) {
+			double deltaLongitude = Math.toDegrees(Math.asin(Math.min(1,
+					Math.sin(angle) / Math.cos(Math.toRadians(latitude)))));
+			if (deltaLongitude < 180) {
+				west = normalizeLongitude(longitude - deltaLongitude);
+				east = normalizeLongitude(longitude + deltaLongitude);
+			}
+		}
+
+		List<Neighbour> result = new ArrayList<>();
+		for (Order order : findInBox(placeType, south, west, north, east)) {
+			Integer slot = grid.slotOfOrder.get(order);
+			double distance = distanceKm(latitude, longitude,
+					grid.latitudes[slot], grid.longitudes[slot]);
+			if (distance <= radiusKm) {
+				result.add(new Neighbour(order, distance));
+			}
+		}
+		sortByDistance(result);
+		return result;
+	}
+
+	/**
+	 * Finds the orders whose departure or destination lies nearest to a
+	 * point. The grid is searched in rings of cells around the point until no
+	 * unvisited cell can hold a nearer point.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param latitude
+	 *            Latitude of the point.
+	 * @param longitude
+	 *            Longitude of the point.
+	 * @param count
+	 *            Maximum number of orders to find.
+	 * @return List of at most count orders, nearest first.
+	 */
+	public List<Neighbour> findNearest(int placeType, double latitude,
+			double longitude, int count) {
+		return findNearest(placeType, latitude, longitude, count,
+				Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Finds the orders whose departure or destination lies nearest to a
+	 * point, but not further than the given distance. The search stops at the
+	 * rings of cells which lie beyond that distance, so it stays cheap when no
+	 * point is near.
+	 * 
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param latitude
+	 *            Latitude of the point.
+	 * @param longitude
+	 *            Longitude of the point.
+	 * @param count
+	 *            Maximum number of orders to find.
+	 * @param maxDistanceKm
+	 *            Largest distance of a found order in kilometres.
+	 * @return List of at most count orders, nearest first.
+	 */
+	public List<Neighbour> findNearest(int placeType, double latitude,
+			double longitude, int count, double maxDistanceKm) {
+		Grid grid = grid(placeType);
+		count = Math.min(count, grid.size());
+		List<Neighbour> best = new ArrayList<>();
+		if (count <= 0) {
+			return best;
+		}
+
+		int centerRow = grid.rowOf(latitude);
+		int centerColumn = grid.columnOf(longitude);
+		int half = grid.columns / 2;
+		int maxRing = Math.max(Math.max(centerRow, grid.rows - 1 - centerRow),
+				half);
+		double worst = Double.POSITIVE_INFINITY;
+
+		for (int ring = 0; ring <= maxRing; ring++) {
+			for (int dr = -ring; dr <= ring; dr++) {
+				int row = centerRow + dr;
+				if (row < 0 || row >= grid.rows) {
+					continue;
+				}
+				int step = (Math.abs(dr) == ring) ? 1 : 2 * ring;
+				for (int dc = -ring; dc <= ring; dc += step) {
+					// Each column is visited once, at its shortest offset
+					if (dc > half || dc <= half - grid.columns) {
+						continue;
+					}
+					int column = (centerColumn + dc + grid.columns)
+							% grid.columns;
+					int[] bucket = grid.cells.get(row * grid.columns + column);
+					if (bucket == null) {
+						continue;
+					}
+					for (int i = 1; i <= bucket[0]; i++) {
+						int slot = bucket[i];
+						double distance = distanceKm(latitude, longitude,
+								grid.latitudes[slot], grid.longitudes[slot]);
+						if (distance <= maxDistanceKm
+								&& (best.size() < count || distance < worst)) {
+							insertSorted(best, new Neighbour(grid.orders[slot],
+									distance), count);
+							if (best.size() == count) {
+								worst = best.get(count - 1).distanceKm;
+							}
+						}
+					}
+				}
+			}
+			double ringDistance = ringDistanceKm(grid, latitude, longitude,
+					centerRow, centerColumn, ring);
+			if ((best.size() == count && worst <= ringDistance)
+					|| ringDistance > maxDistanceKm) {
+				break;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets a lower bound of the distance from the point to any point outside
+	 * the cells within the ring around the center cell.
+	 */
+	private static double ringDistanceKm(Grid grid, double latitude,
+			double longitude, int centerRow, int centerColumn, int ring) {
+		double south = (centerRow - ring) * grid.cellSize - 90;
+		double north = (centerRow + ring + 1) * grid.cellSize - 90;
+		double latitudeBound = Double.POSITIVE_INFINITY;
+		if (south > -90) {
+			latitudeBound = latitude - south;
+		}
+		if (north < 90) {
+			latitudeBound = Math.min(latitudeBound, north - latitude);
+		}
+
+		double longitudeBound = Double.POSITIVE_INFINITY;
+		if (2 * ring + 1 < grid.columns) {
+			double west = (centerColumn - ring) * grid.cellSize - 180;
+			double east = (centerColumn + ring + 1) * grid.cellSize - 180;
+			double delta = Math.toRadians(Math.min(longitude - west, east
+					- longitude));
+			// Points beside the searched cells lie no further from the
+			// equator than the searched rows
+			double maxLatitude = Math.min(90,
+					Math.max(Math.abs(south), Math.abs(north)));
+			longitudeBound = 2 * EARTH_RADIUS_KM
+					* Math.asin(Math.cos(Math.toRadians(maxLatitude))
+							* Math.sin(Math.min(delta, Math.PI) / 2));
+		}
+		return Math.min(Math.toRadians(latitudeBound) * EARTH_RADIUS_KM,
+				longitudeBound);
+	}
+
+	private static void insertSorted(List<Neighbour> best, Neighbour neighbour,
+			int count) {
+		int position = best.size();
+		while (position > 0
+				&& best.get(position - 1).distanceKm > neighbour.distanceKm) {
+			position--;
+		}
+		best.add(position, neighbour);
+		if (best.size() > count) {
+			best.remove(count);
+		}
+	}
+
+	private static void sortByDistance(List<Neighbour> neighbours) {
+		Collections.sort(neighbours, new Comparator<Neighbour>() {
+			@Override
+			public int compare(Neighbour lhs, Neighbour rhs) {
+				return Double.compare(lhs.distanceKm, rhs.distanceKm);
+			}
+		});
+	}
+
+	private Grid grid(int placeType) {
+		return (placeType == Order.DEPARTURE_ID) ? departures : destinations;
+	}
+
+	private static double normalizeLongitude(double longitude) {
+		if (longitude < -180) {
+			return longitude + 360;
+		}
+		if (longitude > 180) {
+			return longitude - 360;
+		}
+		return longitude;
+	}
+
+	/**
+	 * Computes the great-circle distance between two points with the
+	 * haversine formula.
+	 * 
+	 * @return Distance in kilometres.
+	 */
+	static double distanceKm(double latitude1, double longitude1,
+			double latitude2, double longitude2) {
+		double sinLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+		double sinLongitude = Math
+				.sin(Math.toRadians(longitude2 - longitude1) / 2);
+		double a = sinLatitude * sinLatitude
+				+ Math.cos(Math.toRadians(latitude1))
+				* Math.cos(Math.toRadians(latitude2)) * sinLongitude
+				* sinLongitude;
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+}
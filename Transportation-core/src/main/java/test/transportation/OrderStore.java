@@ -0,0 +1,262 @@
+package test.transportation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps a large set of orders in columns instead of one object per order.
+ * Coordinates are stored in primitive double arrays and the address fields as
+ * int codes of a shared StringDictionary, so 100k orders take a few arrays
+ * instead of hundreds of thousands of small objects. Orders are addressed by
+ * their index in the store.
+ * 
+ */
+public class OrderStore {
+
+	/**
+	 * Address fields stored per address, in this order.
+	 */
+	private static final String[] COMPONENTS = { Order.ADDRESS_COUNTRY,
+			Order.ADDRESS_ZIPCODE, Order.ADDRESS_CITY,
+			Order.ADDRESS_COUNTRY_CODE, Order.ADDRESS_COUNTRY_CODE_ALPHA_2,
+			Order.ADDRESS_STREET, Order.ADDRESS_HOUSE };
+
+	/**
+	 * Number of codes stored per order: all fields of both addresses.
+	 */
+	private static final int STRIDE = 2 * COMPONENTS.length;
+
+	private final StringDictionary dictionary;
+
+	private double[] departureLatitudes;
+	private double[] departureLongitudes;
+	private double[] destinationLatitudes;
+	private double[] destinationLongitudes;
+	private int[] fields;
+	private int size;
+
+	/**
+	 * Constructor for class OrderStore.
+	 * 
+	 * @param capacity
+	 *            Number of orders the store can take before it has to grow.
+	 */
+	public OrderStore(int capacity) {
+		this(capacity, new StringDictionary());
+	}
+
+	/**
+	 * Constructor for class OrderStore.
+	 * 
+	 * @param capacity
+	 *            Number of orders the store can take before it has to grow.
+	 * @param dictionary
+	 *            Dictionary for the address fields, can be shared between
+	 *            stores.
+	 */
+	public OrderStore(int capacity, StringDictionary dictionary) {
+		capacity = Math.max(capacity, 16);
+		this.dictionary = dictionary;
+		departureLatitudes = new double[capacity];
+		departureLongitudes = new double[capacity];
+		destinationLatitudes = new double[capacity];
+		destinationLongitudes = new double[capacity];
+		fields = new int[capacity * STRIDE];
+	}
+
+	/**
+	 * Creates a store holding the given orders.
+	 * 
+	 * @param orderList
+	 *            List of Order objects.
+	 * @return A new store with the orders at the indices of the list.
+	 */
+	public static OrderStore of(List<Order> orderList) {
+		OrderStore store = new OrderStore(orderList.size());
+		for (Order order : orderList) {
+			store.add(order);
+		}
+		return store;
+	}
+
+	/**
+	 * Appends the order to the store.
+	 * 
+	 * @param order
+	 *            Order object, its coordinates are NaN if not geocoded.
+	 * @return Index of the order in the store.
+	 */
+	public int add(Order order) {
+		if (size == departureLatitudes.length) {
+			grow();
+		}
+		int index = size++;
+		Address departure = order.getDepartureAddress();
+		Address destination = order.getDestinationAddress();
+		departureLatitudes[index] = departure.getLatitude();
+		departureLongitudes[index] = departure.getLongitude();
+		destinationLatitudes[index] = destination.getLatitude();
+		destinationLongitudes[index] = destination.getLongitude();
+
+		int offset = index * STRIDE;
+		for (String component : COMPONENTS) {
+			fields[offset] = dictionary.encode(departure.get(component));
+			fields[offset + COMPONENTS.length] = dictionary.encode(destination
+					.get(component));
+			offset++;
+		}
+		return index;
+	}
+
+	private void grow() {
+		int capacity = departureLatitudes.length * 2;
+		departureLatitudes = Arrays.copyOf(departureLatitudes, capacity);
+		departureLongitudes = Arrays.copyOf(departureLongitudes, capacity);
+		destinationLatitudes = Arrays.copyOf(destinationLatitudes, capacity);
+		destinationLongitudes = Arrays.copyOf(destinationLongitudes, capacity);
+		fields = Arrays.copyOf(fields, capacity * STRIDE);
+	}
+
+	/**
+	 * @return Number of orders in the store.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public double getDepartureLatitude(int index) {
+		return departureLatitudes[index];
+	}
+
+	public double getDepartureLongitude(int index) {
+		return departureLongitudes[index];
+	}
+
+	public double getDestinationLatitude(int index) {
+		return destinationLatitudes[index];
+	}
+
+	public double getDestinationLongitude(int index) {
+		return destinationLongitudes[index];
+	}
+
+	/**
+	 * Checks if both addresses of the order have coordinates.
+	 * 
+	 * @param index
+	 *            Index of the order.
+	 * @return true if coordinates exist, false otherwise.
+	 */
+	public boolean hasCoordinates(int index) {
+		return !Double.isNaN(departureLatitudes[index])
+				&& !Double.isNaN(destinationLatitudes[index]);
+	}
+
+	/**
+	 * Setter method for departure coordinates.
+	 * 
+	 * @param index
+	 *            Index of the order.
+	 * @param latitude
+	 *            Latitude of the departure point.
+	 * @param longitude
+	 *            Longitude of the departure point.
+	 */
+	public void setDepartureCoordinates(int index, double latitude,
+			double longitude) {
+		departureLatitudes[index] = latitude;
+		departureLongitudes[index] = longitude;
+	}
+
+	/**
+	 * Setter method for destination coordinates.
+	 * 
+	 * @param index
+	 *            Index of the order.
+	 * @param latitude
+	 *            Latitude of the destination point.
+	 * @param longitude
+	 *            Longitude of the destination point.
+	 */
+	public void setDestinationCoordinates(int index, double latitude,
+			double longitude) {
+		destinationLatitudes[index] = latitude;
+		destinationLongitudes[index] = longitude;
+	}
+
+	/**
+	 * Gets one field of an address without creating objects.
+	 * 
+	 * @param index
+	 *            Index of the order.
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param component
+	 *            Name of the field, one of the constants Order.ADDRESS_<X>.
+	 * @return Value of the field.
+	 */
+	public String getAddressField(int index, int placeType, String component) {
+		return dictionary.decode(getAddressFieldCode(index, placeType,
+				component));
+	}
+
+	/**
+	 * Gets the dictionary code of one field of an address.
+	 * 
+	 * @param index
+	 *            Index of the order.
+	 * @param placeType
+	 *            Order.DEPARTURE_ID or Order.DESTINATION_ID.
+	 * @param component
+	 *            Name of the field, one of the constants Order.ADDRESS_<X>.
+	 * @return Code of the field value in the dictionary of the store.
+	 */
+	public int getAddressFieldCode(int index, int placeType, String component) {
+		int offset = index * STRIDE
+				+ ((placeType == Order.DEPARTURE_ID) ? 0 : COMPONENTS.length);
+		for (int i = 0; i < COMPONENTS.length; i++) {
+			if (COMPONENTS[i].equals(component)) {
+				return fields[offset + i];
+			}
+		}
+		throw new IllegalArgumentException("Unknown address field: "
+				+ component);
+	}
+
+	/**
+	 * @return The dictionary holding the address fields of this store.
+	 */
+	public StringDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Creates an Order object from the stored data, for callers which need
+	 * the object model.
+	 * 
+	 * @param index
+	 *            Index of the order.
+	 * @return A new Order object equal to the stored one.
+	 */
+	public Order getOrder(int index) {
+		Address departure = getAddress(index, Order.DEPARTURE_ID);
+		departure.setCoordinates(departureLatitudes[index],
+				departureLongitudes[index]);
+		Address destination = getAddress(index, Order.DESTINATION_ID);
+		destination.setCoordinates(destinationLatitudes[index],
+				destinationLongitudes[index]);
+		return new Order(departure, destination);
+	}
+
+	private Address getAddress(int index, int placeType) {
+		int offset = index * STRIDE
+				+ ((placeType == Order.DEPARTURE_ID) ? 0 : COMPONENTS.length);
+		return new Address(dictionary.decode(fields[offset]),
+				dictionary.decode(fields[offset + 1]),
+				dictionary.decode(fields[offset + 2]),
+				dictionary.decode(fields[offset + 3]),
+				dictionary.decode(fields[offset + 4]),
+				dictionary.decode(fields[offset + 5]),
+				dictionary.decode(fields[offset + 6]));
+	}
+}
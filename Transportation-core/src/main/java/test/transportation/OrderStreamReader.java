@@ -0,0 +1,175 @@
+package test.transportation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the orders feed as a stream. Every order is turned into an Order
+ * object as soon as its record has arrived, so processing can start with the
+ * first order and only one record is held in memory at a time. Records
+ * without both addresses are skipped. The records are read by the
+ * OrderFeedDecoder of the feed format, the JSON array of the orders web page
+ * unless given otherwise. A paginated feed is read page by page; every page
+ * is a stream of its own which knows the address of the next page.
+ * 
+ */
+public class OrderStreamReader implements Iterator<Order>, Closeable {
+
+	private final OrderFeedDecoder.Records records;
+	private static final Metrics.Counter ORDERS = Metrics.getDefault()
+			.counter("feed.orders");
+	private static final Metrics.Counter DROPPED_ORDERS = Metrics
+			.getDefault().counter("feed.dropped_orders");
+	private static final Metrics.Counter PARSE_ERRORS = Metrics.getDefault()
+			.counter("feed.parse_errors");
+
+	private boolean finished;
+	private boolean complete;
+	private Order next;
+
+	/**
+	 * Validators of the HTTP response the feed was read from.
+	 */
+	private String entityTag;
+	private String lastModified;
+
+	/**
+	 * Address of the next page of a paginated feed, null on the last page.
+	 */
+	private String nextPage;
+
+	/**
+	 * Constructor for class OrderStreamReader.
+	 * 
+	 * @param in
+	 *            Source of the feed as a JSON array.
+	 * @param countryCodes
+	 *            Mapping of 3-letter to 2-letter ISO country codes.
+	 */
+	public OrderStreamReader(Reader in, Map<String, String> countryCodes) {
+		this(new JsonOrderDecoder(false).open(in, countryCodes));
+	}
+
+	/**
+	 * Constructor for class OrderStreamReader reading any feed format.
+	 * 
+	 * @param records
+	 *            Records of the feed, opened by an OrderFeedDecoder.
+	 */
+	public OrderStreamReader(OrderFeedDecoder.Records records) {
+		this.records = records;
+	}
+
+	/**
+	 * Reads ahead to the next complete order. A damaged page or a broken
+	 * connection ends the stream; the orders read before stay valid.
+	 * 
+	 * @return true if there is another order.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (next != null) {
+			return true;
+		}
+		if (finished) {
+			return false;
+		}
+
+		try {
+			while (records.hasNext()) {
+				next = records.next();
+				if (next != null) {
+					ORDERS.increment();
+					return true;
+				}
+				DROPPED_ORDERS.increment();
+			}
+			complete = true;
+		} catch (IOException e) {
+			PARSE_ERRORS.increment();
+			e.printStackTrace();
+		}
+		finished = true;
+		return false;
+	}
+
+	@Override
+	public Order next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Order order = next;
+		next = null;
+		return order;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finished = true;
+		records.close();
+	}
+
+	/**
+	 * Checks if the feed was read up to its end. A stream ended by a damaged
+	 * page or a broken connection is not complete.
+	 * 
+	 * @return true if the regular end of the page has been read.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Setter method for the validators of the HTTP response.
+	 * 
+	 * @param entityTag
+	 *            Value of the ETag header, or null.
+	 * @param lastModified
+	 *            Value of the Last-Modified header, or null.
+	 */
+	void setValidators(String entityTag, String lastModified) {
+		this.entityTag = entityTag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return Value of the ETag header of the response, or null.
+	 */
+	public String getEntityTag() {
+		return entityTag;
+	}
+
+	/**
+	 * @return Value of the Last-Modified header of the response, or null.
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Setter method for the address of the next page.
+	 * 
+	 * @param nextPage
+	 *            Absolute URL of the next page of the feed, or null.
+	 */
+	void setNextPage(String nextPage) {
+		this.nextPage = nextPage;
+	}
+
+	/**
+	 * @return Absolute URL of the next page of the feed, or null if this is
+	 *         the last page.
+	 */
+	public String getNextPage() {
+		return nextPage;
+	}
+}
@@ -0,0 +1,126 @@
+package test.transportation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter which adapts its rate to the quota responses of the
+ * remote service. The rate grows additively with every successful request and
+ * is cut multiplicatively when the service reports that the quota is exceeded
+ * (AIMD), so the limiter settles just below the rate the service accepts.
+ * 
+ */
+public class RateLimiter {
+
+	/**
+	 * Factor the current rate is multiplied with on a quota response.
+	 */
+	private final double DECREASE_FACTOR = 0.5;
+
+	/**
+	 * Minimal time between two rate decreases. Many requests in flight usually
+	 * hit the quota together, and that should count as a single signal.
+	 */
+	private final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(500);
+
+	private final double maxRate;
+	private final double minRate;
+	private final double increaseStep;
+
+	private double rate;
+	private double tokens;
+	private long lastRefillNanos;
+	private long lastDecreaseNanos;
+
+	/**
+	 * Constructor for class RateLimiter.
+	 * 
+	 * @param maxRequestsPerSecond
+	 *            The highest rate the limiter is allowed to reach, also the
+	 *            rate it starts with.
+	 */
+	public RateLimiter(double maxRequestsPerSecond) {
+		if (maxRequestsPerSecond <= 0) {
+			throw new IllegalArgumentException(
+					"Rate must be positive: " + maxRequestsPerSecond);
+		}
+		this.maxRate = maxRequestsPerSecond;
+		this.minRate = Math.min(1.0, maxRequestsPerSecond);
+		this.increaseStep = maxRequestsPerSecond / 100;
+		this.rate = maxRequestsPerSecond;
+		this.tokens = 1;
+		this.lastRefillNanos = System.nanoTime();
+		this.lastDecreaseNanos = lastRefillNanos - DECREASE_INTERVAL_NANOS;
+	}
+
+	/**
+	 * Blocks until a token is available and takes it.
+	 * 
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		while (true) {
+			long waitNanos;
+			synchronized (this) {
+				refill(System.nanoTime());
+				if (tokens >= 1) {
+					tokens -= 1;
+					return;
+				}
+				waitNanos = (long) ((1 - tokens) / rate * 1e9);
+			}
+			TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+		}
+	}
+
+	/**
+	 * Reports a request which was accepted by the service. Increases the rate
+	 * by a constant step up to the maximal rate.
+	 */
+	public synchronized void onSuccess() {
+		rate = Math.min(maxRate, rate + increaseStep);
+	}
+
+	/**
+	 * Reports a request which was rejected because of the exceeded quota.
+	 * Halves the rate and drops the tokens collected so far.
+	 */
+	public synchronized void onQuotaExceeded() {
+		long now = System.nanoTime();
+		if (now - lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+			refill(now);
+			rate = Math.max(minRate, rate * DECREASE_FACTOR);
+			tokens = 0;
+			lastDecreaseNanos = now;
+		}
+	}
+
+	/**
+	 * Getter method for the current rate.
+	 * 
+	 * @return Number of requests per second the limiter lets through now.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Getter method for the maximal rate.
+	 * 
+	 * @return The configured upper limit of requests per second.
+	 */
+	public double getMaxRate() {
+		return maxRate;
+	}
+
+	/**
+	 * Adds the tokens collected since the last refill. The bucket holds at
+	 * most one second worth of tokens.
+	 */
+	private void refill(long now) {
+		double elapsedSeconds = (now - lastRefillNanos) / 1e9;
+		tokens = Math.min(Math.max(rate, 1), tokens + elapsedSeconds * rate);
+		lastRefillNanos = now;
+	}
+}
@@ -0,0 +1,200 @@
+package test.transportation;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triggers refreshes of data which is served from memory in the meantime,
+ * like the orders of TransportationLoader. Refreshes are due at a fixed
+ * interval, shifted by a random part of it, so many clients started together
+ * do not hit the feed together. A refresh which becomes due while the last
+ * one is still running is skipped. The owner of the data marks its refreshes
+ * with begin and end, whether they were triggered by the scheduler or not.
+ * 
+ */
+public class RefreshScheduler {
+
+	/**
+	 * Default settings: time between two refreshes and the share of it by
+	 * which a single refresh may come earlier or later.
+	 */
+	public static final long DEFAULT_INTERVAL_MILLIS = 5 * 60 * 1000;
+	public static final double DEFAULT_JITTER = 0.2;
+
+	private static final Metrics.Counter TRIGGERED = Metrics.getDefault()
+			.counter("refresh.triggered");
+	private static final Metrics.Counter SKIPPED = Metrics.getDefault()
+			.counter("refresh.skipped");
+
+	private final ScheduledExecutorService executor;
+	private final Random random = new Random();
+	private final AtomicBoolean inFlight = new AtomicBoolean();
+
+	private long intervalMillis;
+	private double jitter;
+	private Runnable trigger;
+	private ScheduledFuture<?> next;
+
+	/**
+	 * Constructor for class RefreshScheduler with the default settings.
+	 */
+	public RefreshScheduler() {
+		this(DEFAULT_INTERVAL_MILLIS, DEFAULT_JITTER);
+	}
+
+	/**
+	 * Constructor for class RefreshScheduler.
+	 * 
+	 * @param intervalMillis
+	 *            Mean time between two refreshes, or 0 to refresh only on
+	 *            demand.
+	 * @param jitter
+	 *            Share of the interval, from 0 to 1, by which a refresh may
+	 *            come earlier or later.
+	 */
+	public RefreshScheduler(long intervalMillis, double jitter) {
+		ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(
+				1, new RefreshThreadFactory());
+		scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		// The thread ends while no refresh is scheduled
+		scheduledExecutor.setKeepAliveTime(1, TimeUnit.MINUTES);
+		scheduledExecutor.allowCoreThreadTimeOut(true);
+		executor = scheduledExecutor;
+		setInterval(intervalMillis, jitter);
+	}
+
+	/**
+	 * Changes the interval. Takes effect with the next refresh which is
+	 * scheduled, e.g. by the next call of start.
+	 * 
+	 * @param intervalMillis
+	 *            Mean time between two refreshes, or 0 to refresh only on
+	 *            demand.
+	 * @param jitter
+	 *            Share of the interval, from 0 to 1, by which a refresh may
+	 *            come earlier or later.
+	 */
+	public synchronized void setInterval(long intervalMillis, double jitter) {
+		if (intervalMillis < 0) {
+			throw new IllegalArgumentException(
+					"Interval must not be negative: " + intervalMillis);
+		}
+		if (!(jitter >= 0 && jitter <= 1)) {
+			throw new IllegalArgumentException(
+					"Jitter must be between 0 and 1: " + jitter);
+		}
+		this.intervalMillis = intervalMillis;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Starts triggering refreshes, the first one after one interval. A
+	 * schedule started before is replaced.
+	 * 
+	 * @param refresh
+	 *            Called on the thread of the scheduler when a refresh is due
+	 *            and none is running; should only start the refresh.
+	 */
+	public synchronized void start(Runnable refresh) {
+		stop();
+		trigger = refresh;
+		scheduleNext();
+	}
+
+	/**
+	 * Stops triggering refreshes. A running refresh is not affected.
+	 */
+	public synchronized void stop() {
+		trigger = null;
+		if (next != null) {
+			next.cancel(false);
+			next = null;
+		}
+	}
+
+	/**
+	 * Stops the thread of the scheduler. The scheduler cannot be started
+	 * again afterwards.
+	 */
+	public synchronized void shutdown() {
+		stop();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Marks the start of a refresh.
+	 */
+	public void begin() {
+		inFlight.set(true);
+	}
+
+	/**
+	 * Marks the end of a refresh.
+	 */
+	public void end() {
+		inFlight.set(false);
+	}
+
+	/**
+	 * @return True if a refresh is running.
+	 */
+	public boolean isInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Schedules the next refresh. Called with the lock of the scheduler.
+	 */
+	private void scheduleNext() {
+		if (intervalMillis == 0 || executor.isShutdown()) {
+			return;
+		}
+		double factor = 1 + jitter * (2 * random.nextDouble() - 1);
+		next = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fire();
+			}
+		}, Math.max(1, (long) (intervalMillis * factor)),
+				TimeUnit.MILLISECONDS);
+	}
+
+	private void fire() {
+		Runnable refresh;
+		synchronized (this) {
+			refresh = trigger;
+			if (refresh == null) {
+				return;
+			}
+			scheduleNext();
+		}
+		if (inFlight.get()) {
+			SKIPPED.increment();
+			return;
+		}
+		TRIGGERED.increment();
+		refresh.run();
+	}
+
+	/**
+	 * Creates the named daemon thread of the scheduler.
+	 */
+	private static class RefreshThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "refresh-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
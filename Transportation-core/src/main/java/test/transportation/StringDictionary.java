@@ -0,0 +1,75 @@
+package test.transportation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns consecutive int codes to strings, so that repeated strings can be
+ * stored as plain ints and every distinct string is kept only once.
+ * 
+ */
+public class StringDictionary {
+
+	/**
+	 * Code used for null.
+	 */
+	public static final int NULL_CODE = -1;
+
+	private final Map<String, Integer> codes = new HashMap<>();
+	private String[] values = new String[64];
+	private int size;
+
+	/**
+	 * Gets the code of the given string, adding the string if it is new.
+	 * 
+	 * @param value
+	 *            Any string or null.
+	 * @return Code of the string, NULL_CODE for null.
+	 */
+	public int encode(String value) {
+		if (value == null) {
+			return NULL_CODE;
+		}
+		Integer code = codes.get(value);
+		if (code == null) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			code = size;
+			values[size++] = value;
+			codes.put(value, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Gets the code of the given string without adding it.
+	 * 
+	 * @param value
+	 *            Any string or null.
+	 * @return Code of the string, NULL_CODE for null or an unknown string.
+	 */
+	public int find(String value) {
+		Integer code = (value != null) ? codes.get(value) : null;
+		return (code != null) ? code : NULL_CODE;
+	}
+
+	/**
+	 * Gets the string for the given code.
+	 * 
+	 * @param code
+	 *            Code returned by encode.
+	 * @return The string, or null for NULL_CODE.
+	 */
+	public String decode(int code) {
+		return (code == NULL_CODE) ? null : values[code];
+	}
+
+	/**
+	 * @return Number of distinct strings in the dictionary.
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,248 @@
+package test.transportation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command-line entry point of the order pipeline, the counterpart of
+ * TransportationLoader outside of Android: downloads the orders feed, geocodes
+ * all addresses and writes the orders with their coordinates as JSON. Feed
+ * pages are parsed while the geocoder works on the orders of earlier pages,
+ * and the geocoder uses one thread per core, at least as many as on the
+ * device.
+ * 
+ * Usage: java -jar transportation-core.jar [options] [feed URL]
+ * 
+ */
+public class TransportationCommand {
+
+	private static final String USAGE = "Usage: java -jar transportation-core.jar [options] [feed URL]\n"
+			+ "  -o, --output FILE    write the orders to FILE instead of standard output\n"
+			+ "  -c, --cache DIR      keep geocoded addresses in DIR between runs\n"
+			+ "  -t, --threads N      number of geocoding threads (default: number of cores, at least "
+			+ AddressGeocoder.DEFAULT_PARALLELISM
+			+ ")\n"
+			+ "  -r, --rate N         geocoding requests per second (default: "
+			+ AddressGeocoder.DEFAULT_MAX_REQUESTS_PER_SECOND
+			+ ")\n"
+			+ "  -m, --metrics FILE   write the metrics of the run to FILE as JSON\n"
+			+ "  -g, --gazetteer FILE look up postcodes and cities in the gazetteer FILE first\n"
+			+ "  -p, --precision P    ask the geocoding service unless the gazetteer reaches P:\n"
+			+ "                       city, postcode, street or address (default: postcode)\n"
+			+ "The feed URL defaults to " + OrderParser.DEFAULT_ORDERS_PATH;
+
+	/**
+	 * Exit codes: success, failed run and wrong arguments.
+	 */
+	private static final int EXIT_OK = 0;
+	private static final int EXIT_FAILED = 1;
+	private static final int EXIT_USAGE = 2;
+
+	private String feedUrl = OrderParser.DEFAULT_ORDERS_PATH;
+	private File outputFile;
+	private File cacheDirectory;
+	private File metricsFile;
+	private File gazetteerFile;
+	private Geocoder.Precision precision = Geocoder.Precision.POSTCODE;
+	private int threads = Math.max(AddressGeocoder.DEFAULT_PARALLELISM,
+			Runtime.getRuntime().availableProcessors());
+	private double requestsPerSecond = AddressGeocoder.DEFAULT_MAX_REQUESTS_PER_SECOND;
+
+	public static void main(String[] args) {
+		TransportationCommand command = new TransportationCommand();
+		int status;
+		try {
+			command.parseArguments(args);
+			status = command.run();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			status = EXIT_USAGE;
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Reads the options and the feed URL.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if an option is unknown or has an invalid value.
+	 */
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "-o":
+			case "--output":
+				outputFile = new File(value(args, ++i, arg));
+				break;
+			case "-c":
+			case "--cache":
+				cacheDirectory = new File(value(args, ++i, arg));
+				break;
+			case "-t":
+			case "--threads":
+				threads = parseInt(value(args, ++i, arg), arg);
+				break;
+			case "-r":
+			case "--rate":
+				requestsPerSecond = parseDouble(value(args, ++i, arg), arg);
+				break;
+			case "-m":
+			case "--metrics":
+				metricsFile = new File(value(args, ++i, arg));
+				break;
+			case "-g":
+			case "--gazetteer":
+				gazetteerFile = new File(value(args, ++i, arg));
+				break;
+			case "-p":
+			case "--precision":
+				precision = parsePrecision(value(args, ++i, arg), arg);
+				break;
+			case "-h":
+			case "--help":
+				System.out.println(USAGE);
+				System.exit(EXIT_OK);
+				break;
+			default:
+				if (arg.startsWith("-")) {
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+				feedUrl = arg;
+			}
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive: "
+					+ threads);
+		}
+		if (!(requestsPerSecond > 0)) {
+			throw new IllegalArgumentException("Rate must be positive: "
+					+ requestsPerSecond);
+		}
+	}
+
+	private static String value(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[index];
+	}
+
+	private static int parseInt(String value, String option) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + option
+					+ ": " + value);
+		}
+	}
+
+	private static double parseDouble(String value, String option) {
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + option
+					+ ": " + value);
+		}
+	}
+
+	private static Geocoder.Precision parsePrecision(String value,
+			String option) {
+		try {
+			return Geocoder.Precision.valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid value for " + option
+					+ ": " + value);
+		}
+	}
+
+	/**
+	 * Runs the pipeline and writes the result.
+	 * 
+	 * @return The exit code.
+	 */
+	private int run() {
+		if (metricsFile != null) {
+			Metrics.getDefault().setExporter(
+					new JsonMetricsExporter(metricsFile));
+		}
+
+		// One connection per geocoding thread and one for the feed
+		HttpTransport transport = new HttpTransport(
+				HttpTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				HttpTransport.DEFAULT_READ_TIMEOUT_MILLIS, threads + 1);
+		OrderParser orderParser = new OrderParser(transport, feedUrl);
+		AddressGeocoder geocoder = new AddressGeocoder(threads,
+				requestsPerSecond, AddressGeocoder.DEFAULT_MAX_RETRIES);
+		geocoder.setTransport(transport);
+		geocoder.setCache((cacheDirectory != null) ? new GeocodeCache(
+				cacheDirectory) : new GeocodeCache(
+				GeocodeCache.DEFAULT_MEMORY_ENTRIES, null));
+		GazetteerGeocoder gazetteer = null;
+		if (gazetteerFile != null) {
+			try {
+				gazetteer = GazetteerGeocoder.read(gazetteerFile);
+			} catch (IOException ioexception) {
+				ioexception.printStackTrace();
+				return EXIT_FAILED;
+			}
+			if (gazetteer == null) {
+				System.err.println("Gazetteer not found: " + gazetteerFile);
+				return EXIT_FAILED;
+			}
+			geocoder.setGeocoder(new ChainedGeocoder(precision, gazetteer,
+					geocoder));
+		}
+
+		OrderFeedSynchronizer synchronizer = new OrderFeedSynchronizer(
+				orderParser, geocoder);
+		List<Order> orderList = synchronizer.synchronize();
+		int geocoded = 0;
+		for (Order order : orderList) {
+			if (order.hasCoordinates()) {
+				geocoded++;
+			}
+		}
+		System.err.println("Orders loaded: " + synchronizer.getLastDelta());
+		System.err.println("Geocoding finished: " + geocoder.getStatistics());
+		System.err.println("Geocode cache: " + geocoder.getCache());
+		if (gazetteer != null) {
+			System.err.println("Gazetteer: " + gazetteer);
+		}
+		System.err.println(String.format(Locale.US,
+				"Orders with coordinates: %d of %d, total trip distance: %.0f km",
+				geocoded, orderList.size(), DistanceEngine
+						.totalKm(DistanceEngine.tripDistancesKm(orderList))));
+		Metrics.getDefault().export();
+
+		try {
+			writeOrders(orderList);
+		} catch (IOException ioexception) {
+			ioexception.printStackTrace();
+			return EXIT_FAILED;
+		}
+		return EXIT_OK;
+	}
+
+	private void writeOrders(List<Order> orderList) throws IOException {
+		OutputStream stream = (outputFile != null) ? new FileOutputStream(
+				outputFile) : System.out;
+		Writer writer = new BufferedWriter(new OutputStreamWriter(stream,
+				"UTF-8"));
+		try {
+			OrderJsonWriter.write(orderList, writer);
+		} finally {
+			if (outputFile != null) {
+				writer.close();
+			}
+		}
+	}
+}
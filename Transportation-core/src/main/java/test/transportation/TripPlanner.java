@@ -0,0 +1,459 @@
+package test.transportation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suggests vehicle runs for the geocoded orders. A run chains orders so that
+ * the destination of one order lies close to the departure of the next, which
+ * keeps the empty kilometres between two orders low.
+ * 
+ * Runs are built greedily: starting from an unplanned order, a run grows at
+ * its end by the order whose departure is nearest to the last destination, or
+ * at its start by the order whose destination is nearest to the first
+ * departure, whichever gap is shorter. The candidates are looked up in an
+ * OrderSpatialIndex, so building all runs needs no distance matrix. Each run
+ * is then improved by local search, reversing parts of it (2-opt) and moving
+ * one to three orders to another place (or-opt) as long as that lowers its
+ * empty kilometres. The runs are independent, so they are improved in
+ * parallel.
+ * 
+ * Planning stops at a time budget. Orders which the greedy step did not reach
+ * in time form runs of their own, and runs which the local search did not
+ * finish keep their best order so far.
+ * 
+ */
+public class TripPlanner {
+
+	/**
+	 * Default largest distance between the destination of an order and the
+	 * departure of the next one in a run, in kilometres.
+	 */
+	public static final double DEFAULT_MAX_GAP_KM = 50;
+
+	/**
+	 * Default largest number of orders in a run.
+	 */
+	public static final int DEFAULT_MAX_RUN_LENGTH = 16;
+
+	/**
+	 * Number of runs improved by one task.
+	 */
+	private static final int RUNS_PER_TASK = 32;
+
+	/**
+	 * Smallest saving in kilometres for which a move is made, so rounding
+	 * errors cannot make the local search run in circles.
+	 */
+	private static final double MIN_SAVING_KM = 1e-9;
+
+	private static final Metrics.Histogram PLAN_TIME = Metrics.getDefault()
+			.histogram("plan.total");
+	private static final Metrics.Counter BUDGET_EXCEEDED = Metrics
+			.getDefault().counter("plan.budget_exceeded");
+
+	private final double maxGapKm;
+	private final int maxRunLength;
+	private final int parallelism;
+	private ExecutorService executor;
+
+	/**
+	 * A planned run: orders in the order they are driven.
+	 */
+	public static class Run {
+
+		private final List<Order> orders;
+		private final double emptyKm;
+		private final double loadedKm;
+
+		Run(List<Order> orders) {
+			this.orders = Collections.unmodifiableList(orders);
+			double empty = 0;
+			for (int i = 1; i < orders.size(); i++) {
+				empty += gapKm(orders.get(i - 1), orders.get(i));
+			}
+			emptyKm = empty;
+			loadedKm = DistanceEngine.totalKm(DistanceEngine
+					.tripDistancesKm(orders));
+		}
+
+		/**
+		 * @return The orders of the run in driving order.
+		 */
+		public List<Order> getOrders() {
+			return orders;
+		}
+
+		/**
+		 * @return Sum of the distances from each destination to the next
+		 *         departure, in kilometres.
+		 */
+		public double getEmptyKm() {
+			return emptyKm;
+		}
+
+		/**
+		 * @return Sum of the distances from each departure to its
+		 *         destination, in kilometres.
+		 */
+		public double getLoadedKm() {
+			return loadedKm;
+		}
+	}
+
+	/**
+	 * Constructor for class TripPlanner with the default limits, using all
+	 * cores.
+	 */
+	public TripPlanner() {
+		this(DEFAULT_MAX_GAP_KM, DEFAULT_MAX_RUN_LENGTH, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Constructor for class TripPlanner.
+	 * 
+	 * @param maxGapKm
+	 *            Largest distance from the destination of an order to the
+	 *            departure of the next one in a run.
+	 * @param maxRunLength
+	 *            Largest number of orders in a run. The local search takes
+	 *            cubic time in this number.
+	 * @param parallelism
+	 *            Number of threads improving the runs.
+	 */
+	public TripPlanner(double maxGapKm, int maxRunLength, int parallelism) {
+		if (!(maxGapKm >= 0)) {
+			throw new IllegalArgumentException("Invalid maximum gap: "
+					+ maxGapKm);
+		}
+		if (maxRunLength < 1) {
+			throw new IllegalArgumentException(
+					"Run length must be positive: " + maxRunLength);
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: "
+					+ parallelism);
+		}
+		this.maxGapKm = maxGapKm;
+		this.maxRunLength = maxRunLength;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Plans the runs for the orders, e.g. the result of TransportationLoader.
+	 * 
+	 * @param orderList
+	 *            List of orders. Orders without coordinates are skipped.
+	 * @param budgetMillis
+	 *            Time allowed for building and improving the runs. Indexing
+	 *            the orders and collecting the runs take time linear in the
+	 *            number of orders on top of it.
+	 * @return The runs, each geocoded order in exactly one of them. Runs of
+	 *         one order are included.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the local
+	 *             search.
+	 */
+	public List<Run> plan(List<Order> orderList, long budgetMillis)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+		List<List<Order>> chains = buildChains(orderList, deadline);
+		improveChains(chains, deadline);
+		if (System.nanoTime() - deadline >= 0) {
+			BUDGET_EXCEEDED.increment();
+		}
+
+		List<Run> runs = new ArrayList<>(chains.size());
+		for (List<Order> chain : chains) {
+			runs.add(new Run(chain));
+		}
+		PLAN_TIME.record((System.nanoTime() - start) / 1000);
+		return runs;
+	}
+
+	/**
+	 * Builds the runs with the greedy nearest-neighbour step.
+	 */
+	private List<List<Order>> buildChains(List<Order> orderList, long deadline) {
+		OrderSpatialIndex index = new OrderSpatialIndex();
+		List<Order> geocoded = new ArrayList<>();
+		for (Order order : orderList) {
+			if (order.hasCoordinates()) {
+				geocoded.add(order);
+				index.add(order);
+			}
+		}
+
+		List<List<Order>> chains = new ArrayList<>();
+		for (Order order : geocoded) {
+			// Orders which are already part of a run are no longer indexed
+			if (!index.remove(order)) {
+				continue;
+			}
+			Deque<Order> chain = new ArrayDeque<>();
+			chain.add(order);
+			if (System.nanoTime() - deadline < 0) {
+				extendChain(chain, index);
+			}
+			chains.add(new ArrayList<>(chain));
+		}
+		return chains;
+	}
+
+	/**
+	 * Adds the nearest unplanned orders at both ends of a run until no order
+	 * is near enough or the run is full.
+	 */
+	private void extendChain(Deque<Order> chain, OrderSpatialIndex index) {
+		while (chain.size() < maxRunLength) {
+			Order last = chain.getLast();
+			Order first = chain.getFirst();
+			List<OrderSpatialIndex.Neighbour> next = index.findNearest(
+					Order.DEPARTURE_ID, last.getDestinationLatitude(),
+					last.getDestinationLongitude(), 1, maxGapKm);
+			List<OrderSpatialIndex.Neighbour> previous = index.findNearest(
+					Order.DESTINATION_ID, first.getDepartureLatitude(),
+					first.getDepartureLongitude(), 1, maxGapKm);
+			if (next.isEmpty() && previous.isEmpty()) {
+				break;
+			}
+			if (previous.isEmpty()
+					|| (!next.isEmpty() && next.get(0).distanceKm <= previous
+							.get(0).distanceKm)) {
+				chain.addLast(next.get(0).order);
+				index.remove(next.get(0).order);
+			} else {
+				chain.addFirst(previous.get(0).order);
+				index.remove(previous.get(0).order);
+			}
+		}
+	}
+
+	/**
+	 * Improves the runs with the local search, in blocks on the threads of
+	 * the planner, or on the calling thread if there are only a few.
+	 */
+	private void improveChains(List<List<Order>> chains, final long deadline)
+			throws InterruptedException {
+		List<List<Order>> improvable = new ArrayList<>();
+		for (List<Order> chain : chains) {
+			if (chain.size() > 1) {
+				improvable.add(chain);
+			}
+		}
+		if (parallelism == 1 || improvable.size() <= RUNS_PER_TASK) {
+			for (List<Order> chain : improvable) {
+				improveChain(chain, deadline);
+			}
+			return;
+		}
+
+		List<Callable<Void>> blocks = new ArrayList<>();
+		for (int start = 0; start < improvable.size(); start += RUNS_PER_TASK) {
+			final List<List<Order>> block = improvable.subList(start,
+					Math.min(start + RUNS_PER_TASK, improvable.size()));
+			blocks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (List<Order> chain : block) {
+						improveChain(chain, deadline);
+					}
+					return null;
+				}
+			});
+		}
+		List<Future<Void>> results = getExecutor().invokeAll(blocks);
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Reorders a run with 2-opt and or-opt moves until no move lowers its
+	 * empty kilometres or the deadline has passed.
+	 */
+	private static void improveChain(List<Order> chain, long deadline) {
+		int size = chain.size();
+		double[][] gaps = new double[size][size];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				gaps[i][j] = (i == j) ? 0 : gapKm(chain.get(i), chain.get(j));
+			}
+		}
+		int[] route = new int[size];
+		for (int i = 0; i < size; i++) {
+			route[i] = i;
+		}
+
+		double cost = emptyKm(route, gaps);
+		boolean improved = true;
+		while (improved && System.nanoTime() - deadline < 0) {
+			improved = false;
+			double reversed = twoOpt(route, gaps, cost, deadline);
+			if (reversed < cost) {
+				cost = reversed;
+				improved = true;
+			}
+			double moved = orOpt(route, gaps, cost, deadline);
+			if (moved < cost) {
+				cost = moved;
+				improved = true;
+			}
+		}
+
+		List<Order> orders = new ArrayList<>(chain);
+		for (int i = 0; i < size; i++) {
+			chain.set(i, orders.get(route[i]));
+		}
+	}
+
+	/**
+	 * Reverses parts of the route while that lowers its cost. As the gaps are
+	 * not symmetric, the reversed part is evaluated as a whole.
+	 * 
+	 * @return The cost of the changed route.
+	 */
+	private static double twoOpt(int[] route, double[][] gaps, double cost,
+			long deadline) {
+		for (int i = 0; i < route.length - 1
+				&& System.nanoTime() - deadline < 0; i++) {
+			for (int j = i + 1; j < route.length; j++) {
+				reverse(route, i, j);
+				double changed = emptyKm(route, gaps);
+				if (changed < cost - MIN_SAVING_KM) {
+					cost = changed;
+				} else {
+					reverse(route, i, j);
+				}
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Moves segments of one to three orders to other places of the route
+	 * while that lowers its cost.
+	 * 
+	 * @return The cost of the changed route.
+	 */
+	private static double orOpt(int[] route, double[][] gaps, double cost,
+			long deadline) {
+		int[] candidate = new int[route.length];
+		for (int length = 1; length <= 3 && length < route.length; length++) {
+			for (int i = 0; i + length <= route.length
+					&& System.nanoTime() - deadline < 0; i++) {
+				for (int target = 0; target <= route.length - length; target++) {
+					if (target == i) {
+						continue;
+					}
+					moveSegment(route, i, length, target, candidate);
+					double changed = emptyKm(candidate, gaps);
+					if (changed < cost - MIN_SAVING_KM) {
+						cost = changed;
+						System.arraycopy(candidate, 0, route, 0, route.length);
+					}
+				}
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Copies the route into the candidate with the segment of the given
+	 * length at start moved, so that it begins at target in the result.
+	 */
+	private static void moveSegment(int[] route, int start, int length,
+			int target, int[] candidate) {
+		int position = 0;
+		int rest = 0;
+		for (int i = 0; i < route.length; i++) {
+			if (position == target) {
+				System.arraycopy(route, start, candidate, position, length);
+				position += length;
+			}
+			if (rest == start) {
+				rest += length;
+			}
+			if (rest < route.length) {
+				candidate[position++] = route[rest++];
+			}
+		}
+	}
+
+	private static void reverse(int[] route, int from, int to) {
+		while (from < to) {
+			int swap = route[from];
+			route[from++] = route[to];
+			route[to--] = swap;
+		}
+	}
+
+	private static double emptyKm(int[] route, double[][] gaps) {
+		double total = 0;
+		for (int i = 1; i < route.length; i++) {
+			total += gaps[route[i - 1]][route[i]];
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the distance from the destination of an order to the departure of
+	 * the next one.
+	 */
+	private static double gapKm(Order order, Order next) {
+		return OrderSpatialIndex.distanceKm(order.getDestinationLatitude(),
+				order.getDestinationLongitude(), next.getDepartureLatitude(),
+				next.getDepartureLongitude());
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(parallelism,
+					new PlannerThreadFactory());
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the threads of the planner. Later calls start new ones.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Creates the named daemon threads for the local search.
+	 */
+	private static class PlannerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "planner-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * Shows the orders on the map as clusters of departure and destination points.
+ * Only the clusters inside the visible part of the map are drawn, and lines
+ * only for orders whose both points are shown on their own. Planned runs with
+ * a point in the visible part are drawn as lines through all their orders.
+ * Clustering runs on a background thread whenever the camera moves or orders
+ * are added. It builds the render model of the visible part, with positions,
+ * titles and line points ready for the map, and compares it with the model on
+ * the map; the main thread only applies the difference, in frame-sized steps.
+ * 
+ */
+public class ClusterOverlay implements GoogleMap.OnCameraChangeListener {
+
+	/**
+	 * Size of a cluster cell on the screen, in pixels.
+	 */
+	private final int CLUSTER_SIZE_PIXELS = 80;
+
+	/**
+	 * Upper limit for the number of lines drawn at once.
+	 */
+	private final int MAX_LINES = 300;
+
+	/**
+	 * Upper limit for the number of runs drawn at once.
+	 */
+	private final int MAX_RUNS = 100;
+
+	private static final Metrics.Histogram CLUSTER_TIME = Metrics
+			.getDefault().histogram("render.cluster");
+
+	private final GoogleMap map;
+	private final OrderClusterer clusterer = new OrderClusterer(
+			CLUSTER_SIZE_PIXELS);
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Number of the latest clustering request. Older requests which have not
+	 * started yet are skipped, and results of older requests are dropped.
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final MapUpdater updater;
+
+	/**
+	 * Runs to draw. Only used on the clustering thread.
+	 */
+	private List<TripPlanner.Run> runs = new ArrayList<>();
+
+	/**
+	 * Model which the map shows once all queued diffs are applied. Only used
+	 * on the clustering thread.
+	 */
+	private RenderModel model = RenderModel.EMPTY;
+
+	/**
+	 * Constructor for class ClusterOverlay. Registers the overlay for the
+	 * camera changes of the map.
+	 * 
+	 * @param map
+	 *            The map to draw on.
+	 */
+	public ClusterOverlay(GoogleMap map) {
+		this.map = map;
+		updater = new MapUpdater(map);
+		map.setOnCameraChangeListener(this);
+	}
+
+	/**
+	 * Adds orders to the overlay and redraws it. Must be called on the main
+	 * thread.
+	 * 
+	 * @param orderList
+	 *            List of geocoded orders.
+	 */
+	public void addOrders(List<Order> orderList) {
+		final List<Order> orders = new ArrayList<>(orderList);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				clusterer.addOrders(orders);
+			}
+		});
+		refresh();
+	}
+
+	/**
+	 * Replaces all orders of the overlay and redraws it, so orders which have
+	 * changed or are gone disappear from the map. Must be called on the main
+	 * thread.
+	 * 
+	 * @param orderList
+	 *            List of geocoded orders.
+	 */
+	public void setOrders(List<Order> orderList) {
+		final List<Order> orders = new ArrayList<>(orderList);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				clusterer.clear();
+				clusterer.addOrders(orders);
+			}
+		});
+		refresh();
+	}
+
+	/**
+	 * Replaces the runs of the overlay and redraws it. Must be called on the
+	 * main thread.
+	 * 
+	 * @param runList
+	 *            List of planned runs.
+	 */
+	public void setRuns(List<TripPlanner.Run> runList) {
+		final List<TripPlanner.Run> newRuns = new ArrayList<>(runList);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				runs = newRuns;
+			}
+		});
+		refresh();
+	}
+
+	@Override
+	public void onCameraChange(CameraPosition position) {
+		refresh();
+	}
+
+	/**
+	 * Stops the clustering thread and the updates of the map. The overlay
+	 * cannot be used afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		updater.cancel();
+	}
+
+	/**
+	 * Clusters the orders for the current camera position in the background
+	 * and applies the changes of the map on the main thread. Requests which
+	 * are already outdated when they start are skipped; once a diff has been
+	 * computed it is always applied, because the next one builds on it.
+	 */
+	private void refresh() {
+		final int request = generation.incrementAndGet();
+		final float zoom = map.getCameraPosition().zoom;
+		final LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (request != generation.get()) {
+					return;
+				}
+				long start = Metrics.getDefault().startTimer();
+				OrderClusterer.Result result = clusterer.cluster(zoom,
+						bounds.southwest.latitude, bounds.southwest.longitude,
+						bounds.northeast.latitude, bounds.northeast.longitude,
+						MAX_LINES);
+				RenderModel next = RenderModel.build(result,
+						findVisibleRuns(bounds));
+				final RenderModel.Diff diff = model.diff(next);
+				model = next;
+				CLUSTER_TIME.recordSince(start);
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						updater.apply(diff);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Collects the points of the runs of more than one order which have a
+	 * point in the visible part of the map.
+	 * 
+	 * @param bounds
+	 *            Visible part of the map.
+	 * @return The points of each run: departure and destination of every
+	 *         order in driving order.
+	 */
+	private List<List<LatLng>> findVisibleRuns(LatLngBounds bounds) {
+		List<List<LatLng>> runLines = new ArrayList<>();
+		for (TripPlanner.Run run : runs) {
+			if (runLines.size() == MAX_RUNS) {
+				break;
+			}
+			List<Order> orders = run.getOrders();
+			if (orders.size() < 2) {
+				continue;
+			}
+			List<LatLng> points = new ArrayList<>(2 * orders.size());
+			boolean visible = false;
+			for (Order order : orders) {
+				LatLng departure = RenderModel.toLatLng(order.getDepartureCoordinates());
+				LatLng destination = RenderModel.toLatLng(order
+						.getDestinationCoordinates());
+				visible = visible || bounds.contains(departure)
+						|| bounds.contains(destination);
+				points.add(departure);
+				points.add(destination);
+			}
+			if (visible) {
+				runLines.add(points);
+			}
+		}
+		return runLines;
+	}
+}
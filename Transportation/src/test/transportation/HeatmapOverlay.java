@@ -0,0 +1,184 @@
+package test.transportation;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gms.maps.model.TileProvider;
+
+/**
+ * Shows the density of departure and destination points as a tile overlay
+ * below the clusters. The points are counted in a DensityPyramid, which is
+ * updated on a background thread when orders are added or replaced; the map
+ * then fetches its tiles anew. Each tile is drawn from a fixed number of
+ * bins, so drawing costs the same for a hundred orders as for a million.
+ * Departures are drawn green and destinations red, as their markers; places
+ * with both get a mix of the two. The opacity grows with the logarithm of the
+ * count, relative to the fullest bin of the zoom level, so tiles of one level
+ * fit together.
+ * 
+ */
+public class HeatmapOverlay implements TileProvider {
+
+	/**
+	 * Size of a tile and of a bin on the screen, in pixels.
+	 */
+	private final int TILE_SIZE_PIXELS = 256;
+	private final int BIN_SIZE_PIXELS = TILE_SIZE_PIXELS
+			/ DensityPyramid.BINS_PER_TILE;
+
+	/**
+	 * Opacity of the emptiest and of the fullest bin, from 0 to 255.
+	 */
+	private final int MIN_ALPHA = 60;
+	private final int MAX_ALPHA = 200;
+
+	private static final Metrics.Histogram TILE_TIME = Metrics.getDefault()
+			.histogram("render.heatmap_tile");
+	private static final Metrics.Counter EMPTY_TILES = Metrics.getDefault()
+			.counter("render.heatmap_empty_tiles");
+
+	private final DensityPyramid pyramid = new DensityPyramid();
+	private final TileOverlay tileOverlay;
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Constructor for class HeatmapOverlay. Adds the overlay to the map.
+	 * 
+	 * @param map
+	 *            The map to draw on.
+	 */
+	public HeatmapOverlay(GoogleMap map) {
+		tileOverlay = map.addTileOverlay(new TileOverlayOptions()
+				.tileProvider(this).zIndex(-1));
+	}
+
+	/**
+	 * Adds orders to the overlay and redraws it. Must be called on the main
+	 * thread.
+	 * 
+	 * @param orderList
+	 *            List of geocoded orders.
+	 */
+	public void addOrders(List<Order> orderList) {
+		final List<Order> orders = new ArrayList<>(orderList);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				pyramid.addOrders(orders);
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Replaces all orders of the overlay and redraws it. Only the orders which
+	 * are new or gone are counted again. Must be called on the main thread.
+	 * 
+	 * @param orderList
+	 *            List of geocoded orders.
+	 */
+	public void setOrders(List<Order> orderList) {
+		final List<Order> orders = new ArrayList<>(orderList);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				pyramid.setOrders(orders);
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Shows or hides the overlay. Must be called on the main thread.
+	 * 
+	 * @param visible
+	 *            true to show the overlay.
+	 */
+	public void setVisible(boolean visible) {
+		tileOverlay.setVisible(visible);
+	}
+
+	/**
+	 * Stops the update thread and removes the overlay from the map. The
+	 * overlay cannot be used afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		pyramid.shutdown();
+		tileOverlay.remove();
+	}
+
+	/**
+	 * Makes the map fetch all tiles again after an update.
+	 */
+	private void refresh() {
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				tileOverlay.clearTileCache();
+			}
+		});
+	}
+
+	/**
+	 * Draws a tile. Called by the map on its own threads.
+	 */
+	@Override
+	public Tile getTile(int x, int y, int zoom) {
+		long start = Metrics.getDefault().startTimer();
+		int binCount = DensityPyramid.BINS_PER_TILE
+				* DensityPyramid.BINS_PER_TILE;
+		int[] departures = new int[binCount];
+		int[] destinations = new int[binCount];
+		if (pyramid.readTile(x, y, zoom, departures, destinations) == 0) {
+			EMPTY_TILES.increment();
+			return NO_TILE;
+		}
+		double scale = Math.log1p(Math.max(1, pyramid.getMaxCount(zoom)));
+
+		int[] pixels = new int[TILE_SIZE_PIXELS * TILE_SIZE_PIXELS];
+		for (int bin = 0; bin < binCount; bin++) {
+			int departureCount = departures[bin];
+			int destinationCount = destinations[bin];
+			int count = departureCount + destinationCount;
+			if (count == 0) {
+				continue;
+			}
+			double density = Math.min(1, Math.log1p(Math.max(departureCount,
+					destinationCount)) / scale);
+			int red = 255 * destinationCount / count;
+			int color = Color.argb(
+					MIN_ALPHA + (int) ((MAX_ALPHA - MIN_ALPHA) * density),
+					red, 255 - red, 0);
+			int left = (bin % DensityPyramid.BINS_PER_TILE) * BIN_SIZE_PIXELS;
+			int top = (bin / DensityPyramid.BINS_PER_TILE) * BIN_SIZE_PIXELS;
+			for (int row = top; row < top + BIN_SIZE_PIXELS; row++) {
+				int offset = row * TILE_SIZE_PIXELS + left;
+				Arrays.fill(pixels, offset, offset + BIN_SIZE_PIXELS, color);
+			}
+		}
+
+		Bitmap bitmap = Bitmap.createBitmap(pixels, TILE_SIZE_PIXELS,
+				TILE_SIZE_PIXELS, Bitmap.Config.ARGB_8888);
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+		bitmap.recycle();
+		TILE_TIME.recordSince(start);
+		return new Tile(TILE_SIZE_PIXELS, TILE_SIZE_PIXELS, png.toByteArray());
+	}
+}
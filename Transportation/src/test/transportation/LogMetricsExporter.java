@@ -0,0 +1,22 @@
+package test.transportation;
+
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Writes the metrics to the Android log, one line per instrument, so long
+ * dumps are not cut off by the line limit of logcat.
+ * 
+ */
+public class LogMetricsExporter implements MetricsExporter {
+
+	private final String TAG = "Metrics";
+
+	@Override
+	public void export(Metrics metrics) {
+		for (Map.Entry<String, Object> entry : metrics.snapshot()) {
+			Log.i(TAG, entry.getKey() + " " + Metrics.toJson(entry.getValue()));
+		}
+	}
+}
@@ -1,10 +1,16 @@
 package test.transportation;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import android.app.Activity;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Loader;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.ProgressBar;
@@ -14,19 +20,21 @@ import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
 import com.google.android.gms.maps.OnMapReadyCallback;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.maps.model.PolylineOptions;
 
 /**
  * The main Activity class for the Transportation application. Has a map on it
  * and a ProgressBar object to get user know about the loading process. This
- * class also contains callback methods for orders data loader.
+ * class also contains callback methods for orders data loader. Orders are drawn
+ * in batches while the loader is still geocoding the rest, as clusters of the
+ * visible part of the map over a density map of all points. When the load is
+ * finished, the orders on the map are replaced by the complete list, and the
+ * runs planned by the loader are drawn as well. A filter on the addresses,
+ * set with setFilter, limits the map to the matching orders.
  * 
  */
 public class MapActivity extends Activity implements OnMapReadyCallback,
-		LoaderCallbacks<List<Order>> {
+		LoaderCallbacks<List<Order>>, TransportationLoader.ProgressCallbacks {
 
 	/**
 	 * Identifier for orders data loader.
@@ -43,27 +51,83 @@ public class MapActivity extends Activity implements OnMapReadyCallback,
 	 */
 	private final float DEFAULT_ZOOM_LEVEL = 5.5f;
 
+	private static final Metrics.Counter DROPPED_ORDERS = Metrics
+			.getDefault().counter("render.dropped_orders");
+
 	private GoogleMap map;
+	private ClusterOverlay overlay;
+	private HeatmapOverlay heatmap;
 	private ProgressBar progressBar;
 
+	/**
+	 * Orders which are already on the map or hidden by the filter, and orders
+	 * which arrived before the map was ready.
+	 */
+	private final Set<Order> drawnOrders = Collections
+			.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+	private final List<Order> pendingOrders = new ArrayList<>();
+
+	/**
+	 * Index of the orders in drawnOrders, and the filter of the orders which
+	 * are shown; null shows all of them.
+	 */
+	private final OrderFilterIndex filterIndex = new OrderFilterIndex();
+	private OrderFilterIndex.Filter filter = null;
+	private List<TripPlanner.Run> runs = null;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.layout_map);
 
-		getLoaderManager().initLoader(LOADER_TRANSPORTATION_ID, null, this)
-				.forceLoad();
+		// Debug builds write the metrics of each load to the log
+		if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+			Metrics.getDefault().setExporter(new LogMetricsExporter());
+		}
+
+		// An existing loader keeps its orders across a rotation; it hands
+		// them out again when the activity starts, without loading anew
+		progressBar = (ProgressBar) findViewById(R.id.progressBar);
+		Loader<List<Order>> loader = getLoaderManager().initLoader(
+				LOADER_TRANSPORTATION_ID, null, this);
+		((TransportationLoader) loader).setProgressCallbacks(this);
 
 		MapFragment mapFragment = (MapFragment) getFragmentManager()
 				.findFragmentById(R.id.map);
 		mapFragment.getMapAsync(this);
 	}
 
+	@Override
+	protected void onDestroy() {
+		Loader<List<Order>> loader = getLoaderManager().getLoader(
+				LOADER_TRANSPORTATION_ID);
+		if (loader != null) {
+			((TransportationLoader) loader).setProgressCallbacks(null);
+		}
+		if (overlay != null) {
+			overlay.shutdown();
+		}
+		if (heatmap != null) {
+			heatmap.shutdown();
+		}
+		super.onDestroy();
+	}
+
 	@Override
 	public void onMapReady(GoogleMap newMap) {
 		map = newMap;
 		map.moveCamera(CameraUpdateFactory.newLatLngZoom(DEFAULT_FOCUS_POINT,
 				DEFAULT_ZOOM_LEVEL));
+		heatmap = new HeatmapOverlay(map);
+		overlay = new ClusterOverlay(map);
+
+		if (!pendingOrders.isEmpty()) {
+			drawAddressesOnMap(pendingOrders);
+			pendingOrders.clear();
+		}
+		if (runs != null) {
+			overlay.setRuns(runs);
+		}
 	}
 
 	@Override
@@ -73,7 +137,6 @@ public class MapActivity extends Activity implements OnMapReadyCallback,
 			loader = new TransportationLoader(this);
 		}
 
-		progressBar = (ProgressBar) findViewById(R.id.progressBar);
 		progressBar.setVisibility(View.VISIBLE);
 		Toast.makeText(this, "Loading orders...", Toast.LENGTH_LONG).show();
 
@@ -85,36 +148,121 @@ public class MapActivity extends Activity implements OnMapReadyCallback,
 		if (loader.getId() == LOADER_TRANSPORTATION_ID) {
 			progressBar.setVisibility(View.GONE);
 
+			for (Order order : orderList) {
+				if (!order.hasCoordinates()) {
+					DROPPED_ORDERS.increment();
+				}
+			}
+			replaceOrders(orderList);
+
+			runs = ((TransportationLoader) loader).getRuns();
+			if (overlay != null) {
+				overlay.setRuns(runs);
+			}
+		}
+	}
+
+	@Override
+	public void onOrdersBatch(TransportationLoader loader, List<Order> batch) {
+		addOrders(batch);
+	}
+
+	/**
+	 * Shows only the orders which match the filter, e.g.
+	 * OrderFilterIndex.countryCode(Order.DEPARTURE_ID, "DEU").and(
+	 * OrderFilterIndex.countryCode(Order.DESTINATION_ID, "POL")). The orders
+	 * are looked up in an index, so the map changes without a new load.
+	 * @param newFilter The filter, or null to show all orders.
+	 */
+	public void setFilter(OrderFilterIndex.Filter newFilter) {
+		filter = newFilter;
+		if (map == null) {
+			return;
+		}
+		List<Order> shown = (filter != null) ? filterIndex.find(filter)
+				: new ArrayList<>(drawnOrders);
+		heatmap.setOrders(shown);
+		overlay.setOrders(shown);
+	}
+
+	/**
+	 * Draws the given orders, or keeps them until the map is ready.
+	 * @param orderList List of transportation orders. 
+	 */
+	private void addOrders(List<Order> orderList) {
+		if (map == null) {
+			pendingOrders.addAll(orderList);
+		} else {
 			drawAddressesOnMap(orderList);
 		}
 	}
 
 	/**
-	 * This method adds the departure and destination markers to the map and draws a line between them.
+	 * Replaces all orders on the map with the complete list of a load, so
+	 * orders which have changed or are gone since the last load disappear.
+	 * A changed order is a new Order object, so the orders are compared by
+	 * identity and only the difference is taken out of and put into the
+	 * index.
+	 * @param orderList List of transportation orders. 
+	 */
+	private void replaceOrders(List<Order> orderList) {
+		pendingOrders.clear();
+		if (map == null) {
+			drawnOrders.clear();
+			filterIndex.clear();
+			pendingOrders.addAll(orderList);
+			return;
+		}
+		Set<Order> current = Collections
+				.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+		List<Order> geocoded = new ArrayList<>();
+		for (Order order : orderList) {
+			if (order.hasCoordinates() && current.add(order)) {
+				geocoded.add(order);
+			}
+		}
+		Iterator<Order> iterator = drawnOrders.iterator();
+		while (iterator.hasNext()) {
+			Order order = iterator.next();
+			if (!current.contains(order)) {
+				iterator.remove();
+				filterIndex.remove(order);
+			}
+		}
+		for (Order order : geocoded) {
+			if (drawnOrders.add(order)) {
+				filterIndex.add(order);
+			}
+		}
+		if (filter != null) {
+			geocoded = filterIndex.find(filter);
+		}
+		heatmap.setOrders(geocoded);
+		overlay.setOrders(geocoded);
+	}
+
+	/**
+	 * This method passes the departure and destination points to the cluster
+	 * overlay, which draws them together with the lines between them, and to
+	 * the density map.
+	 * Orders which are already on the map are skipped, and so are orders which
+	 * do not match the filter; they are kept in the index for a later filter.
 	 * @param orderList List of transportation orders. 
 	 */
 	private void drawAddressesOnMap(List<Order> orderList) {
+		List<Order> newOrders = new ArrayList<>();
 		for (Order order : orderList) {
-			if (order.hasCoordinates()) {
-
-				LatLng departure = order.getDepartureCoordinates();
-				map.addMarker(new MarkerOptions()
-						.position(departure)
-						.icon(BitmapDescriptorFactory
-								.defaultMarker(BitmapDescriptorFactory.HUE_GREEN))
-						.title(order.addressToString(Order.DEPARTURE_ID)));
-
-				LatLng destination = order.getDestinationCoordinates();
-				map.addMarker(new MarkerOptions()
-						.position(destination)
-						.icon(BitmapDescriptorFactory
-								.defaultMarker(BitmapDescriptorFactory.HUE_RED))
-						.title(order.addressToString(Order.DESTINATION_ID)));
-
-				map.addPolyline(new PolylineOptions().add(departure)
-						.add(destination).width(3));
+			if (order.hasCoordinates() && drawnOrders.add(order)) {
+				filterIndex.add(order);
+				if (filter == null || filter.matches(order)) {
+					newOrders.add(order);
+				}
 			}
 		}
+		if (!newOrders.isEmpty()) {
+			heatmap.addOrders(newOrders);
+			overlay.addOrders(newOrders);
+		}
 	}
 
 	@Override
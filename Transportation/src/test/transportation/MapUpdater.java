@@ -0,0 +1,175 @@
+package test.transportation;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+/**
+ * Applies the diffs between render models to the map. Every marker and line
+ * stays on the map until a diff removes or changes it, so a redraw costs only
+ * as many map calls as objects have changed. The calls of a diff are spread
+ * over several messages of the main thread, each of them taking at most
+ * FRAME_BUDGET_MILLIS, so the frames in between are drawn on time. Diffs are
+ * applied completely and in the order they were queued, since every diff is
+ * relative to the one before it. All methods must be called on the main
+ * thread.
+ * 
+ */
+class MapUpdater implements Runnable {
+
+	/**
+	 * Time the updater may block the main thread at once, in milliseconds;
+	 * half of a frame at 60 frames per second.
+	 */
+	private final long FRAME_BUDGET_MILLIS = 8;
+
+	private static final Metrics.Histogram DRAW_TIME = Metrics.getDefault()
+			.histogram("render.draw");
+	private static final Metrics.Counter OPERATIONS = Metrics.getDefault()
+			.counter("render.operations");
+	private static final Metrics.Counter FRAMES = Metrics.getDefault()
+			.counter("render.frames");
+
+	private final GoogleMap map;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final Map<String, Marker> markers = new HashMap<>();
+	private final Map<String, Polyline> polylines = new HashMap<>();
+
+	private final Queue<RenderModel.Diff> diffs = new ArrayDeque<>();
+
+	/**
+	 * Number of operations of the head diff which have been applied.
+	 */
+	private int applied;
+	private boolean scheduled;
+
+	/**
+	 * Constructor for class MapUpdater.
+	 * 
+	 * @param map
+	 *            The map to draw on.
+	 */
+	MapUpdater(GoogleMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Queues a diff and starts applying it with the next message of the main
+	 * thread.
+	 * 
+	 * @param diff
+	 *            Changes relative to the last diff queued.
+	 */
+	void apply(RenderModel.Diff diff) {
+		if (diff.size() == 0) {
+			return;
+		}
+		diffs.add(diff);
+		if (!scheduled) {
+			scheduled = true;
+			mainHandler.post(this);
+		}
+	}
+
+	/**
+	 * Stops applying the queued diffs. The objects on the map are kept.
+	 */
+	void cancel() {
+		mainHandler.removeCallbacks(this);
+		diffs.clear();
+		applied = 0;
+		scheduled = false;
+	}
+
+	@Override
+	public void run() {
+		long start = Metrics.getDefault().startTimer();
+		long deadline = SystemClock.uptimeMillis() + FRAME_BUDGET_MILLIS;
+		int operations = 0;
+		do {
+			RenderModel.Diff diff = diffs.peek();
+			if (applied == diff.size()) {
+				diffs.remove();
+				applied = 0;
+				continue;
+			}
+			applyOperation(diff, applied++);
+			operations++;
+		} while (!diffs.isEmpty() && SystemClock.uptimeMillis() < deadline);
+
+		OPERATIONS.add(operations);
+		FRAMES.increment();
+		DRAW_TIME.recordSince(start);
+		scheduled = !diffs.isEmpty();
+		if (scheduled) {
+			mainHandler.post(this);
+		}
+	}
+
+	/**
+	 * Applies one operation of a diff: removals first, then changes, then
+	 * additions.
+	 * 
+	 * @param diff
+	 *            The diff.
+	 * @param index
+	 *            Index of the operation, below diff.size().
+	 */
+	private void applyOperation(RenderModel.Diff diff, int index) {
+		if (index < diff.removedMarkers.size()) {
+			Marker marker = markers.remove(diff.removedMarkers.get(index));
+			if (marker != null) {
+				marker.remove();
+			}
+			return;
+		}
+		index -= diff.removedMarkers.size();
+		if (index < diff.removedLines.size()) {
+			Polyline polyline = polylines.remove(diff.removedLines.get(index));
+			if (polyline != null) {
+				polyline.remove();
+			}
+			return;
+		}
+		index -= diff.removedLines.size();
+		if (index < diff.changedMarkers.size()) {
+			RenderModel.MarkerSpec spec = diff.changedMarkers.get(index);
+			Marker marker = markers.get(spec.key);
+			marker.setPosition(spec.position);
+			marker.setTitle(spec.title);
+			return;
+		}
+		index -= diff.changedMarkers.size();
+		if (index < diff.changedLines.size()) {
+			RenderModel.LineSpec spec = diff.changedLines.get(index);
+			polylines.get(spec.key).setPoints(spec.points);
+			return;
+		}
+		index -= diff.changedLines.size();
+		if (index < diff.addedMarkers.size()) {
+			RenderModel.MarkerSpec spec = diff.addedMarkers.get(index);
+			markers.put(spec.key, map.addMarker(new MarkerOptions()
+					.position(spec.position)
+					.icon(BitmapDescriptorFactory.defaultMarker(spec.hue))
+					.title(spec.title)));
+			return;
+		}
+		index -= diff.addedMarkers.size();
+		RenderModel.LineSpec spec = diff.addedLines.get(index);
+		polylines.put(spec.key, map.addPolyline(new PolylineOptions()
+				.addAll(spec.points).width(spec.width).color(spec.color)));
+	}
+}
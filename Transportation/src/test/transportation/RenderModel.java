@@ -0,0 +1,238 @@
+package test.transportation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import android.graphics.Color;
+
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Everything the map shows for one camera position: the markers of the
+ * clusters with their positions, titles and hues, and the points of the order
+ * lines and runs. The model is built on the clustering thread, so the main
+ * thread only has to put the prepared objects on the map. Each marker and line
+ * has a key which stays the same while the object stays on the map, e.g. for
+ * a cluster which only grows, so two models can be compared with diff.
+ * 
+ */
+class RenderModel {
+
+	/**
+	 * Width and color of the lines between the points of one order and of the
+	 * lines of the runs.
+	 */
+	private static final float ORDER_LINE_WIDTH = 3;
+	private static final float RUN_LINE_WIDTH = 4;
+	private static final int ORDER_LINE_COLOR = Color.BLACK;
+	private static final int RUN_LINE_COLOR = Color.BLUE;
+
+	static final RenderModel EMPTY = new RenderModel();
+
+	/**
+	 * A marker to show.
+	 */
+	static class MarkerSpec {
+		final String key;
+		final LatLng position;
+		final String title;
+		final float hue;
+
+		MarkerSpec(String key, LatLng position, String title, float hue) {
+			this.key = key;
+			this.position = position;
+			this.title = title;
+			this.hue = hue;
+		}
+
+		/**
+		 * The hue follows from the key, so only position and title can
+		 * differ between two markers with the same key.
+		 */
+		boolean looksLike(MarkerSpec other) {
+			return position.equals(other.position) && title.equals(other.title);
+		}
+	}
+
+	/**
+	 * A line to show.
+	 */
+	static class LineSpec {
+		final String key;
+		final List<LatLng> points;
+		final float width;
+		final int color;
+
+		LineSpec(String key, List<LatLng> points, float width, int color) {
+			this.key = key;
+			this.points = points;
+			this.width = width;
+			this.color = color;
+		}
+
+		/**
+		 * Width and color follow from the key, so only the points can differ
+		 * between two lines with the same key.
+		 */
+		boolean looksLike(LineSpec other) {
+			return points.equals(other.points);
+		}
+	}
+
+	/**
+	 * Changes which turn the map of one model into the map of another.
+	 * Objects are removed first, then changed in place, then added, so the
+	 * map never holds more objects than the larger of both models.
+	 */
+	static class Diff {
+		final List<String> removedMarkers = new ArrayList<>();
+		final List<String> removedLines = new ArrayList<>();
+		final List<MarkerSpec> changedMarkers = new ArrayList<>();
+		final List<LineSpec> changedLines = new ArrayList<>();
+		final List<MarkerSpec> addedMarkers = new ArrayList<>();
+		final List<LineSpec> addedLines = new ArrayList<>();
+
+		/**
+		 * @return Number of map operations of the diff.
+		 */
+		int size() {
+			return removedMarkers.size() + removedLines.size()
+					+ changedMarkers.size() + changedLines.size()
+					+ addedMarkers.size() + addedLines.size();
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US,
+					"markers +%d -%d ~%d, lines +%d -%d ~%d",
+					addedMarkers.size(), removedMarkers.size(),
+					changedMarkers.size(), addedLines.size(),
+					removedLines.size(), changedLines.size());
+		}
+	}
+
+	private final Map<String, MarkerSpec> markers = new LinkedHashMap<>();
+	private final Map<String, LineSpec> lines = new LinkedHashMap<>();
+
+	private RenderModel() {
+	}
+
+	/**
+	 * Builds the model of the visible clusters and runs. Single points are
+	 * keyed by their position, so they keep their markers across zoom
+	 * levels; clusters of several points are keyed by their grid cell, so a
+	 * cluster which gains points only moves.
+	 * 
+	 * @param result
+	 *            Visible clusters and order lines.
+	 * @param runLines
+	 *            Points of the visible runs, in the order of the runs.
+	 * @return The new model.
+	 */
+	static RenderModel build(OrderClusterer.Result result,
+			List<List<LatLng>> runLines) {
+		RenderModel model = new RenderModel();
+		for (OrderClusterer.Cluster cluster : result.clusters) {
+			boolean departure = cluster.placeType == Order.DEPARTURE_ID;
+			LatLng position = new LatLng(cluster.latitude, cluster.longitude);
+			String key;
+			String title;
+			if (cluster.order != null) {
+				key = cluster.placeType + "@" + cluster.latitude + ","
+						+ cluster.longitude;
+				title = cluster.order.addressToString(cluster.placeType);
+			} else {
+				key = cluster.placeType + "#" + result.zoom + ":"
+						+ cluster.cell;
+				title = String.format(Locale.US, "%d %s", cluster.count,
+						departure ? "departures" : "destinations");
+			}
+			model.markers.put(key, new MarkerSpec(key, position, title,
+					departure ? BitmapDescriptorFactory.HUE_GREEN
+							: BitmapDescriptorFactory.HUE_RED));
+		}
+
+		for (Order order : result.lines) {
+			LatLng departure = toLatLng(order.getDepartureCoordinates());
+			LatLng destination = toLatLng(order.getDestinationCoordinates());
+			String key = "o@" + departure.latitude + "," + departure.longitude
+					+ ">" + destination.latitude + "," + destination.longitude;
+			List<LatLng> points = new ArrayList<>(2);
+			points.add(departure);
+			points.add(destination);
+			model.lines.put(key, new LineSpec(key, points, ORDER_LINE_WIDTH,
+					ORDER_LINE_COLOR));
+		}
+		for (int i = 0; i < runLines.size(); i++) {
+			String key = "r" + i;
+			model.lines.put(key, new LineSpec(key, Collections
+					.unmodifiableList(runLines.get(i)), RUN_LINE_WIDTH,
+					RUN_LINE_COLOR));
+		}
+		return model;
+	}
+
+	/**
+	 * Compares this model, which is on the map, with the next one.
+	 * 
+	 * @param next
+	 *            Model to show instead of this one.
+	 * @return The changes which turn this model into the next one.
+	 */
+	Diff diff(RenderModel next) {
+		Diff diff = new Diff();
+		for (String key : markers.keySet()) {
+			if (!next.markers.containsKey(key)) {
+				diff.removedMarkers.add(key);
+			}
+		}
+		for (MarkerSpec marker : next.markers.values()) {
+			MarkerSpec current = markers.get(marker.key);
+			if (current == null) {
+				diff.addedMarkers.add(marker);
+			} else if (!current.looksLike(marker)) {
+				diff.changedMarkers.add(marker);
+			}
+		}
+		for (String key : lines.keySet()) {
+			if (!next.lines.containsKey(key)) {
+				diff.removedLines.add(key);
+			}
+		}
+		for (LineSpec line : next.lines.values()) {
+			LineSpec current = lines.get(line.key);
+			if (current == null) {
+				diff.addedLines.add(line);
+			} else if (!current.looksLike(line)) {
+				diff.changedLines.add(line);
+			}
+		}
+		return diff;
+	}
+
+	/**
+	 * @return Number of markers of the model.
+	 */
+	int getMarkerCount() {
+		return markers.size();
+	}
+
+	/**
+	 * @return Number of lines of the model.
+	 */
+	int getLineCount() {
+		return lines.size();
+	}
+
+	/**
+	 * Converts a point of the order pipeline into a point of the map.
+	 */
+	static LatLng toLatLng(GeoPoint point) {
+		return new LatLng(point.latitude, point.longitude);
+	}
+}
@@ -1,36 +1,385 @@
 package test.transportation;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 /**
  * This loader class is used for long-time operations while modifying data about
  * orders. In the background thread it gets details about existing orders, uses
  * geocoder to get coordinates of each order addresses and gives this data back for
- * drawing it to the map.
+ * drawing it to the map. The loader keeps the orders of its last run, so later
+ * runs only download a changed feed and only geocode new or changed orders.
+ * While loading, it can publish the orders which are already geocoded in
+ * batches, so they can be drawn before the whole load is finished. The orders
+ * of each load are saved to a snapshot file; after a restart of the
+ * application they are published from there right away, while the feed is
+ * loaded again. After each load, the loader plans vehicle runs which chain
+ * the orders, see getRuns.
+ * 
+ * The loader keeps the orders of its last load in memory and hands them out
+ * right away when it is started again, e.g. after a rotation, instead of
+ * loading anew. While it is started, a RefreshScheduler reloads the orders in
+ * the background; a refresh is only delivered if the orders have changed.
  *   
  */
 public class TransportationLoader extends AsyncTaskLoader<List<Order>> {
 
+	/**
+	 * Callback interface for the batches of geocoded orders which are
+	 * published while the loader is still running.
+	 */
+	public interface ProgressCallbacks {
+
+		/**
+		 * Called on the main thread with the next batch of geocoded orders.
+		 * The final result of the load contains these orders again.
+		 * 
+		 * @param loader
+		 *            The loader which publishes the batch.
+		 * @param batch
+		 *            Orders geocoded since the previous batch.
+		 */
+		void onOrdersBatch(TransportationLoader loader, List<Order> batch);
+	}
+
+	private final String TAG = "TransportationLoader";
+
+	/**
+	 * Name of the directory for the geocode cache, below the cache directory
+	 * of the application.
+	 */
+	private final String GEOCODE_CACHE_DIR = "geocode";
+
+	/**
+	 * Name of the snapshot file of the orders, in the cache directory of the
+	 * application.
+	 */
+	private final String SNAPSHOT_FILE = "orders.snapshot";
+
+	/**
+	 * Name of the gazetteer file, in the files directory of the application.
+	 * If it exists, postcodes and cities are looked up in it before the
+	 * geocoding service is asked.
+	 */
+	private final String GAZETTEER_FILE = "gazetteer.bin";
+
+	/**
+	 * Time allowed for planning the runs after a load, in milliseconds.
+	 */
+	private final long PLAN_BUDGET_MILLIS = 2000;
+
+	private static final Metrics.Histogram LOAD_TIME = Metrics.getDefault()
+			.histogram("load.total");
+	private static final Metrics.Histogram SNAPSHOT_READ_TIME = Metrics
+			.getDefault().histogram("load.snapshot_read");
+	private static final Metrics.Counter UNCHANGED_REFRESHES = Metrics
+			.getDefault().counter("refresh.unchanged");
+
 	OrderParser orderParser = null;
 	AddressGeocoder geocoder = null;
+	OrderFeedSynchronizer synchronizer = null;
+	TripPlanner planner = null;
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private volatile ProgressCallbacks progressCallbacks = null;
+	private volatile List<TripPlanner.Run> runs = Collections.emptyList();
+
+	/**
+	 * Orders of the last load, delivered again when the loader is started.
+	 * Only used on the main thread.
+	 */
+	private List<Order> orders = null;
+	private final RefreshScheduler refreshScheduler = new RefreshScheduler();
+
+	/**
+	 * Orders of the last load as seen by the loading thread, returned again
+	 * by loads which find no changes.
+	 */
+	private volatile List<Order> loadedOrders = null;
 
 	public TransportationLoader(Context context) {
 		super(context);
 	}
 
+	/**
+	 * Setter method for the progress callbacks. Batches are only published
+	 * while callbacks are set.
+	 * 
+	 * @param callbacks
+	 *            Receiver of the batches of geocoded orders, or null.
+	 */
+	public void setProgressCallbacks(ProgressCallbacks callbacks) {
+		progressCallbacks = callbacks;
+	}
+
+	/**
+	 * Changes the time between two background refreshes.
+	 * 
+	 * @param intervalMillis
+	 *            Mean time between two refreshes, or 0 to load only on
+	 *            demand.
+	 * @param jitter
+	 *            Share of the interval, from 0 to 1, by which a refresh may
+	 *            come earlier or later.
+	 */
+	public void setRefreshInterval(long intervalMillis, double jitter) {
+		refreshScheduler.setInterval(intervalMillis, jitter);
+		if (isStarted()) {
+			startRefreshes();
+		}
+	}
+
+	/**
+	 * Getter method for the runs planned for the orders of the last load.
+	 * 
+	 * @return List of runs, empty before the first load has finished.
+	 */
+	public List<TripPlanner.Run> getRuns() {
+		return runs;
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (orders != null) {
+			super.deliverResult(orders);
+		}
+		if (orders == null || takeContentChanged()) {
+			forceLoad();
+		}
+		startRefreshes();
+	}
+
+	@Override
+	protected void onStopLoading() {
+		refreshScheduler.stop();
+	}
+
+	@Override
+	protected void onReset() {
+		onStopLoading();
+		cancelLoad();
+		orders = null;
+	}
+
+	/**
+	 * Delivers the orders of a load to the callbacks, unless they are the
+	 * ones delivered before because the load found no changes.
+	 */
+	@Override
+	public void deliverResult(List<Order> data) {
+		if (isReset()) {
+			return;
+		}
+		if (data == orders) {
+			UNCHANGED_REFRESHES.increment();
+			return;
+		}
+		orders = data;
+		if (isStarted()) {
+			super.deliverResult(data);
+		}
+	}
+
+	/**
+	 * Schedules the background refreshes. A refresh which is due posts a
+	 * content change to the main thread, which starts the load if the loader
+	 * is still started and no other load is running.
+	 */
+	private void startRefreshes() {
+		refreshScheduler.start(new Runnable() {
+			@Override
+			public void run() {
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (!refreshScheduler.isInFlight()) {
+							onContentChanged();
+						}
+					}
+				});
+			}
+		});
+	}
+
 	@Override
 	public List<Order> loadInBackground() {
+		refreshScheduler.begin();
+		try {
+			return load();
+		} finally {
+			refreshScheduler.end();
+		}
+	}
+
+	/**
+	 * Brings the orders up to date with the feed. Batches are only published
+	 * during the first load; later loads are refreshes of orders which are
+	 * already on the map.
+	 * 
+	 * @return The current orders, or the orders of the last load if nothing
+	 *         has changed.
+	 */
+	private List<Order> load() {
+		long start = Metrics.getDefault().startTimer();
 		if (orderParser == null)
 			orderParser = new OrderParser();
-		List<Order> orderList = orderParser.parse();
 
-		if (geocoder == null)
+		if (geocoder == null) {
 			geocoder = new AddressGeocoder();
-		geocoder.getAllCoordinates(orderList);
+			geocoder.setCache(new GeocodeCache(new File(getContext()
+					.getCacheDir(), GEOCODE_CACHE_DIR)));
+			loadGazetteer(new File(getContext().getFilesDir(), GAZETTEER_FILE));
+		}
+
+		File snapshotFile = new File(getContext().getCacheDir(), SNAPSHOT_FILE);
+		if (synchronizer == null) {
+			synchronizer = new OrderFeedSynchronizer(orderParser, geocoder);
+			restoreSnapshot(snapshotFile);
+		}
+		OrderBatcher batcher = null;
+		if (progressCallbacks != null && loadedOrders == null) {
+			batcher = new OrderBatcher(new OrderBatchListener() {
+				@Override
+				public void onOrdersBatch(List<Order> batch) {
+					publishBatch(batch);
+				}
+			});
+		}
+		List<Order> orderList = synchronizer.synchronize(batcher);
+		Log.i(TAG, "Orders loaded: " + synchronizer.getLastDelta());
+		boolean changed = synchronizer.getLastDelta().hasChanges()
+				|| synchronizer.getLastGeocodedCount() > 0;
+		if (loadedOrders != null && !changed) {
+			LOAD_TIME.recordSince(start);
+			Metrics.getDefault().export();
+			return loadedOrders;
+		}
+		Log.i(TAG, "Geocoding finished: " + geocoder.getStatistics());
+		Log.i(TAG, "Geocode cache: " + geocoder.getCache());
+		Log.i(TAG, String.format(Locale.US, "Total trip distance: %.0f km",
+				DistanceEngine.totalKm(DistanceEngine.tripDistancesKm(orderList))));
+		if (changed || !snapshotFile.isFile()) {
+			saveSnapshot(snapshotFile, orderList);
+		}
+		planRuns(orderList);
+		LOAD_TIME.recordSince(start);
+		Metrics.getDefault().export();
+		loadedOrders = orderList;
 		return orderList;
 	}
 
-}
+	/**
+	 * Reads the gazetteer and puts it in front of the geocoding service. The
+	 * map only needs the postcode centroids, so the service is asked only for
+	 * addresses which the gazetteer does not know to the postcode. Without
+	 * a gazetteer file, all addresses go to the service.
+	 * 
+	 * @param file
+	 *            The gazetteer file.
+	 */
+	private void loadGazetteer(File file) {
+		GazetteerGeocoder gazetteer = null;
+		try {
+			gazetteer = GazetteerGeocoder.read(file);
+		} catch (IOException ioexception) {
+			ioexception.printStackTrace();
+		}
+		if (gazetteer == null) {
+			return;
+		}
+		geocoder.setGeocoder(new ChainedGeocoder(Geocoder.Precision.POSTCODE,
+				gazetteer, geocoder));
+		Log.i(TAG, "Gazetteer loaded: " + gazetteer.size() + " entries");
+	}
+
+	/**
+	 * Reads the orders of the last run from the snapshot, passes them to the
+	 * synchronizer as the known version and publishes them. A damaged
+	 * snapshot is deleted.
+	 * 
+	 * @param file
+	 *            The snapshot file.
+	 */
+	private void restoreSnapshot(File file) {
+		long start = Metrics.getDefault().startTimer();
+		OrderSnapshot snapshot = null;
+		try {
+			snapshot = OrderSnapshot.read(file);
+		} catch (IOException ioexception) {
+			ioexception.printStackTrace();
+			file.delete();
+		}
+		if (snapshot == null) {
+			return;
+		}
+		List<Order> orderList = snapshot.getOrders();
+		synchronizer.restore(orderList, snapshot.getEntityTag(),
+				snapshot.getLastModified());
+		SNAPSHOT_READ_TIME.recordSince(start);
+		Log.i(TAG, "Orders restored from snapshot: " + orderList.size());
+		if (progressCallbacks != null && !orderList.isEmpty()) {
+			publishBatch(orderList);
+		}
+	}
+
+	/**
+	 * Plans the runs for the loaded orders within the time budget.
+	 * 
+	 * @param orderList
+	 *            The loaded orders.
+	 */
+	private void planRuns(List<Order> orderList) {
+		if (planner == null)
+			planner = new TripPlanner();
+		try {
+			List<TripPlanner.Run> plannedRuns = planner.plan(orderList,
+					PLAN_BUDGET_MILLIS);
+			double emptyKm = 0;
+			for (TripPlanner.Run run : plannedRuns) {
+				emptyKm += run.getEmptyKm();
+			}
+			Log.i(TAG, String.format(Locale.US,
+					"Runs planned: %d, empty distance %.0f km",
+					plannedRuns.size(), emptyKm));
+			runs = plannedRuns;
+		} catch (InterruptedException interruptedexception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void saveSnapshot(File file, List<Order> orderList) {
+		try {
+			OrderSnapshot.write(file, orderList, synchronizer.getEntityTag(),
+					synchronizer.getLastModified());
+		} catch (IOException ioexception) {
+			ioexception.printStackTrace();
+		}
+	}
+
+	/**
+	 * Hands a batch of geocoded orders over to the main thread.
+	 * 
+	 * @param batch
+	 *            Orders geocoded since the previous batch.
+	 */
+	private void publishBatch(final List<Order> batch) {
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				ProgressCallbacks callbacks = progressCallbacks;
+				if (callbacks != null && !isAbandoned() && !isReset()) {
+					callbacks.onOrdersBatch(TransportationLoader.this, batch);
+				}
+			}
+		});
+	}
+}
\ No newline at end of file